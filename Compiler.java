@@ -5,6 +5,7 @@ import backend.CodeGenerator;
 import backend.LlvmIRGenerator;
 import backend.ir.IrModule;
 import opt.llvm.LlvmOptimizer;
+import opt.llvm.OptLevel;
 import opt.mips.MipsOptimizer;
 import semantic.SemanticAnalyzer;
 
@@ -22,8 +23,15 @@ public class Compiler {
         System.setOut(new PrintStream(new FileOutputStream("parser.txt")));
         System.setErr(new PrintStream(new FileOutputStream("error.txt")));
 
-        // 手动开关优化：true 开启优化，false 保持原始输出
-        boolean enableOpt = true;
+        // 优化级别：-O0 保持原始输出，-O1 默认流水线，-O2 额外使用图着色寄存器分配（编译更慢，代码更快）
+        // -fmemoize：为递归纯函数加记忆表（用空间换时间，默认关闭）
+        OptLevel optLevel = OptLevel.O1;
+        boolean memoize = false;
+        for (String arg : args) {
+            OptLevel level = OptLevel.parse(arg);
+            if (level != null) optLevel = level;
+            if (arg.equals("-fmemoize")) memoize = true;
+        }
 
         Error error = Error.getInstance();
 
@@ -48,15 +56,15 @@ public class Compiler {
             Files.write(Paths.get("symbol.txt"), semanticAnalyzer.dumpSymbols());
             LlvmIRGenerator llvm = new LlvmIRGenerator();
             IrModule irModule = llvm.generateModule(parser.getCompUnitNode());
-            if (enableOpt) {
-                irModule = new LlvmOptimizer().optimize(irModule);
+            if (optLevel != OptLevel.O0) {
+                irModule = new LlvmOptimizer().setMemoize(memoize).optimize(irModule, optLevel);
             }
             String ir = irModule.emit();
             Files.writeString(Paths.get("llvm_ir.txt"), ir);
             // LLVM -> MIPS
-            backend.LlvmToMipsGenerator llvm2mips = new backend.LlvmToMipsGenerator();
+            backend.LlvmToMipsGenerator llvm2mips = new backend.LlvmToMipsGenerator(optLevel == OptLevel.O2);
             String mipsOutput = llvm2mips.generateFromModule(irModule);
-            if (enableOpt) {
+            if (optLevel != OptLevel.O0) {
                 mipsOutput = new MipsOptimizer().optimize(mipsOutput);
             }
             Files.writeString(Paths.get("mips.txt"), mipsOutput);
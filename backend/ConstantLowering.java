@@ -0,0 +1,232 @@
+package backend;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lowering of {@code mul}, {@code sdiv} and {@code srem} whose second operand is a constant.
+ * Multiplications become shift/add/sub sequences over the signed-digit form of the constant
+ * when that is cheaper than loading the constant and a {@code mul}; signed division by a power
+ * of two becomes an arithmetic shift with a rounding bias for negative dividends, and division
+ * by any other constant a multiply-high by a magic number (Hacker's Delight, ch. 10).
+ * Remainders are {@code a - (a / c) * c} on top of those. Everything truncates toward zero
+ * like {@code div}.
+ * <p>
+ * The emitters read {@code a}, write {@code d} only with their last instruction (so {@code d}
+ * may be the same register as {@code a}) and use {@code $t1-$t3} as scratch; {@code a} must
+ * not be one of them.
+ */
+public final class ConstantLowering {
+    /** Cycles of a {@code mul}, where each instruction of a shift/add sequence takes one. */
+    private static final int MUL_CYCLES = 4;
+    private static final long MASK32 = 0xFFFFFFFFL;
+
+    private ConstantLowering() {
+    }
+
+    /** Emits {@code d = a * c}; returns false when a plain {@code mul} is cheaper. */
+    public static boolean emitMul(StringBuilder sb, String d, String a, int c) {
+        if (c == 0) {
+            sb.append("  move ").append(d).append(", $zero\n");
+            return true;
+        }
+        if (c == 1) {
+            if (!d.equals(a)) sb.append("  move ").append(d).append(", ").append(a).append("\n");
+            return true;
+        }
+        List<String> seq = mulSequence(d, a, c);
+        if (seq == null) return false;
+        for (String line : seq) sb.append(line);
+        return true;
+    }
+
+    /** Emits {@code d = a / c} (c != 0). */
+    public static void emitDiv(StringBuilder sb, String d, String a, int c) {
+        if (c == 1) {
+            if (!d.equals(a)) sb.append("  move ").append(d).append(", ").append(a).append("\n");
+            return;
+        }
+        if (c == -1) {
+            sb.append("  subu ").append(d).append(", $zero, ").append(a).append("\n");
+            return;
+        }
+        int k = log2Abs(c);
+        if (k > 0) {
+            roundedShift(sb, a, k);
+            if (c > 0) {
+                sb.append("  sra ").append(d).append(", $t3, ").append(k).append("\n");
+            } else {
+                sb.append("  sra $t3, $t3, ").append(k).append("\n");
+                sb.append("  subu ").append(d).append(", $zero, $t3\n");
+            }
+            return;
+        }
+        magicQuotient(sb, d, a, c);
+    }
+
+    /** Emits {@code d = a % c} (c != 0); the result takes the sign of {@code a}. */
+    public static void emitRem(StringBuilder sb, String d, String a, int c) {
+        if (c == 1 || c == -1) {
+            sb.append("  move ").append(d).append(", $zero\n");
+            return;
+        }
+        int k = log2Abs(c);
+        if (k > 0) {
+            // a - ((a + bias) with the low k bits cleared); the divisor's sign does not matter
+            roundedShift(sb, a, k);
+            sb.append("  sra $t3, $t3, ").append(k).append("\n");
+            sb.append("  sll $t3, $t3, ").append(k).append("\n");
+            sb.append("  subu ").append(d).append(", ").append(a).append(", $t3\n");
+            return;
+        }
+        magicQuotient(sb, "$t2", a, c);
+        List<String> product = mulSequence("$t1", "$t2", c);
+        if (product != null) {
+            for (String line : product) sb.append(line);
+        } else {
+            if ((c & 0xFFFF) == 0) {
+                sb.append("  lui $t3, ").append(c >>> 16).append("\n");
+            } else {
+                sb.append("  li $t3, ").append(c).append("\n");
+            }
+            sb.append("  mul $t1, $t2, $t3\n");
+        }
+        sb.append("  subu ").append(d).append(", ").append(a).append(", $t1\n");
+    }
+
+    /* ------------ multiplication ------------ */
+    /**
+     * Shift/add sequence for {@code d = a * c} built from the non-adjacent form of {@code c}
+     * (fewest nonzero signed digits), or null when it is not shorter than {@link #mulCost}.
+     * Partial sums live in {@code $t1}, shifted terms in {@code $t3}.
+     */
+    private static List<String> mulSequence(String d, String a, int c) {
+        List<int[]> digits = signedDigits(c);
+        // start from a positive digit so the sum never needs a separate negation
+        for (int i = 0; i < digits.size(); i++) {
+            if (digits.get(i)[1] > 0) {
+                digits.add(0, digits.remove(i));
+                break;
+            }
+        }
+        List<String> seq = new ArrayList<>();
+        String acc = null;
+        for (int[] digit : digits) {
+            int shift = digit[0];
+            boolean add = digit[1] > 0;
+            String term = a;
+            if (shift > 0) {
+                term = acc == null && add ? "$t1" : "$t3";
+                seq.add("  sll " + term + ", " + a + ", " + shift + "\n");
+            }
+            if (acc == null) {
+                if (!add) {
+                    seq.add("  subu $t1, $zero, " + term + "\n");
+                    term = "$t1";
+                }
+                acc = term;
+            } else {
+                seq.add("  " + (add ? "addu" : "subu") + " $t1, " + acc + ", " + term + "\n");
+                acc = "$t1";
+            }
+            if (seq.size() >= mulCost(c)) return null;
+        }
+        if (seq.isEmpty()) return null;
+        // the last instruction writes d directly
+        String last = seq.remove(seq.size() - 1);
+        int comma = last.indexOf(',');
+        int space = last.indexOf(' ', 2);
+        seq.add(last.substring(0, space + 1) + d + last.substring(comma));
+        return seq;
+    }
+
+    /**
+     * Cycles of the fallback {@code d = a * c}: the {@code mul} plus loading c, one instruction
+     * when it fits 16 bits or has a zero low half, two otherwise. Break-even for a sequence is
+     * therefore four instructions (five for a wide constant); it must be strictly shorter.
+     */
+    private static int mulCost(int c) {
+        boolean narrow = (c >= -32768 && c <= 65535) || (c & 0xFFFF) == 0;
+        return (narrow ? 1 : 2) + MUL_CYCLES;
+    }
+
+    /** Non-adjacent form of c as {shift, +1 or -1} pairs, lowest digit first (INT_MIN is -2^31). */
+    private static List<int[]> signedDigits(int c) {
+        List<int[]> digits = new ArrayList<>();
+        long n = c;
+        for (int shift = 0; n != 0; shift++, n >>= 1) {
+            if ((n & 1) == 0) continue;
+            int digit = (n & 3) == 1 ? 1 : -1;
+            // 2^31 and -2^31 are the same multiplier modulo 2^32
+            digits.add(new int[]{shift, shift == 31 ? 1 : digit});
+            n -= digit;
+        }
+        return digits;
+    }
+
+    /* ------------ division ------------ */
+    /** k when |c| = 2^k (c = INT_MIN gives 31), otherwise 0. */
+    private static int log2Abs(int c) {
+        long abs = Math.abs((long) c);
+        return Long.bitCount(abs) == 1 ? Long.numberOfTrailingZeros(abs) : 0;
+    }
+
+    /** {@code $t3 = a + (a < 0 ? 2^k - 1 : 0)}, so a following {@code sra} rounds toward zero. */
+    private static void roundedShift(StringBuilder sb, String a, int k) {
+        if (k == 1) {
+            sb.append("  srl $t3, ").append(a).append(", 31\n");
+        } else {
+            sb.append("  sra $t3, ").append(a).append(", 31\n");
+            sb.append("  srl $t3, $t3, ").append(32 - k).append("\n");
+        }
+        sb.append("  addu $t3, ").append(a).append(", $t3\n");
+    }
+
+    /** {@code d = a / c} for |c| >= 3 not a power of two: high word of a * M, corrected and shifted. */
+    private static void magicQuotient(StringBuilder sb, String d, String a, int c) {
+        long[] ms = magic(c);
+        int m = (int) ms[0];
+        int s = (int) ms[1];
+        sb.append("  li $t1, ").append(m).append("\n");
+        sb.append("  mult ").append(a).append(", $t1\n");
+        sb.append("  mfhi $t3\n");
+        if (c > 0 && m < 0) sb.append("  addu $t3, $t3, ").append(a).append("\n");
+        if (c < 0 && m > 0) sb.append("  subu $t3, $t3, ").append(a).append("\n");
+        if (s > 0) sb.append("  sra $t3, $t3, ").append(s).append("\n");
+        // add one to negative quotients so they truncate toward zero
+        sb.append("  srl $t1, $t3, 31\n");
+        sb.append("  addu ").append(d).append(", $t3, $t1\n");
+    }
+
+    /** Magic multiplier and shift for signed division by c (|c| >= 2), Hacker's Delight figure 10-1. */
+    private static long[] magic(int c) {
+        final long two31 = 1L << 31;
+        long ad = Math.abs((long) c);
+        long t = two31 + (c < 0 ? 1 : 0);
+        long anc = t - 1 - t % ad;
+        int p = 31;
+        long q1 = two31 / anc;
+        long r1 = two31 - q1 * anc;
+        long q2 = two31 / ad;
+        long r2 = two31 - q2 * ad;
+        long delta;
+        do {
+            p++;
+            q1 = (2 * q1) & MASK32;
+            r1 = 2 * r1;
+            if (r1 >= anc) {
+                q1++;
+                r1 -= anc;
+            }
+            q2 = (2 * q2) & MASK32;
+            r2 = 2 * r2;
+            if (r2 >= ad) {
+                q2++;
+                r2 -= ad;
+            }
+            delta = ad - r2;
+        } while (q1 < delta || (q1 == delta && r1 == 0));
+        int m = (int) (q2 + 1);
+        return new long[]{c < 0 ? -m : m, p - 32};
+    }
+}
@@ -0,0 +1,457 @@
+package backend;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrFunction;
+import backend.ir.IrInstruction;
+import backend.ir.IrRegister;
+import backend.ir.IrValue;
+import opt.llvm.LoopInfo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Iterated register coalescing (George &amp; Appel) on top of Chaitin-Briggs coloring.
+ * The interference graph comes from {@link LiveIntervals} block liveness; copies
+ * ({@code zext}, phi operands) are coalesced by the Briggs or George test, moves left over
+ * bias the color choice toward their partner's register, and spill candidates are
+ * chosen by use/def count weighted with 10^loop-depth (natural loops from {@link LoopInfo})
+ * divided by degree.
+ * Call-crossing values interfere with precolored {@code $t4-$t9}, so they can only get
+ * {@code $s} registers. Spilled values keep their stack slot; the emitters reload them
+ * through the reserved scratch registers, so no rewrite-and-retry round is needed.
+ */
+public class GraphColoringAllocator {
+    private static final List<String> COLORS = new ArrayList<>();
+
+    static {
+        COLORS.addAll(LinearScanAllocator.CALLER_SAVED);
+        COLORS.addAll(LinearScanAllocator.CALLEE_SAVED);
+    }
+
+    private static final int K = COLORS.size();
+    private static final int INF_DEGREE = Integer.MAX_VALUE / 2;
+
+    private static class Move {
+        final int src;
+        final int dst;
+
+        Move(int src, int dst) {
+            this.src = src;
+            this.dst = dst;
+        }
+    }
+
+    /* ---------- graph ---------- */
+    private final List<IrRegister> nodeValue = new ArrayList<>();
+    private final Map<IrRegister, Integer> nodeOf = new HashMap<>();
+    private final Set<Long> adjSet = new HashSet<>();
+    private final List<List<Integer>> adjList = new ArrayList<>();
+    private final List<Integer> degree = new ArrayList<>();
+    private final List<List<Move>> moveList = new ArrayList<>();
+    private final List<Integer> alias = new ArrayList<>();
+    private final List<Integer> color = new ArrayList<>();
+    private final List<Double> spillCost = new ArrayList<>();
+
+    /* ---------- worklists ---------- */
+    private final Set<Integer> simplifyWorklist = new LinkedHashSet<>();
+    private final Set<Integer> freezeWorklist = new LinkedHashSet<>();
+    private final Set<Integer> spillWorklist = new LinkedHashSet<>();
+    private final Set<Integer> spilledNodes = new HashSet<>();
+    private final Set<Integer> coalescedNodes = new HashSet<>();
+    private final Set<Integer> coloredNodes = new HashSet<>();
+    private final Deque<Integer> selectStack = new ArrayDeque<>();
+    private final Set<Integer> onStack = new HashSet<>();
+    private final Set<Move> worklistMoves = new LinkedHashSet<>();
+    private final Set<Move> activeMoves = new HashSet<>();
+
+    public RegAllocation allocate(IrFunction fn) {
+        return allocate(fn, new LiveIntervals(fn));
+    }
+
+    /** Allocates with liveness computed by the caller; {@code live} must describe {@code fn} as it is now. */
+    public RegAllocation allocate(IrFunction fn, LiveIntervals live) {
+        reset();
+        for (int i = 0; i < K; i++) newNode(null);
+        build(fn, live);
+        makeWorklist();
+        while (!simplifyWorklist.isEmpty() || !worklistMoves.isEmpty()
+                || !freezeWorklist.isEmpty() || !spillWorklist.isEmpty()) {
+            if (!simplifyWorklist.isEmpty()) simplify();
+            else if (!worklistMoves.isEmpty()) coalesce();
+            else if (!freezeWorklist.isEmpty()) freeze();
+            else selectSpill();
+        }
+        assignColors();
+
+        RegAllocation res = new RegAllocation();
+        for (int n = K; n < nodeValue.size(); n++) {
+            int c = color.get(n);
+            if (c >= 0) res.assign(nodeValue.get(n), COLORS.get(c));
+        }
+        return res;
+    }
+
+    private void reset() {
+        nodeValue.clear();
+        nodeOf.clear();
+        adjSet.clear();
+        adjList.clear();
+        degree.clear();
+        moveList.clear();
+        alias.clear();
+        color.clear();
+        spillCost.clear();
+        simplifyWorklist.clear();
+        freezeWorklist.clear();
+        spillWorklist.clear();
+        spilledNodes.clear();
+        coalescedNodes.clear();
+        coloredNodes.clear();
+        selectStack.clear();
+        onStack.clear();
+        worklistMoves.clear();
+        activeMoves.clear();
+    }
+
+    private int newNode(IrRegister v) {
+        int id = nodeValue.size();
+        nodeValue.add(v);
+        adjList.add(new ArrayList<>());
+        degree.add(v == null ? INF_DEGREE : 0);
+        moveList.add(new ArrayList<>());
+        alias.add(id);
+        color.add(v == null ? id : -1);
+        spillCost.add(0.0);
+        if (v != null) nodeOf.put(v, id);
+        return id;
+    }
+
+    private int node(IrRegister v) {
+        Integer id = nodeOf.get(v);
+        return id != null ? id : newNode(v);
+    }
+
+    private boolean isPrecolored(int n) {
+        return n < K;
+    }
+
+    /* ---------- build ---------- */
+    private void build(IrFunction fn, LiveIntervals live) {
+        LoopInfo loops = new LoopInfo(fn);
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            double weight = Math.pow(10, Math.min(loops.getDepth(bb), 6));
+            Set<Integer> liveNow = new HashSet<>();
+            for (IrRegister v : live.getLiveOut(bb)) liveNow.add(node(v));
+            for (IrInstruction ins = bb.getLast(); ins != null && ins.getOpcode() != IrInstruction.Opcode.PHI;
+                 ins = ins.getPrev()) {
+                Integer def = live.isCandidate(ins.getResult()) ? node(ins.getResult()) : null;
+                List<Integer> uses = new ArrayList<>();
+                for (IrValue op : ins.getOperands()) {
+                    if (live.isCandidate(op)) uses.add(node((IrRegister) op));
+                }
+                if (def != null && isCopy(ins) && uses.size() == 1) {
+                    liveNow.remove(uses.get(0));
+                    addMove(uses.get(0), def);
+                }
+                if (def != null) {
+                    addCost(def, weight);
+                    for (int l : liveNow) addEdge(def, l);
+                }
+                if (LiveIntervals.isRealCall(ins)) {
+                    for (int l : liveNow) {
+                        if (def != null && l == def) continue;
+                        for (int c = 0; c < LinearScanAllocator.CALLER_SAVED.size(); c++) addEdge(l, c);
+                    }
+                }
+                if (def != null) liveNow.remove(def);
+                for (int u : uses) {
+                    addCost(u, weight);
+                    liveNow.add(u);
+                }
+            }
+            // phi results are all defined together on block entry
+            List<Integer> phiDefs = new ArrayList<>();
+            for (IrInstruction phi = bb.getFirst(); phi != null && phi.getOpcode() == IrInstruction.Opcode.PHI;
+                 phi = phi.getNext()) {
+                int d = node(phi.getResult());
+                phiDefs.add(d);
+                addCost(d, weight);
+                for (int k = 0; k + 1 < phi.getOperandCount(); k += 2) {
+                    IrValue v = phi.getOperand(k);
+                    if (!live.isCandidate(v)) continue;
+                    int u = node((IrRegister) v);
+                    IrBasicBlock pred = fn.getBlock(phi.getOperand(k + 1).getName());
+                    addCost(u, Math.pow(10, Math.min(loops.getDepth(pred), 6)));
+                    addMove(u, d);
+                }
+            }
+            for (int d : phiDefs) {
+                liveNow.add(d);
+            }
+            for (int d : phiDefs) {
+                for (int l : liveNow) addEdge(d, l);
+            }
+            if (bb == fn.getBlocks().get(0)) {
+                // parameters are live together on entry
+                List<Integer> params = new ArrayList<>(liveNow);
+                for (int a = 0; a < params.size(); a++) {
+                    for (int b = a + 1; b < params.size(); b++) addEdge(params.get(a), params.get(b));
+                }
+            }
+        }
+    }
+
+    private boolean isCopy(IrInstruction ins) {
+        return ins.getOpcode() == IrInstruction.Opcode.ZEXT;
+    }
+
+    private void addCost(int n, double w) {
+        spillCost.set(n, spillCost.get(n) + w);
+    }
+
+    private void addMove(int src, int dst) {
+        if (src == dst) return;
+        Move m = new Move(src, dst);
+        moveList.get(src).add(m);
+        moveList.get(dst).add(m);
+        worklistMoves.add(m);
+    }
+
+    private static long key(int u, int v) {
+        return ((long) u << 32) | (v & 0xffffffffL);
+    }
+
+    private void addEdge(int u, int v) {
+        if (u == v || adjSet.contains(key(u, v))) return;
+        adjSet.add(key(u, v));
+        adjSet.add(key(v, u));
+        if (!isPrecolored(u)) {
+            adjList.get(u).add(v);
+            degree.set(u, degree.get(u) + 1);
+        }
+        if (!isPrecolored(v)) {
+            adjList.get(v).add(u);
+            degree.set(v, degree.get(v) + 1);
+        }
+    }
+
+    /* ---------- worklists ---------- */
+    private void makeWorklist() {
+        for (int n = K; n < nodeValue.size(); n++) {
+            if (degree.get(n) >= K) spillWorklist.add(n);
+            else if (moveRelated(n)) freezeWorklist.add(n);
+            else simplifyWorklist.add(n);
+        }
+    }
+
+    private List<Integer> adjacent(int n) {
+        List<Integer> res = new ArrayList<>();
+        for (int m : adjList.get(n)) {
+            if (!onStack.contains(m) && !coalescedNodes.contains(m)) res.add(m);
+        }
+        return res;
+    }
+
+    private List<Move> nodeMoves(int n) {
+        List<Move> res = new ArrayList<>();
+        for (Move m : moveList.get(n)) {
+            if (activeMoves.contains(m) || worklistMoves.contains(m)) res.add(m);
+        }
+        return res;
+    }
+
+    private boolean moveRelated(int n) {
+        for (Move m : moveList.get(n)) {
+            if (activeMoves.contains(m) || worklistMoves.contains(m)) return true;
+        }
+        return false;
+    }
+
+    private void simplify() {
+        int n = simplifyWorklist.iterator().next();
+        simplifyWorklist.remove(n);
+        selectStack.push(n);
+        onStack.add(n);
+        for (int m : adjacent(n)) decrementDegree(m);
+    }
+
+    private void decrementDegree(int m) {
+        if (isPrecolored(m)) return;
+        int d = degree.get(m);
+        degree.set(m, d - 1);
+        if (d == K) {
+            enableMoves(m);
+            for (int a : adjacent(m)) enableMoves(a);
+            spillWorklist.remove(m);
+            if (moveRelated(m)) freezeWorklist.add(m);
+            else simplifyWorklist.add(m);
+        }
+    }
+
+    private void enableMoves(int n) {
+        for (Move m : nodeMoves(n)) {
+            if (activeMoves.remove(m)) worklistMoves.add(m);
+        }
+    }
+
+    private void coalesce() {
+        Move m = worklistMoves.iterator().next();
+        worklistMoves.remove(m);
+        int x = getAlias(m.src);
+        int y = getAlias(m.dst);
+        int u = isPrecolored(y) ? y : x;
+        int v = isPrecolored(y) ? x : y;
+        if (u == v) {
+            addWorkList(u);
+        } else if (isPrecolored(v) || adjSet.contains(key(u, v))) {
+            addWorkList(u);
+            addWorkList(v);
+        } else if ((isPrecolored(u) && allOk(adjacent(v), u))
+                || (!isPrecolored(u) && (conservative(u, v) || george(u, v)))) {
+            combine(u, v);
+            addWorkList(u);
+        } else {
+            activeMoves.add(m);
+        }
+    }
+
+    private void addWorkList(int u) {
+        if (!isPrecolored(u) && !moveRelated(u) && degree.get(u) < K) {
+            freezeWorklist.remove(u);
+            simplifyWorklist.add(u);
+        }
+    }
+
+    private boolean allOk(List<Integer> ts, int r) {
+        for (int t : ts) {
+            if (!(degree.get(t) < K || isPrecolored(t) || adjSet.contains(key(t, r)))) return false;
+        }
+        return true;
+    }
+
+    /** Briggs test: the merged node has fewer than K neighbours of significant degree. */
+    private boolean conservative(int u, int v) {
+        Set<Integer> nodes = new HashSet<>(adjacent(u));
+        nodes.addAll(adjacent(v));
+        int k = 0;
+        for (int n : nodes) {
+            if (degree.get(n) >= K) k++;
+        }
+        return k < K;
+    }
+
+    /**
+     * George test for two virtual nodes: every significant neighbour of {@code v} already
+     * interferes with {@code u}, so merging adds no constraint {@code u} did not have.
+     * Precolored neighbours count as significant.
+     */
+    private boolean george(int u, int v) {
+        for (int t : adjacent(v)) {
+            if (degree.get(t) >= K && !adjSet.contains(key(t, u))) return false;
+        }
+        return true;
+    }
+
+    private int getAlias(int n) {
+        while (coalescedNodes.contains(n)) n = alias.get(n);
+        return n;
+    }
+
+    private void combine(int u, int v) {
+        if (!freezeWorklist.remove(v)) spillWorklist.remove(v);
+        coalescedNodes.add(v);
+        alias.set(v, u);
+        moveList.get(u).addAll(moveList.get(v));
+        spillCost.set(u, spillCost.get(u) + spillCost.get(v));
+        enableMoves(v);
+        for (int t : adjacent(v)) {
+            addEdge(t, u);
+            decrementDegree(t);
+        }
+        if (degree.get(u) >= K && freezeWorklist.remove(u)) {
+            spillWorklist.add(u);
+        }
+    }
+
+    private void freeze() {
+        int u = freezeWorklist.iterator().next();
+        freezeWorklist.remove(u);
+        simplifyWorklist.add(u);
+        freezeMoves(u);
+    }
+
+    private void freezeMoves(int u) {
+        for (Move m : nodeMoves(u)) {
+            int x = m.src;
+            int y = m.dst;
+            int v = getAlias(y) == getAlias(u) ? getAlias(x) : getAlias(y);
+            activeMoves.remove(m);
+            worklistMoves.remove(m);
+            if (!isPrecolored(v) && nodeMoves(v).isEmpty() && degree.get(v) < K && freezeWorklist.remove(v)) {
+                simplifyWorklist.add(v);
+            }
+        }
+    }
+
+    private void selectSpill() {
+        int best = -1;
+        double bestMetric = Double.MAX_VALUE;
+        for (int n : spillWorklist) {
+            double metric = spillCost.get(n) / Math.max(1, degree.get(n));
+            if (metric < bestMetric) {
+                bestMetric = metric;
+                best = n;
+            }
+        }
+        spillWorklist.remove(best);
+        simplifyWorklist.add(best);
+        freezeMoves(best);
+    }
+
+    private void assignColors() {
+        while (!selectStack.isEmpty()) {
+            int n = selectStack.pop();
+            boolean[] used = new boolean[K];
+            for (int w : adjList.get(n)) {
+                int a = getAlias(w);
+                if (isPrecolored(a) || coloredNodes.contains(a)) used[color.get(a)] = true;
+            }
+            int c = partnerColor(n, used);
+            for (int i = 0; c < 0 && i < K; i++) {
+                if (!used[i]) c = i;
+            }
+            if (c < 0) {
+                spilledNodes.add(n);
+            } else {
+                coloredNodes.add(n);
+                color.set(n, c);
+            }
+        }
+        for (int n : coalescedNodes) {
+            int a = getAlias(n);
+            color.set(n, spilledNodes.contains(a) ? -1 : color.get(a));
+        }
+    }
+
+    /**
+     * A free color already given to the other end of one of n's moves, frozen or constrained
+     * ones included, so that move disappears even though it was not coalesced; -1 if none.
+     */
+    private int partnerColor(int n, boolean[] used) {
+        for (Move m : moveList.get(n)) {
+            int p = getAlias(m.src) == n ? getAlias(m.dst) : getAlias(m.src);
+            if (p == n || !(isPrecolored(p) || coloredNodes.contains(p))) continue;
+            int c = color.get(p);
+            if (!used[c]) return c;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,197 @@
+package backend;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrConstInt;
+import backend.ir.IrFunction;
+import backend.ir.IrInstruction;
+import backend.ir.IrUse;
+import backend.ir.IrValue;
+import opt.llvm.LoopInfo;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Operand folding for {@link LlvmToMipsGenerator}: an instruction may absorb the definition of one
+ * of its operands (found through the IR use-lists) into a single MIPS sequence: compare + branch,
+ * compare + zext, gep + load/store with the address as displacement. The pattern table names the
+ * operand each root opcode can absorb; what a choice costs comes from a {@link CostModel} that
+ * measures the generator's own emitters, weighted with 10^loop-depth of the block it runs in.
+ * <p>
+ * Registers are allocated before selection, so a folded operand is computed at its user's position
+ * from registers the allocator only kept live up to the operand. A node therefore only folds into
+ * a sole user that immediately follows it; there the combined sequence never costs more than the
+ * two instructions, and folding is decided by the same comparison. The exception are geps that read
+ * no registers (constant indices off a frame array or global), which any load/store in any block may
+ * absorb. Whether they do is a real trade-off: folding drops the gep when every user absorbs it,
+ * but a label operand costs an extra lui on each access, a frame displacement beyond 16 bits an extra
+ * li/addu, while a materialized gep (often hoisted out of the loop) is computed once and each access
+ * is a single {@code 0(reg)}.
+ */
+public class InstructionSelector {
+    /** Pattern table: for each root opcode, the tile and the operand whose definition it absorbs. */
+    private static final Map<IrInstruction.Opcode, Pattern> PATTERNS = new EnumMap<>(IrInstruction.Opcode.class);
+
+    static {
+        pattern(Tile.COMPARE_BRANCH, IrInstruction.Opcode.BR, IrInstruction.Opcode.ICMP, 0);
+        pattern(Tile.COMPARE_SET, IrInstruction.Opcode.ZEXT, IrInstruction.Opcode.ICMP, 0);
+        pattern(Tile.ADDRESSED_LOAD, IrInstruction.Opcode.LOAD, IrInstruction.Opcode.GEP, 0);
+        pattern(Tile.ADDRESSED_STORE, IrInstruction.Opcode.STORE, IrInstruction.Opcode.GEP, 1);
+    }
+
+    /** How a root instruction is emitted; PLAIN means by its own opcode. */
+    public enum Tile { PLAIN, COMPARE_BRANCH, COMPARE_SET, ADDRESSED_LOAD, ADDRESSED_STORE }
+
+    /** {@code root} absorbing the {@code child} that defines its operand {@code operand}. */
+    private static final class Pattern {
+        final Tile tile;
+        final IrInstruction.Opcode child;
+        final int operand;
+
+        Pattern(Tile tile, IrInstruction.Opcode child, int operand) {
+            this.tile = tile;
+            this.child = child;
+            this.operand = operand;
+        }
+    }
+
+    /** Instruction counts of the code the generator would emit. */
+    public interface CostModel {
+        /** {@code root} emitted as {@code tile} with {@code child} folded in. */
+        int tile(Tile tile, IrInstruction root, IrInstruction child);
+
+        /** {@code ins} emitted on its own. */
+        int plain(IrInstruction ins);
+    }
+
+    /** Tiles chosen for one function. */
+    public static final class Selection {
+        private final Map<IrInstruction, Tile> tiles = new HashMap<>();
+        private final Map<IrInstruction, IrInstruction> folded = new HashMap<>();
+        private final Set<IrInstruction> covered = new HashSet<>();
+
+        public Tile tileOf(IrInstruction root) {
+            return tiles.getOrDefault(root, Tile.PLAIN);
+        }
+
+        /** The operand definition folded into {@code root}'s tile, or null. */
+        public IrInstruction childOf(IrInstruction root) {
+            return folded.get(root);
+        }
+
+        /** True if every user of {@code ins} folds it, so it emits no code of its own. */
+        public boolean isCovered(IrInstruction ins) {
+            return covered.contains(ins);
+        }
+
+        private void fold(IrInstruction root, Tile tile, IrInstruction child) {
+            tiles.put(root, tile);
+            folded.put(root, child);
+        }
+    }
+
+    /** Values addressed without a register: frame arrays and globals that were not given one. */
+    private final Predicate<IrValue> fixedAddress;
+    private final CostModel costs;
+
+    public InstructionSelector(Predicate<IrValue> fixedAddress, CostModel costs) {
+        this.fixedAddress = fixedAddress;
+        this.costs = costs;
+    }
+
+    public Selection select(IrFunction fn) {
+        Map<IrValue, IrInstruction> defOf = new HashMap<>();
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                if (ins.getResult() != null) defOf.put(ins.getResult(), ins);
+            }
+        }
+        LoopInfo loops = new LoopInfo(fn);
+        Selection sel = new Selection();
+        // shared geps -> the loads/stores that could absorb them, decided once all are known
+        Map<IrInstruction, List<IrInstruction>> sharedUsers = new LinkedHashMap<>();
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                Pattern p = PATTERNS.get(ins.getOpcode());
+                if (p == null || p.operand >= ins.getOperandCount()) continue;
+                IrInstruction child = defOf.get(ins.getOperand(p.operand));
+                if (child == null || child.getOpcode() != p.child) continue;
+                if (isShared(child)) {
+                    sharedUsers.computeIfAbsent(child, k -> new ArrayList<>()).add(ins);
+                } else if (child.getNext() == ins && usesOnlyAt(child, ins)
+                        && costs.tile(p.tile, ins, child) <= costs.plain(ins) + costs.plain(child)) {
+                    sel.fold(ins, p.tile, child);
+                    sel.covered.add(child);
+                }
+            }
+        }
+        for (Map.Entry<IrInstruction, List<IrInstruction>> e : sharedUsers.entrySet()) {
+            decideShared(sel, loops, e.getKey(), e.getValue());
+        }
+        return sel;
+    }
+
+    /**
+     * Folds {@code gep} into all of {@code users} and drops it if that is no more expensive than
+     * emitting it once and letting each user take the cheaper of its two forms; the latter otherwise,
+     * and always when the gep has other uses.
+     */
+    private void decideShared(Selection sel, LoopInfo loops, IrInstruction gep, List<IrInstruction> users) {
+        long foldAll = 0;
+        long keep = weight(loops, gep) * costs.plain(gep);
+        List<Integer> tileCost = new ArrayList<>();
+        List<Integer> plainCost = new ArrayList<>();
+        for (IrInstruction u : users) {
+            int t = costs.tile(PATTERNS.get(u.getOpcode()).tile, u, gep);
+            int p = costs.plain(u);
+            tileCost.add(t);
+            plainCost.add(p);
+            foldAll += weight(loops, u) * t;
+            keep += weight(loops, u) * Math.min(t, p);
+        }
+        boolean everyUse = users.size() == gep.getResult().getUseCount();
+        boolean dropGep = everyUse && foldAll <= keep;
+        for (int i = 0; i < users.size(); i++) {
+            if (dropGep || tileCost.get(i) <= plainCost.get(i)) {
+                IrInstruction u = users.get(i);
+                sel.fold(u, PATTERNS.get(u.getOpcode()).tile, gep);
+            }
+        }
+        if (dropGep) sel.covered.add(gep);
+    }
+
+    /* ---------- legality ---------- */
+    /** Every use of child's result is an operand of root that the tile consumes (a store's value is not). */
+    private static boolean usesOnlyAt(IrInstruction child, IrInstruction root) {
+        for (IrUse u : child.getResult().getUses()) {
+            if (u.getUser() != root) return false;
+            if (root.getOpcode() == IrInstruction.Opcode.STORE && u.getIndex() == 0) return false;
+        }
+        return true;
+    }
+
+    /** A node that reads no registers can be duplicated into any number of users. */
+    private boolean isShared(IrInstruction child) {
+        if (child.getOpcode() != IrInstruction.Opcode.GEP || !fixedAddress.test(child.getOperand(0))) return false;
+        for (int i = 1; i < child.getOperandCount(); i++) {
+            if (!(child.getOperand(i) instanceof IrConstInt)) return false;
+        }
+        return true;
+    }
+
+    /** Estimated executions of ins relative to straight-line code, as in the register allocators. */
+    private static long weight(LoopInfo loops, IrInstruction ins) {
+        return (long) Math.pow(10, Math.min(loops.getDepth(ins.getParent()), 6));
+    }
+
+    private static void pattern(Tile tile, IrInstruction.Opcode root, IrInstruction.Opcode child, int operand) {
+        PATTERNS.put(root, new Pattern(tile, child, operand));
+    }
+}
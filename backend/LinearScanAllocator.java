@@ -0,0 +1,77 @@
+package backend;
+
+import backend.ir.IrFunction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Linear-scan register allocator (Poletto &amp; Sarkar) over {@link LiveIntervals}.
+ * Intervals that cross a {@code jal} may only take callee-saved {@code $s} registers;
+ * under pressure the active interval ending furthest away is spilled to its stack slot.
+ * {@code $t0-$t3}, {@code $v0} and {@code $a0-$a3} stay reserved as emitter scratch.
+ */
+public class LinearScanAllocator {
+    static final List<String> CALLER_SAVED = Arrays.asList("$t4", "$t5", "$t6", "$t7", "$t8", "$t9");
+    static final List<String> CALLEE_SAVED = Arrays.asList("$s0", "$s1", "$s2", "$s3", "$s4", "$s5", "$s6", "$s7");
+
+    public RegAllocation allocate(IrFunction fn) {
+        return allocate(fn, new LiveIntervals(fn));
+    }
+
+    /** Allocates with liveness computed by the caller; {@code live} must describe {@code fn} as it is now. */
+    public RegAllocation allocate(IrFunction fn, LiveIntervals live) {
+        RegAllocation res = new RegAllocation();
+        List<LiveIntervals.Interval> intervals = live.getIntervals();
+        intervals.sort(Comparator.comparingInt(LiveIntervals.Interval::getStart));
+
+        List<LiveIntervals.Interval> active = new ArrayList<>();
+        List<String> freeT = new ArrayList<>(CALLER_SAVED);
+        List<String> freeS = new ArrayList<>(CALLEE_SAVED);
+
+        for (LiveIntervals.Interval cur : intervals) {
+            // expire intervals that end before (or where) this one starts
+            for (int i = active.size() - 1; i >= 0; i--) {
+                LiveIntervals.Interval old = active.get(i);
+                if (old.getEnd() <= cur.getStart()) {
+                    active.remove(i);
+                    release(res.getReg(old.getValue()), freeT, freeS);
+                }
+            }
+            String reg = null;
+            if (!cur.crossesCall() && !freeT.isEmpty()) {
+                reg = freeT.remove(0);
+            } else if (!freeS.isEmpty()) {
+                reg = freeS.remove(0);
+            }
+            if (reg != null) {
+                res.assign(cur.getValue(), reg);
+                active.add(cur);
+                continue;
+            }
+            // spill: steal from the usable active interval that ends last
+            LiveIntervals.Interval victim = null;
+            for (LiveIntervals.Interval a : active) {
+                String r = res.getReg(a.getValue());
+                if (cur.crossesCall() && !r.startsWith("$s")) continue;
+                if (victim == null || a.getEnd() > victim.getEnd()) victim = a;
+            }
+            if (victim != null && victim.getEnd() > cur.getEnd()) {
+                String r = res.getReg(victim.getValue());
+                res.unassign(victim.getValue());
+                active.remove(victim);
+                res.assign(cur.getValue(), r);
+                active.add(cur);
+            }
+        }
+        return res;
+    }
+
+    private void release(String reg, List<String> freeT, List<String> freeS) {
+        if (reg == null) return;
+        if (reg.startsWith("$s")) freeS.add(0, reg);
+        else freeT.add(0, reg);
+    }
+}
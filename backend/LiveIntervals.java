@@ -0,0 +1,277 @@
+package backend;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrFunction;
+import backend.ir.IrInstruction;
+import backend.ir.IrLabel;
+import backend.ir.IrRegister;
+import backend.ir.IrValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Liveness and live intervals of SSA registers in an {@link IrFunction}.
+ * Instructions are numbered two apart in block layout order; every register gets one
+ * conservative interval that covers each block it is live in.
+ * Phi operands count as uses at the end of the matching predecessor, alloca results
+ * are frame addresses and never take part in allocation.
+ */
+public class LiveIntervals {
+    public static class Interval {
+        private final IrRegister value;
+        private int start = Integer.MAX_VALUE;
+        private int end = -1;
+        private boolean crossesCall;
+
+        Interval(IrRegister value) {
+            this.value = value;
+        }
+
+        public IrRegister getValue() {
+            return value;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public boolean crossesCall() {
+            return crossesCall;
+        }
+
+        public boolean overlaps(Interval o) {
+            return start <= o.end && o.start <= end;
+        }
+
+        void cover(int pos) {
+            if (pos < start) start = pos;
+            if (pos > end) end = pos;
+        }
+    }
+
+    private static final Set<String> BUILTINS = new HashSet<>(Arrays.asList("getint", "putint", "putch", "putstr"));
+
+    private final IrFunction function;
+    private final Set<IrRegister> allocas = new HashSet<>();
+    private final Map<IrBasicBlock, List<IrBasicBlock>> succs = new HashMap<>();
+    // insertion-ordered, so allocators that walk these sets number values by the IR alone
+    private final Map<IrBasicBlock, Set<IrRegister>> liveIn = new LinkedHashMap<>();
+    private final Map<IrBasicBlock, Set<IrRegister>> liveOut = new LinkedHashMap<>();
+    private final Map<IrBasicBlock, Integer> blockStart = new HashMap<>();
+    private final Map<IrBasicBlock, Integer> blockEnd = new HashMap<>();
+    private final Map<IrInstruction, Integer> position = new HashMap<>();
+    private final Map<IrRegister, Interval> intervals = new LinkedHashMap<>();
+    private final List<Integer> callPositions = new ArrayList<>();
+
+    public LiveIntervals(IrFunction function) {
+        this.function = function;
+        collectAllocas();
+        computeSuccessors();
+        computeLiveness();
+        number();
+        buildIntervals();
+    }
+
+    public List<Interval> getIntervals() {
+        return new ArrayList<>(intervals.values());
+    }
+
+    public Interval getInterval(IrValue v) {
+        return intervals.get(v);
+    }
+
+    public Set<IrRegister> getLiveIn(IrBasicBlock bb) {
+        return liveIn.getOrDefault(bb, Collections.emptySet());
+    }
+
+    public Set<IrRegister> getLiveOut(IrBasicBlock bb) {
+        return liveOut.getOrDefault(bb, Collections.emptySet());
+    }
+
+    public List<IrBasicBlock> getSuccessors(IrBasicBlock bb) {
+        return succs.getOrDefault(bb, Collections.emptyList());
+    }
+
+    public int getPosition(IrInstruction ins) {
+        return position.getOrDefault(ins, -1);
+    }
+
+    public List<Integer> getCallPositions() {
+        return callPositions;
+    }
+
+    public boolean isCandidate(IrValue v) {
+        return v instanceof IrRegister && !allocas.contains(v);
+    }
+
+    /** Builtin I/O calls are lowered to syscalls and do not clobber allocatable registers. */
+    public static boolean isRealCall(IrInstruction ins) {
+        if (ins.getOpcode() != IrInstruction.Opcode.CALL) return false;
+        String callee = ins.getCallee();
+        return callee != null && !BUILTINS.contains(callee);
+    }
+
+    /* ---------- CFG ---------- */
+    private void collectAllocas() {
+        for (IrBasicBlock bb : function.getBlocks()) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                if (ins.getOpcode() == IrInstruction.Opcode.ALLOCA && ins.getResult() != null) {
+                    allocas.add(ins.getResult());
+                }
+            }
+        }
+    }
+
+    private void computeSuccessors() {
+        for (IrBasicBlock bb : function.getBlocks()) {
+            List<IrBasicBlock> out = new ArrayList<>();
+            IrInstruction last = bb.getLast();
+            if (last != null) {
+                if (last.getOpcode() == IrInstruction.Opcode.BR) {
+                    for (IrValue op : last.getOperands()) {
+                        if (op instanceof IrLabel) {
+                            IrBasicBlock target = function.getBlock(op.getName());
+                            if (target != null && !out.contains(target)) out.add(target);
+                        }
+                    }
+                }
+            }
+            succs.put(bb, out);
+        }
+    }
+
+    /* ---------- dataflow ---------- */
+    private void computeLiveness() {
+        Map<IrBasicBlock, Set<IrRegister>> use = new HashMap<>();
+        Map<IrBasicBlock, Set<IrRegister>> def = new HashMap<>();
+        for (IrBasicBlock bb : function.getBlocks()) {
+            Set<IrRegister> u = new LinkedHashSet<>();
+            Set<IrRegister> d = new HashSet<>();
+            for (IrInstruction ins : bb.getInstructions()) {
+                if (ins.getOpcode() != IrInstruction.Opcode.PHI) {
+                    for (IrValue op : ins.getOperands()) {
+                        if (isCandidate(op) && !d.contains(op)) u.add((IrRegister) op);
+                    }
+                }
+                if (isCandidate(ins.getResult())) d.add(ins.getResult());
+            }
+            use.put(bb, u);
+            def.put(bb, d);
+            liveIn.put(bb, new LinkedHashSet<>());
+            liveOut.put(bb, new LinkedHashSet<>());
+        }
+        List<IrBasicBlock> blocks = function.getBlocks();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                IrBasicBlock bb = blocks.get(i);
+                Set<IrRegister> out = liveOut.get(bb);
+                for (IrBasicBlock s : succs.get(bb)) {
+                    for (IrRegister v : liveIn.get(s)) {
+                        if (!isPhiResultOf(s, v) && out.add(v)) changed = true;
+                    }
+                    for (IrRegister v : phiUsesFrom(s, bb)) {
+                        if (out.add(v)) changed = true;
+                    }
+                }
+                Set<IrRegister> in = liveIn.get(bb);
+                if (in.addAll(use.get(bb))) changed = true;
+                for (IrRegister v : out) {
+                    if (!def.get(bb).contains(v) && in.add(v)) changed = true;
+                }
+            }
+        }
+    }
+
+    private boolean isPhiResultOf(IrBasicBlock bb, IrRegister v) {
+        for (IrInstruction ins : bb.getInstructions()) {
+            if (ins.getOpcode() != IrInstruction.Opcode.PHI) break;
+            if (ins.getResult() == v) return true;
+        }
+        return false;
+    }
+
+    private List<IrRegister> phiUsesFrom(IrBasicBlock bb, IrBasicBlock pred) {
+        List<IrRegister> res = new ArrayList<>();
+        for (IrInstruction ins : bb.getInstructions()) {
+            if (ins.getOpcode() != IrInstruction.Opcode.PHI) break;
+            for (int i = 0; i + 1 < ins.getOperandCount(); i += 2) {
+                IrValue v = ins.getOperand(i);
+                if (isCandidate(v) && pred.getLabel().equals(ins.getOperand(i + 1).getName())) {
+                    res.add((IrRegister) v);
+                }
+            }
+        }
+        return res;
+    }
+
+    /* ---------- numbering & intervals ---------- */
+    private void number() {
+        int pos = 0;
+        for (IrBasicBlock bb : function.getBlocks()) {
+            blockStart.put(bb, pos);
+            pos += 2;
+            for (IrInstruction ins : bb.getInstructions()) {
+                position.put(ins, pos);
+                if (isRealCall(ins)) callPositions.add(pos);
+                pos += 2;
+            }
+            blockEnd.put(bb, pos);
+            pos += 2;
+        }
+    }
+
+    private Interval intervalOf(IrRegister v) {
+        return intervals.computeIfAbsent(v, Interval::new);
+    }
+
+    private void buildIntervals() {
+        List<IrBasicBlock> blocks = function.getBlocks();
+        for (IrBasicBlock bb : blocks) {
+            int start = blockStart.get(bb);
+            int end = blockEnd.get(bb);
+            for (IrRegister v : liveIn.get(bb)) intervalOf(v).cover(start);
+            for (IrRegister v : liveOut.get(bb)) intervalOf(v).cover(end);
+            for (IrInstruction ins : bb.getInstructions()) {
+                int p = position.get(ins);
+                if (ins.getOpcode() == IrInstruction.Opcode.PHI) {
+                    intervalOf(ins.getResult()).cover(start);
+                    for (int i = 0; i + 1 < ins.getOperandCount(); i += 2) {
+                        IrValue v = ins.getOperand(i);
+                        IrBasicBlock pred = function.getBlock(ins.getOperand(i + 1).getName());
+                        if (isCandidate(v) && pred != null && blockEnd.containsKey(pred)) {
+                            intervalOf((IrRegister) v).cover(blockEnd.get(pred));
+                        }
+                    }
+                    continue;
+                }
+                for (IrValue op : ins.getOperands()) {
+                    if (isCandidate(op)) intervalOf((IrRegister) op).cover(p);
+                }
+                if (isCandidate(ins.getResult())) intervalOf(ins.getResult()).cover(p);
+            }
+        }
+        for (Interval it : intervals.values()) {
+            for (int c : callPositions) {
+                if (it.start < c && c < it.end) {
+                    it.crossesCall = true;
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -31,6 +31,8 @@ public class LlvmIRGenerator {
         }
     }
 
+    private static final IrType I32_PTR = IrType.pointerTo(IrType.I32);
+
     private static class FuncSig {
         SymbolType.BaseType ret;
         List<List<Integer>> paramDims;
@@ -76,7 +78,7 @@ public class LlvmIRGenerator {
     private IrModule module;
     private IrFunction curFunction;
     private IrBasicBlock curBlock;
-    private final Map<String, String> stringLiterals = new LinkedHashMap<>();
+    private final Map<String, IrGlobal> stringLiterals = new LinkedHashMap<>();
     private final Map<String, String> strContentMap = new HashMap<>();
     private final Map<String, GlobalVar> globals = new LinkedHashMap<>();
     private final Map<String, FuncSig> funcSigs = new HashMap<>();
@@ -128,7 +130,7 @@ public class LlvmIRGenerator {
     private String freshReg() { return "%t" + (tempId++); }
     private String freshLabel(String prefix) { return prefix + "_" + (labelId++); }
     private String newStaticLabel(String func, String name) { return "static_" + func + "_" + name + "_" + (labelId++); }
-    private String irRet(SymbolType.BaseType t) { return t == SymbolType.BaseType.INT ? "i32" : "void"; }
+    private IrType irRet(SymbolType.BaseType t) { return t == SymbolType.BaseType.INT ? IrType.I32 : IrType.VOID; }
     private void setRegType(String name, String type) {
         regType.put(name, type);
         if (curFunction != null) {
@@ -329,27 +331,13 @@ public class LlvmIRGenerator {
 
     private void emitGlobalDefs() {
         for (GlobalVar gv : globals.values()) {
-            if (!gv.isArray) {
-                module.addGlobalDef("@" + gv.name
-                        + " = dso_local " + (gv.isConst ? "constant" : "global")
-                        + " i32 " + gv.inits.get(0) + ", align 4");
-            } else {
-                StringBuilder def = new StringBuilder();
-                def.append("@").append(gv.name)
-                        .append(" = dso_local ").append(gv.isConst ? "constant" : "global")
-                        .append(" [").append(gv.len).append(" x i32] [");
-                for (int i = 0; i < gv.len; i++) {
-                    if (i > 0) def.append(", ");
-                    def.append("i32 ").append(gv.inits.get(i));
-                }
-                def.append("], align 4");
-                module.addGlobalDef(def.toString());
-            }
+            IrType type = gv.isArray ? IrType.arrayOf(gv.len, IrType.I32) : IrType.I32;
+            module.addGlobal(IrGlobal.variable(gv.name, type, gv.inits, gv.isConst));
         }
     }
 
     private void emitStringConsts() {
-        for (String def : stringLiterals.values()) module.addStringDef(def.trim());
+        for (IrGlobal str : stringLiterals.values()) module.addString(str);
     }
 
     /* ---------- functions ---------- */
@@ -361,23 +349,11 @@ public class LlvmIRGenerator {
     private void emitFunction(FuncDefNode func) {
         String name = func.getIdent().getValue();
         FuncSig sig = funcSigs.get(name);
-        List<String> params = new ArrayList<>();
-        if (func.getFuncFParamsNode() != null) {
-            int idx = 0;
-            for (FuncFParamNode p : func.getFuncFParamsNode().getFuncFParamNodes()) {
-                List<Integer> dims = new ArrayList<>();
-                if (!p.getLeftBrackets().isEmpty()) {
-                    dims.add(null);
-                    for (ConstExpNode ce : p.getConstExpNodes()) dims.add(evalConstExp(ce, globalConstEnv));
-                    params.add("i32* %arg" + idx);
-                } else {
-                    params.add("i32 %arg" + idx);
-                }
-                idx++;
-            }
+        List<IrRegister> params = new ArrayList<>();
+        for (List<Integer> dims : sig.paramDims) {
+            params.add(new IrRegister("%arg" + params.size(), dims.isEmpty() ? IrType.I32 : I32_PTR));
         }
-        String header = "define dso_local " + irRet(sig.ret) + " @" + name + "(" + String.join(", ", params) + ") {";
-        curFunction = new IrFunction(name, header);
+        curFunction = new IrFunction(name, irRet(sig.ret), params);
         module.addFunction(curFunction);
 
         FuncContext ctx = new FuncContext();
@@ -395,8 +371,8 @@ public class LlvmIRGenerator {
                 }
                 if (dims.isEmpty()) {
                     String alloca = freshReg();
-                    emit(IrInstruction.Opcode.ALLOCA, alloca, Collections.emptyList(), "  " + alloca + " = alloca i32, align 4");
-                    emit(IrInstruction.Opcode.STORE, Arrays.asList("%arg" + pIdx, alloca), "  store i32 %arg" + pIdx + ", i32* " + alloca + ", align 4");
+                    emit(IrInstruction.alloca(reg(alloca), IrType.I32));
+                    emit(IrInstruction.store(IrType.I32, params.get(pIdx), val(alloca)));
                     VarInfo vi = new VarInfo();
                     vi.storage = Storage.PARAM;
                     vi.isArray = false;
@@ -406,8 +382,8 @@ public class LlvmIRGenerator {
                     ctx.defineVar(p.getIdent().getValue(), vi);
                 } else {
                     String alloca = freshReg();
-                    emit(IrInstruction.Opcode.ALLOCA, alloca, Collections.emptyList(), "  " + alloca + " = alloca i32*, align 4");
-                    emit(IrInstruction.Opcode.STORE, Arrays.asList("%arg" + pIdx, alloca), "  store i32* %arg" + pIdx + ", i32** " + alloca + ", align 4");
+                    emit(IrInstruction.alloca(reg(alloca), I32_PTR));
+                    emit(IrInstruction.store(I32_PTR, params.get(pIdx), val(alloca)));
                     VarInfo vi = new VarInfo();
                     vi.storage = Storage.PARAM;
                     vi.isArray = true;
@@ -423,8 +399,8 @@ public class LlvmIRGenerator {
         emitBlock(func.getBlockNode(), ctx, name);
 
         if (!ctx.terminated) {
-            if (sig.ret == SymbolType.BaseType.INT) emit(IrInstruction.Opcode.RET, null, Collections.singletonList("0"), "  ret i32 0");
-            else emit(IrInstruction.Opcode.RET, null, Collections.emptyList(), "  ret void");
+            if (sig.ret == SymbolType.BaseType.INT) emit(IrInstruction.ret(IrType.I32, i32(0)));
+            else emit(IrInstruction.ret(IrType.VOID, null));
         }
         buildCFG(curFunction);
         curFunction = null;
@@ -434,14 +410,14 @@ public class LlvmIRGenerator {
     }
 
     private void emitMain(MainFuncDefNode mainFunc) {
-        curFunction = new IrFunction("main", "define dso_local i32 @main() {");
+        curFunction = new IrFunction("main", IrType.I32, Collections.emptyList());
         module.addFunction(curFunction);
         FuncContext ctx = new FuncContext();
         ctx.enterScope();
         constEnvStack.push(new HashMap<>());
         startBlock("entry", ctx);
         emitBlock(mainFunc.getBlockNode(), ctx, "main");
-        if (!ctx.terminated) emit(IrInstruction.Opcode.RET, null, Collections.singletonList("0"), "  ret i32 0");
+        if (!ctx.terminated) emit(IrInstruction.ret(IrType.I32, i32(0)));
         buildCFG(curFunction);
         curFunction = null;
         curBlock = null;
@@ -456,21 +432,17 @@ public class LlvmIRGenerator {
         ctx.terminated = false;
     }
 
-    private void emit(IrInstruction.Opcode opcode, String result, List<String> operandTokens, String line) {
+    private void emit(IrInstruction ins) {
         if (curBlock == null) {
             throw new IllegalStateException("emit called without active basic block");
         }
-        IrRegister resVal = null;
-        if (result != null) {
-            resVal = createOrGetRegister(result);
-        }
-        List<IrValue> ops = buildOperands(operandTokens);
-        curBlock.addInstruction(new IrInstruction(opcode, resVal, ops, line));
+        curBlock.addInstruction(ins);
     }
 
-    private void emit(IrInstruction.Opcode opcode, List<String> operandTokens, String line) {
-        emit(opcode, null, operandTokens, line);
-    }
+    private IrRegister reg(String name) { return createOrGetRegister(name); }
+    private IrValue val(String tok) { return valueFromToken(tok); }
+    private IrLabel label(String name) { return curFunction.getOrCreateLabel(name); }
+    private IrConstInt i32(int v) { return new IrConstInt(v, 32); }
 
     private IrRegister createOrGetRegister(String name) {
         IrValue exist = curFunction.getValue(name);
@@ -483,15 +455,6 @@ public class LlvmIRGenerator {
         return reg;
     }
 
-    private List<IrValue> buildOperands(List<String> tokens) {
-        List<IrValue> res = new ArrayList<>();
-        for (String tok : tokens) {
-            if (tok == null) continue;
-            res.add(valueFromToken(tok));
-        }
-        return res;
-    }
-
     private IrValue valueFromToken(String tok) {
         if (tok.startsWith("%")) {
             IrValue v = curFunction.getValue(tok);
@@ -540,8 +503,8 @@ public class LlvmIRGenerator {
                 constEnvStack.peek().put(name, ci);
                 if (dims.isEmpty()) {
                     String alloca = freshReg();
-                    emit(IrInstruction.Opcode.ALLOCA, alloca, Collections.emptyList(), "  " + alloca + " = alloca i32, align 4");
-                    emit(IrInstruction.Opcode.STORE, Arrays.asList(String.valueOf(init.get(0)), alloca), "  store i32 " + init.get(0) + ", i32* " + alloca + ", align 4");
+                    emit(IrInstruction.alloca(reg(alloca), IrType.I32));
+                    emit(IrInstruction.store(IrType.I32, i32(init.get(0)), val(alloca)));
                     VarInfo vi = new VarInfo();
                     vi.storage = Storage.LOCAL;
                     vi.isArray = false;
@@ -551,9 +514,9 @@ public class LlvmIRGenerator {
                     ctx.defineVar(name, vi);
                 } else {
                     String alloca = freshReg();
-                    emit(IrInstruction.Opcode.ALLOCA, alloca, Collections.emptyList(), "  " + alloca + " = alloca [" + len + " x i32], align 4");
+                    emit(IrInstruction.alloca(reg(alloca), IrType.arrayOf(len, IrType.I32)));
                     String base = freshReg();
-                    emit(IrInstruction.Opcode.GEP, base, Arrays.asList(alloca), "  " + base + " = getelementptr inbounds [" + len + " x i32], [" + len + " x i32]* " + alloca + ", i32 0, i32 0");
+                    emit(IrInstruction.gep(reg(base), IrType.arrayOf(len, IrType.I32), val(alloca), i32(0), i32(0)));
                     VarInfo vi = new VarInfo();
                     vi.storage = Storage.LOCAL;
                     vi.isArray = true;
@@ -563,8 +526,8 @@ public class LlvmIRGenerator {
                     ctx.defineVar(name, vi);
                     for (int i = 0; i < init.size(); i++) {
                         String elemPtr = freshReg();
-                        emit(IrInstruction.Opcode.GEP, elemPtr, Arrays.asList(base), "  " + elemPtr + " = getelementptr inbounds i32, i32* " + base + ", i32 " + i);
-                        emit(IrInstruction.Opcode.STORE, Arrays.asList(String.valueOf(init.get(i)), elemPtr), "  store i32 " + init.get(i) + ", i32* " + elemPtr + ", align 4");
+                        emit(IrInstruction.gep(reg(elemPtr), IrType.I32, val(base), i32(i)));
+                        emit(IrInstruction.store(IrType.I32, i32(init.get(i)), val(elemPtr)));
                     }
                 }
             }
@@ -591,10 +554,10 @@ public class LlvmIRGenerator {
                 ctx.defineVar(name, vi);
             } else if (dims.isEmpty()) {
                 String alloca = freshReg();
-                emit(IrInstruction.Opcode.ALLOCA, alloca, Collections.emptyList(), "  " + alloca + " = alloca i32, align 4");
+                emit(IrInstruction.alloca(reg(alloca), IrType.I32));
                 if (def.getInitValNode() != null) {
                     String v = emitExp(def.getInitValNode().getExpNodes().get(0), ctx);
-                    emit(IrInstruction.Opcode.STORE, Arrays.asList(v, alloca), "  store i32 " + v + ", i32* " + alloca + ", align 4");
+                    emit(IrInstruction.store(IrType.I32, val(v), val(alloca)));
                 }
                 VarInfo vi = new VarInfo();
                 vi.storage = Storage.LOCAL;
@@ -604,9 +567,9 @@ public class LlvmIRGenerator {
                 ctx.defineVar(name, vi);
             } else {
                 String alloca = freshReg();
-                emit(IrInstruction.Opcode.ALLOCA, alloca, Collections.emptyList(), "  " + alloca + " = alloca [" + len + " x i32], align 4");
+                emit(IrInstruction.alloca(reg(alloca), IrType.arrayOf(len, IrType.I32)));
                 String base = freshReg();
-                emit(IrInstruction.Opcode.GEP, base, Arrays.asList(alloca), "  " + base + " = getelementptr inbounds [" + len + " x i32], [" + len + " x i32]* " + alloca + ", i32 0, i32 0");
+                emit(IrInstruction.gep(reg(base), IrType.arrayOf(len, IrType.I32), val(alloca), i32(0), i32(0)));
                 VarInfo vi = new VarInfo();
                 vi.storage = Storage.LOCAL;
                 vi.isArray = true;
@@ -616,10 +579,10 @@ public class LlvmIRGenerator {
                 if (def.getInitValNode() != null) {
                     List<ExpNode> exps = def.getInitValNode().getExpNodes();
                     for (int i = 0; i < Math.min(exps.size(), len); i++) {
-                        String val = emitExp(exps.get(i), ctx);
+                        String v = emitExp(exps.get(i), ctx);
                         String elemPtr = freshReg();
-                        emit(IrInstruction.Opcode.GEP, elemPtr, Arrays.asList(base), "  " + elemPtr + " = getelementptr inbounds i32, i32* " + base + ", i32 " + i);
-                        emit(IrInstruction.Opcode.STORE, Arrays.asList(val, elemPtr), "  store i32 " + val + ", i32* " + elemPtr + ", align 4");
+                        emit(IrInstruction.gep(reg(elemPtr), IrType.I32, val(base), i32(i)));
+                        emit(IrInstruction.store(IrType.I32, val(v), val(elemPtr)));
                     }
                 }
             }
@@ -642,7 +605,7 @@ public class LlvmIRGenerator {
             }
             case LValAssignGetint: {
                 String call = freshReg();
-                emit(IrInstruction.Opcode.CALL, call, Collections.emptyList(), "  " + call + " = call i32 @getint()");
+                emit(IrInstruction.call(reg(call), IrType.I32, "getint", Collections.emptyList()));
                 emitStoreLVal(stmt.getLValNode(), call, ctx);
                 break;
             }
@@ -658,14 +621,14 @@ public class LlvmIRGenerator {
             case Break:
                 if (!ctx.breakLabels.isEmpty()) {
                     String target = ctx.breakLabels.peek();
-                    emit(IrInstruction.Opcode.BR, Collections.singletonList(target), "  br label %" + target);
+                    emit(IrInstruction.br(label(target)));
                     ctx.terminated = true;
                 }
                 break;
             case Continue:
                 if (!ctx.contLabels.isEmpty()) {
                     String target = ctx.contLabels.peek();
-                    emit(IrInstruction.Opcode.BR, Collections.singletonList(target), "  br label %" + target);
+                    emit(IrInstruction.br(label(target)));
                     ctx.terminated = true;
                 }
                 break;
@@ -680,10 +643,10 @@ public class LlvmIRGenerator {
     private void emitReturn(StmtNode stmt, FuncContext ctx, String funcName) {
         FuncSig sig = funcSigs.get(funcName);
         if (sig.ret == SymbolType.BaseType.VOID) {
-            emit(IrInstruction.Opcode.RET, null, Collections.emptyList(), "  ret void");
+            emit(IrInstruction.ret(IrType.VOID, null));
         } else {
             String v = stmt.getExpNode() == null ? "0" : emitExp(stmt.getExpNode(), ctx);
-            emit(IrInstruction.Opcode.RET, null, Collections.singletonList(v), "  ret i32 " + v);
+            emit(IrInstruction.ret(IrType.I32, val(v)));
         }
         ctx.terminated = true;
     }
@@ -692,14 +655,12 @@ public class LlvmIRGenerator {
         String thenLabel = freshLabel("if_then");
         String elseLabel = stmt.getElseToken() != null ? freshLabel("if_else") : null;
         String endLabel = freshLabel("if_end");
-        String cond = emitCondValue(stmt.getCondNode(), ctx);
-        emit(IrInstruction.Opcode.BR, Arrays.asList(cond, thenLabel, (elseLabel != null ? elseLabel : endLabel)), "  br i1 " + cond + ", label %" + thenLabel + ", label %" + (elseLabel != null ? elseLabel : endLabel));
-        ctx.terminated = true;
+        emitCondBranch(stmt.getCondNode(), thenLabel, elseLabel != null ? elseLabel : endLabel, ctx);
 
         startBlock(thenLabel, ctx);
         emitStmt(stmt.getStmtNodes().get(0), ctx, funcName);
         if (!ctx.terminated) {
-            emit(IrInstruction.Opcode.BR, Collections.singletonList(endLabel), "  br label %" + endLabel);
+            emit(IrInstruction.br(label(endLabel)));
             ctx.terminated = true;
         }
 
@@ -707,7 +668,7 @@ public class LlvmIRGenerator {
             startBlock(elseLabel, ctx);
             emitStmt(stmt.getStmtNodes().get(1), ctx, funcName);
             if (!ctx.terminated) {
-                emit(IrInstruction.Opcode.BR, Collections.singletonList(endLabel), "  br label %" + endLabel);
+                emit(IrInstruction.br(label(endLabel)));
                 ctx.terminated = true;
             }
         }
@@ -720,13 +681,16 @@ public class LlvmIRGenerator {
         String bodyLabel = freshLabel("for_body");
         String contLabel = freshLabel("for_cont");
         String endLabel = freshLabel("for_end");
-        emit(IrInstruction.Opcode.BR, Collections.singletonList(loopLabel), "  br label %" + loopLabel);
+        emit(IrInstruction.br(label(loopLabel)));
         ctx.terminated = true;
 
         startBlock(loopLabel, ctx);
-        String cond = stmt.getCondNode() == null ? "1" : emitCondValue(stmt.getCondNode(), ctx);
-        emit(IrInstruction.Opcode.BR, Arrays.asList(cond, bodyLabel, endLabel), "  br i1 " + cond + ", label %" + bodyLabel + ", label %" + endLabel);
-        ctx.terminated = true;
+        if (stmt.getCondNode() == null) {
+            emit(IrInstruction.br(label(bodyLabel)));
+            ctx.terminated = true;
+        } else {
+            emitCondBranch(stmt.getCondNode(), bodyLabel, endLabel, ctx);
+        }
 
         startBlock(bodyLabel, ctx);
         ctx.breakLabels.push(endLabel);
@@ -735,13 +699,13 @@ public class LlvmIRGenerator {
         ctx.breakLabels.pop();
         ctx.contLabels.pop();
         if (!ctx.terminated) {
-            emit(IrInstruction.Opcode.BR, Collections.singletonList(contLabel), "  br label %" + contLabel);
+            emit(IrInstruction.br(label(contLabel)));
             ctx.terminated = true;
         }
 
         startBlock(contLabel, ctx);
         if (stmt.getForStmtNode2() != null) emitForAssign(stmt.getForStmtNode2(), ctx);
-        emit(IrInstruction.Opcode.BR, Collections.singletonList(loopLabel), "  br label %" + loopLabel);
+        emit(IrInstruction.br(label(loopLabel)));
         ctx.terminated = true;
 
         startBlock(endLabel, ctx);
@@ -771,8 +735,8 @@ public class LlvmIRGenerator {
         for (int i = 0; i < ops.size(); i++) {
             String rhs = emitMulExp(terms.get(i + 1), ctx);
             String tmp = freshReg();
-            if (ops.get(i) == TokenType.PLUS) emit(IrInstruction.Opcode.ADD, tmp, Arrays.asList(res, rhs), "  " + tmp + " = add i32 " + res + ", " + rhs);
-            else emit(IrInstruction.Opcode.SUB, tmp, Arrays.asList(res, rhs), "  " + tmp + " = sub i32 " + res + ", " + rhs);
+            IrInstruction.Opcode opcode = ops.get(i) == TokenType.PLUS ? IrInstruction.Opcode.ADD : IrInstruction.Opcode.SUB;
+            emit(IrInstruction.binary(opcode, reg(tmp), IrType.I32, val(res), val(rhs)));
             res = tmp;
         }
         return res;
@@ -793,9 +757,9 @@ public class LlvmIRGenerator {
             String rhs = emitUnaryExp(factors.get(i + 1), ctx);
             String tmp = freshReg();
             switch (ops.get(i)) {
-                case MULT: emit(IrInstruction.Opcode.MUL, tmp, Arrays.asList(res, rhs), "  " + tmp + " = mul i32 " + res + ", " + rhs); break;
-                case DIV: emit(IrInstruction.Opcode.SDIV, tmp, Arrays.asList(res, rhs), "  " + tmp + " = sdiv i32 " + res + ", " + rhs); break;
-                case MOD: emit(IrInstruction.Opcode.SREM, tmp, Arrays.asList(res, rhs), "  " + tmp + " = srem i32 " + res + ", " + rhs); break;
+                case MULT: emit(IrInstruction.binary(IrInstruction.Opcode.MUL, reg(tmp), IrType.I32, val(res), val(rhs))); break;
+                case DIV: emit(IrInstruction.binary(IrInstruction.Opcode.SDIV, reg(tmp), IrType.I32, val(res), val(rhs))); break;
+                case MOD: emit(IrInstruction.binary(IrInstruction.Opcode.SREM, reg(tmp), IrType.I32, val(res), val(rhs))); break;
                 default: break;
             }
             res = tmp;
@@ -810,18 +774,18 @@ public class LlvmIRGenerator {
         TokenType tt = node.getUnaryOpNode().getToken().getTokenType();
         if (tt == TokenType.MINU) {
             String res = freshReg();
-            emit(IrInstruction.Opcode.SUB, res, Arrays.asList("0", inner), "  " + res + " = sub i32 0, " + inner);
+            emit(IrInstruction.binary(IrInstruction.Opcode.SUB, reg(res), IrType.I32, i32(0), val(inner)));
             return res;
         } else if (tt == TokenType.NOT) {
             String b = toBool(inner);
             String inv = freshReg();
             setRegType(inv, "i1");
-            emit(IrInstruction.Opcode.XOR, inv, Arrays.asList(b, "true"), "  " + inv + " = xor i1 " + b + ", true");
+            emit(IrInstruction.binary(IrInstruction.Opcode.XOR, reg(inv), IrType.I1, val(b), val("true")));
             boolRegs.add(inv);
             cmpRegs.add(inv);
             regType.put(inv, "i1");
             String res = freshReg();
-            emit(IrInstruction.Opcode.ZEXT, res, Collections.singletonList(inv), "  " + res + " = zext i1 " + inv + " to i32");
+            emit(IrInstruction.zext(reg(res), IrType.I1, IrType.I32, val(inv)));
             return res;
         }
         return inner;
@@ -832,7 +796,7 @@ public class LlvmIRGenerator {
         if (node.getLValNode() != null) {
             String addr = emitLValAddress(node.getLValNode(), ctx);
             String res = freshReg();
-            emit(IrInstruction.Opcode.LOAD, res, Collections.singletonList(addr), "  " + res + " = load i32, i32* " + addr + ", align 4");
+            emit(IrInstruction.load(reg(res), IrType.I32, val(addr)));
             return res;
         }
         // 数字字面量直接作为常量返回，避免多余指令
@@ -842,89 +806,63 @@ public class LlvmIRGenerator {
     private String emitCall(UnaryExpNode node, FuncContext ctx) {
         String funcName = node.getIdent().getValue();
         List<ExpNode> args = node.getFuncRParamsNode() == null ? Collections.emptyList() : node.getFuncRParamsNode().getExpNodes();
-        List<String> argVals = new ArrayList<>();
-        List<String> argTypes = new ArrayList<>();
+        List<IrValue> argVals = new ArrayList<>();
         for (ExpNode arg : args) {
             String arrPtr = tryGetArrayPointer(arg, ctx);
-            if (arrPtr != null) {
-                argVals.add(arrPtr);
-                argTypes.add("i32*");
-            } else {
-                String v = emitExp(arg, ctx);
-                argVals.add(v);
-                argTypes.add("i32");
-            }
+            argVals.add(val(arrPtr != null ? arrPtr : emitExp(arg, ctx)));
         }
         FuncSig sig = funcSigs.get(funcName);
-        String retType = sig == null ? "i32" : irRet(sig.ret);
+        IrType retType = sig == null ? IrType.I32 : irRet(sig.ret);
         String res = null;
-        List<String> parts = new ArrayList<>();
-        for (int i = 0; i < argVals.size(); i++) parts.add(argTypes.get(i) + " " + argVals.get(i));
-        if (!"void".equals(retType)) {
+        if (retType != IrType.VOID) {
             res = freshReg();
-            emit(IrInstruction.Opcode.CALL, res, argVals, "  " + res + " = call " + retType + " @" + funcName + "(" + String.join(", ", parts) + ")");
+            emit(IrInstruction.call(reg(res), retType, funcName, argVals));
         } else {
-            emit(IrInstruction.Opcode.CALL, argVals, "  call void @" + funcName + "(" + String.join(", ", parts) + ")");
+            emit(IrInstruction.call(null, retType, funcName, argVals));
         }
         if (res == null) {
             String zero = freshReg();
-            emit(IrInstruction.Opcode.ADD, zero, Arrays.asList("0", "0"), "  " + zero + " = add i32 0, 0");
+            emit(IrInstruction.binary(IrInstruction.Opcode.ADD, reg(zero), IrType.I32, i32(0), i32(0)));
             return zero;
         }
         return res;
     }
 
     /* ---------- conditions (short-circuit) ---------- */
-    private String emitCondValue(CondNode condNode, FuncContext ctx) { return emitLOrValue(condNode.getLOrExpNode(), ctx); }
-
-    private String emitLOrValue(LOrExpNode node, FuncContext ctx) {
-        if (node.getOrToken() == null) return emitLAndValue(node.getLAndExpNode(), ctx);
-        String resPtr = freshReg();
-        emit(IrInstruction.Opcode.ALLOCA, resPtr, Collections.emptyList(), "  " + resPtr + " = alloca i1");
-        String lhs = emitLAndValue(node.getLAndExpNode(), ctx);
-        emit(IrInstruction.Opcode.STORE, Arrays.asList(lhs, resPtr), "  store i1 " + lhs + ", i1* " + resPtr);
-        String rhsLabel = freshLabel("lor_rhs");
-        String endLabel = freshLabel("lor_end");
-        emit(IrInstruction.Opcode.BR, Arrays.asList(lhs, endLabel, rhsLabel), "  br i1 " + lhs + ", label %" + endLabel + ", label %" + rhsLabel);
-        ctx.terminated = true;
+    // Conditions are lowered straight to branches: each && / || operand jumps to the
+    // true/false target or to the block evaluating the next operand, so no i1 value
+    // is materialized or kept in memory.
+    private void emitCondBranch(CondNode condNode, String trueLabel, String falseLabel, FuncContext ctx) {
+        emitLOrBranch(condNode.getLOrExpNode(), trueLabel, falseLabel, ctx);
+    }
 
+    private void emitLOrBranch(LOrExpNode node, String trueLabel, String falseLabel, FuncContext ctx) {
+        if (node.getOrToken() == null) {
+            emitLAndBranch(node.getLAndExpNode(), trueLabel, falseLabel, ctx);
+            return;
+        }
+        String rhsLabel = freshLabel("lor_rhs");
+        emitLAndBranch(node.getLAndExpNode(), trueLabel, rhsLabel, ctx);
         startBlock(rhsLabel, ctx);
-        String rhs = emitLOrValue(node.getLOrExpNode(), ctx);
-        emit(IrInstruction.Opcode.STORE, Arrays.asList(rhs, resPtr), "  store i1 " + rhs + ", i1* " + resPtr);
-        emit(IrInstruction.Opcode.BR, Collections.singletonList(endLabel), "  br label %" + endLabel);
-        ctx.terminated = true;
-
-        startBlock(endLabel, ctx);
-        String res = freshReg();
-        setRegType(res, "i1");
-        emit(IrInstruction.Opcode.LOAD, res, Collections.singletonList(resPtr), "  " + res + " = load i1, i1* " + resPtr);
-        boolRegs.add(res);
-        return res;
+        emitLOrBranch(node.getLOrExpNode(), trueLabel, falseLabel, ctx);
     }
 
-    private String emitLAndValue(LAndExpNode node, FuncContext ctx) {
-        if (node.getAndToken() == null) return emitEqValue(node.getEqExpNode(), ctx);
-        String resPtr = freshReg();
-        emit(IrInstruction.Opcode.ALLOCA, resPtr, Collections.emptyList(), "  " + resPtr + " = alloca i1");
-        String lhs = emitEqValue(node.getEqExpNode(), ctx);
-        emit(IrInstruction.Opcode.STORE, Arrays.asList(lhs, resPtr), "  store i1 " + lhs + ", i1* " + resPtr);
+    private void emitLAndBranch(LAndExpNode node, String trueLabel, String falseLabel, FuncContext ctx) {
+        if (node.getAndToken() == null) {
+            emitEqBranch(node.getEqExpNode(), trueLabel, falseLabel, ctx);
+            return;
+        }
         String rhsLabel = freshLabel("land_rhs");
-        String endLabel = freshLabel("land_end");
-        emit(IrInstruction.Opcode.BR, Arrays.asList(lhs, rhsLabel, endLabel), "  br i1 " + lhs + ", label %" + rhsLabel + ", label %" + endLabel);
-        ctx.terminated = true;
-
+        emitEqBranch(node.getEqExpNode(), rhsLabel, falseLabel, ctx);
         startBlock(rhsLabel, ctx);
-        String rhs = emitLAndValue(node.getLAndExpNode(), ctx);
-        emit(IrInstruction.Opcode.STORE, Arrays.asList(rhs, resPtr), "  store i1 " + rhs + ", i1* " + resPtr);
-        emit(IrInstruction.Opcode.BR, Collections.singletonList(endLabel), "  br label %" + endLabel);
-        ctx.terminated = true;
+        emitLAndBranch(node.getLAndExpNode(), trueLabel, falseLabel, ctx);
+    }
 
-        startBlock(endLabel, ctx);
-        String res = freshReg();
-        setRegType(res, "i1");
-        emit(IrInstruction.Opcode.LOAD, res, Collections.singletonList(resPtr), "  " + res + " = load i1, i1* " + resPtr);
-        boolRegs.add(res);
-        return res;
+    private void emitEqBranch(EqExpNode node, String trueLabel, String falseLabel, FuncContext ctx) {
+        // a bare relation branches on its icmp directly instead of widening it to i32 first
+        String cond = node.getOperator() == null ? emitRelCompare(node.getRelExpNode(), ctx) : emitEqValue(node, ctx);
+        emit(IrInstruction.condBr(val(toBool(cond)), label(trueLabel), label(falseLabel)));
+        ctx.terminated = true;
     }
 
     private String emitEqValue(EqExpNode node, FuncContext ctx) {
@@ -958,10 +896,10 @@ public class LlvmIRGenerator {
                 lType = "i32";
             }
             String cmp = freshReg();
-            String cmpTy = "i32".equals(lType) ? "i32" : "i1";
+            IrType cmpTy = "i32".equals(lType) ? IrType.I32 : IrType.I1;
             setRegType(cmp, "i1");
-            if (ops.get(i) == TokenType.EQL) emit(IrInstruction.Opcode.ICMP, cmp, Arrays.asList(lhsVal, rhsVal), "  " + cmp + " = icmp eq " + cmpTy + " " + lhsVal + ", " + rhsVal);
-            else emit(IrInstruction.Opcode.ICMP, cmp, Arrays.asList(lhsVal, rhsVal), "  " + cmp + " = icmp ne " + cmpTy + " " + lhsVal + ", " + rhsVal);
+            IrInstruction.Predicate pred = ops.get(i) == TokenType.EQL ? IrInstruction.Predicate.EQ : IrInstruction.Predicate.NE;
+            emit(IrInstruction.icmp(reg(cmp), pred, cmpTy, val(lhsVal), val(rhsVal)));
             boolRegs.add(cmp);
             cmpRegs.add(cmp);
             regType.put(cmp, "i1");
@@ -971,6 +909,17 @@ public class LlvmIRGenerator {
     }
 
     private String emitRelValue(RelExpNode node, FuncContext ctx) {
+        String res = emitRelCompare(node, ctx);
+        if (boolRegs.contains(res)) {
+            String z = freshReg();
+            emit(IrInstruction.zext(reg(z), IrType.I1, IrType.I32, val(res)));
+            return z;
+        }
+        return res;
+    }
+
+    // Same as emitRelValue, but a comparison result stays i1 (for branching on it).
+    private String emitRelCompare(RelExpNode node, FuncContext ctx) {
         List<AddExpNode> terms = new ArrayList<>();
         List<TokenType> ops = new ArrayList<>();
         RelExpNode cur = node;
@@ -986,10 +935,10 @@ public class LlvmIRGenerator {
             String cmp = freshReg();
             setRegType(cmp, "i1");
             switch (ops.get(i)) {
-                case LSS: emit(IrInstruction.Opcode.ICMP, cmp, Arrays.asList(res, rhs), "  " + cmp + " = icmp slt i32 " + res + ", " + rhs); break;
-                case GRE: emit(IrInstruction.Opcode.ICMP, cmp, Arrays.asList(res, rhs), "  " + cmp + " = icmp sgt i32 " + res + ", " + rhs); break;
-                case LEQ: emit(IrInstruction.Opcode.ICMP, cmp, Arrays.asList(res, rhs), "  " + cmp + " = icmp sle i32 " + res + ", " + rhs); break;
-                case GEQ: emit(IrInstruction.Opcode.ICMP, cmp, Arrays.asList(res, rhs), "  " + cmp + " = icmp sge i32 " + res + ", " + rhs); break;
+                case LSS: emit(IrInstruction.icmp(reg(cmp), IrInstruction.Predicate.SLT, IrType.I32, val(res), val(rhs))); break;
+                case GRE: emit(IrInstruction.icmp(reg(cmp), IrInstruction.Predicate.SGT, IrType.I32, val(res), val(rhs))); break;
+                case LEQ: emit(IrInstruction.icmp(reg(cmp), IrInstruction.Predicate.SLE, IrType.I32, val(res), val(rhs))); break;
+                case GEQ: emit(IrInstruction.icmp(reg(cmp), IrInstruction.Predicate.SGE, IrType.I32, val(res), val(rhs))); break;
             default: break;
             }
             boolRegs.add(cmp);
@@ -997,11 +946,6 @@ public class LlvmIRGenerator {
             regType.put(cmp, "i1");
             res = cmp;
         }
-        if (boolRegs.contains(res)) {
-            String z = freshReg();
-            emit(IrInstruction.Opcode.ZEXT, z, Collections.singletonList(res), "  " + z + " = zext i1 " + res + " to i32");
-            return z;
-        }
         return res;
     }
 
@@ -1009,7 +953,7 @@ public class LlvmIRGenerator {
         if (boolRegs.contains(v)) return v;
         String res = freshReg();
         setRegType(res, "i1");
-        emit(IrInstruction.Opcode.ICMP, res, Arrays.asList(v, "0"), "  " + res + " = icmp ne i32 " + v + ", 0");
+        emit(IrInstruction.icmp(reg(res), IrInstruction.Predicate.NE, IrType.I32, val(v), i32(0)));
         boolRegs.add(res);
         cmpRegs.add(res);
         regType.put(res, "i1");
@@ -1020,7 +964,7 @@ public class LlvmIRGenerator {
     private String ensureI32(String v) {
         if (!boolRegs.contains(v) && !cmpRegs.contains(v) && !"i1".equals(regType.get(v))) return v;
         String z = freshReg();
-        emit(IrInstruction.Opcode.ZEXT, z, Collections.singletonList(v), "  " + z + " = zext i1 " + v + " to i32");
+        emit(IrInstruction.zext(reg(z), IrType.I1, IrType.I32, val(v)));
         return z;
     }
 
@@ -1037,7 +981,7 @@ public class LlvmIRGenerator {
     /* ---------- LVal ---------- */
     private void emitStoreLVal(LValNode lValNode, String value, FuncContext ctx) {
         String addr = emitLValAddress(lValNode, ctx);
-        emit(IrInstruction.Opcode.STORE, Arrays.asList(value, addr), "  store i32 " + value + ", i32* " + addr + ", align 4");
+        emit(IrInstruction.store(IrType.I32, val(value), val(addr)));
     }
 
     private String emitLValAddress(LValNode lValNode, FuncContext ctx) {
@@ -1049,24 +993,24 @@ public class LlvmIRGenerator {
                 if (!vi.isArray || lValNode.getExpNodes().isEmpty()) {
                     String base = freshReg();
                     if (vi.isArray) {
-                        emit(IrInstruction.Opcode.GEP, base, Collections.singletonList("@" + vi.label), "  " + base + " = getelementptr inbounds [" + vi.dims.get(0) + " x i32], [" + vi.dims.get(0) + " x i32]* @" + vi.label + ", i32 0, i32 0");
+                        emit(IrInstruction.gep(reg(base), IrType.arrayOf(vi.dims.get(0), IrType.I32), val("@" + vi.label), i32(0), i32(0)));
                     } else {
-                        emit(IrInstruction.Opcode.GEP, base, Collections.singletonList("@" + vi.label), "  " + base + " = getelementptr inbounds i32, i32* @" + vi.label + ", i32 0");
+                        emit(IrInstruction.gep(reg(base), IrType.I32, val("@" + vi.label), i32(0)));
                     }
                     return base;
                 } else {
                     String base = freshReg();
-                    emit(IrInstruction.Opcode.GEP, base, Collections.singletonList("@" + vi.label), "  " + base + " = getelementptr inbounds [" + vi.dims.get(0) + " x i32], [" + vi.dims.get(0) + " x i32]* @" + vi.label + ", i32 0, i32 0");
+                    emit(IrInstruction.gep(reg(base), IrType.arrayOf(vi.dims.get(0), IrType.I32), val("@" + vi.label), i32(0), i32(0)));
                     String offset = computeOffset(lValNode.getExpNodes(), vi.dims, ctx);
                     String addr = freshReg();
-                    emit(IrInstruction.Opcode.GEP, addr, Arrays.asList(base, offset), "  " + addr + " = getelementptr inbounds i32, i32* " + base + ", i32 " + offset);
+                    emit(IrInstruction.gep(reg(addr), IrType.I32, val(base), val(offset)));
                     return addr;
                 }
             }
             if (!vi.isArray || lValNode.getExpNodes().isEmpty()) {
                 if (vi.storage == Storage.PARAM && vi.isArray) {
                     String base = freshReg();
-                    emit(IrInstruction.Opcode.LOAD, base, Collections.singletonList(vi.ptr), "  " + base + " = load i32*, i32** " + vi.ptr + ", align 4");
+                    emit(IrInstruction.load(reg(base), I32_PTR, val(vi.ptr)));
                     return base;
                 }
                 return vi.ptr;
@@ -1074,13 +1018,13 @@ public class LlvmIRGenerator {
             String base;
             if (vi.storage == Storage.PARAM && vi.isArray) {
                 base = freshReg();
-                emit(IrInstruction.Opcode.LOAD, base, Collections.singletonList(vi.ptr), "  " + base + " = load i32*, i32** " + vi.ptr + ", align 4");
+                emit(IrInstruction.load(reg(base), I32_PTR, val(vi.ptr)));
             } else {
                 base = vi.ptr;
             }
             String offset = computeOffset(lValNode.getExpNodes(), vi.dims, ctx);
             String addr = freshReg();
-            emit(IrInstruction.Opcode.GEP, addr, Arrays.asList(base, offset), "  " + addr + " = getelementptr inbounds i32, i32* " + base + ", i32 " + offset);
+            emit(IrInstruction.gep(reg(addr), IrType.I32, val(base), val(offset)));
             return addr;
         }
         GlobalVar gv = globals.get(name);
@@ -1088,22 +1032,22 @@ public class LlvmIRGenerator {
             if (!gv.isArray || lValNode.getExpNodes().isEmpty()) {
                 String base = freshReg();
                 if (gv.isArray) {
-                    emit(IrInstruction.Opcode.GEP, base, Collections.singletonList("@" + gv.name), "  " + base + " = getelementptr inbounds [" + gv.len + " x i32], [" + gv.len + " x i32]* @" + gv.name + ", i32 0, i32 0");
+                    emit(IrInstruction.gep(reg(base), IrType.arrayOf(gv.len, IrType.I32), val("@" + gv.name), i32(0), i32(0)));
                 } else {
-                    emit(IrInstruction.Opcode.GEP, base, Collections.singletonList("@" + gv.name), "  " + base + " = getelementptr inbounds i32, i32* @" + gv.name + ", i32 0");
+                    emit(IrInstruction.gep(reg(base), IrType.I32, val("@" + gv.name), i32(0)));
                 }
                 return base;
             } else {
                 String base = freshReg();
-                emit(IrInstruction.Opcode.GEP, base, Collections.singletonList("@" + gv.name), "  " + base + " = getelementptr inbounds [" + gv.len + " x i32], [" + gv.len + " x i32]* @" + gv.name + ", i32 0, i32 0");
+                emit(IrInstruction.gep(reg(base), IrType.arrayOf(gv.len, IrType.I32), val("@" + gv.name), i32(0), i32(0)));
                 String offset = computeOffset(lValNode.getExpNodes(), gv.dims, ctx);
                 String addr = freshReg();
-                emit(IrInstruction.Opcode.GEP, addr, Arrays.asList(base, offset), "  " + addr + " = getelementptr inbounds i32, i32* " + base + ", i32 " + offset);
+                emit(IrInstruction.gep(reg(addr), IrType.I32, val(base), val(offset)));
                 return addr;
             }
         }
         String dummy = freshReg();
-        emit(IrInstruction.Opcode.ALLOCA, dummy, Collections.emptyList(), "  " + dummy + " = alloca i32");
+        emit(IrInstruction.alloca(reg(dummy), IrType.I32));
         return dummy;
     }
 
@@ -1119,12 +1063,12 @@ public class LlvmIRGenerator {
             String term;
             if (stride != 1) {
                 term = freshReg();
-                emit(IrInstruction.Opcode.MUL, term, Arrays.asList(idx, String.valueOf(stride)), "  " + term + " = mul i32 " + idx + ", " + stride);
+                emit(IrInstruction.binary(IrInstruction.Opcode.MUL, reg(term), IrType.I32, val(idx), i32(stride)));
             } else term = idx;
             if (offset == null) offset = term;
             else {
                 String sum = freshReg();
-                emit(IrInstruction.Opcode.ADD, sum, Arrays.asList(offset, term), "  " + sum + " = add i32 " + offset + ", " + term);
+                emit(IrInstruction.binary(IrInstruction.Opcode.ADD, reg(sum), IrType.I32, val(offset), val(term)));
                 offset = sum;
             }
         }
@@ -1164,14 +1108,14 @@ public class LlvmIRGenerator {
             if ("%d".equals(seg)) {
                 if (argIdx < argVals.size()) {
                     String v = argVals.get(argIdx++);
-                    emit(IrInstruction.Opcode.CALL, Collections.singletonList(v), "  call void @putint(i32 " + v + ")");
+                    emit(IrInstruction.call(null, IrType.VOID, "putint", Collections.singletonList(val(v))));
                 }
             } else if (!seg.isEmpty()) {
                 String label = newStringConst(seg);
                 int len = getStringLen(seg);
                 String ptr = freshReg();
-                emit(IrInstruction.Opcode.GEP, ptr, Collections.singletonList(label), "  " + ptr + " = getelementptr inbounds [" + len + " x i8], [" + len + " x i8]* " + label + ", i32 0, i32 0");
-                emit(IrInstruction.Opcode.CALL, Collections.singletonList(ptr), "  call void @putstr(i8* " + ptr + ")");
+                emit(IrInstruction.gep(reg(ptr), IrType.arrayOf(len, IrType.I8), val(label), i32(0), i32(0)));
+                emit(IrInstruction.call(null, IrType.VOID, "putstr", Collections.singletonList(val(ptr))));
             }
         }
     }
@@ -1181,32 +1125,13 @@ public class LlvmIRGenerator {
             return strContentMap.get(content);
         }
         String label = ".str_" + (strId++);
-        int len = getStringLen(content);
-        String def = "@" + label + " = private unnamed_addr constant [" + len + " x i8] c\"" + escapeString(content) + "\", align 1";
-        stringLiterals.put(label, def);
+        stringLiterals.put(label, IrGlobal.string(label, content));
         strContentMap.put(content, "@" + label);
         return "@" + label;
     }
 
     private int getStringLen(String s) { return s.getBytes(StandardCharsets.UTF_8).length + 1; }
 
-    private String escapeString(String s) {
-        StringBuilder sb = new StringBuilder();
-        for (char ch : s.toCharArray()) {
-            switch (ch) {
-                case '\\': sb.append("\\5C"); break;
-                case '\"': sb.append("\\22"); break;
-                case '\n': sb.append("\\0A"); break;
-                case '\t': sb.append("\\09"); break;
-                default:
-                    if (ch >= 32 && ch < 127) sb.append(ch);
-                    else sb.append(String.format("\\%02X", (int) ch));
-            }
-        }
-        sb.append("\\00");
-        return sb.toString();
-    }
-
     /* ---------- utils ---------- */
     private Map<String, ConstInfo> mergedConstEnv() {
         Map<String, ConstInfo> res = new HashMap<>(globalConstEnv);
@@ -1228,7 +1153,7 @@ public class LlvmIRGenerator {
             GlobalVar gv = globals.get(lVal.getIdent().getValue());
             if (gv != null && gv.isArray) {
                 String base = freshReg();
-                emit(IrInstruction.Opcode.GEP, base, Collections.singletonList("@" + gv.name), "  " + base + " = getelementptr inbounds [" + gv.len + " x i32], [" + gv.len + " x i32]* @" + gv.name + ", i32 0, i32 0");
+                emit(IrInstruction.gep(reg(base), IrType.arrayOf(gv.len, IrType.I32), val("@" + gv.name), i32(0), i32(0)));
                 return base;
             }
             return null;
@@ -1236,7 +1161,7 @@ public class LlvmIRGenerator {
         if (!vi.isArray) return null;
         if (vi.storage == Storage.PARAM && vi.isArray) {
             String base = freshReg();
-            emit(IrInstruction.Opcode.LOAD, base, Collections.singletonList(vi.ptr), "  " + base + " = load i32*, i32** " + vi.ptr + ", align 4");
+            emit(IrInstruction.load(reg(base), I32_PTR, val(vi.ptr)));
             return base;
         }
         return vi.ptr;
@@ -1,237 +1,180 @@
 package backend;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import backend.ir.IrBasicBlock;
+import backend.ir.IrConstInt;
+import backend.ir.IrFunction;
+import backend.ir.IrGlobal;
+import backend.ir.IrGlobalRef;
+import backend.ir.IrInstruction;
+import backend.ir.IrModule;
+import backend.ir.IrRegister;
+import backend.ir.IrType;
+import backend.ir.IrValue;
+
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
- * A minimal LLVM IR (subset) to MIPS translator.
- * It assumes the IR generated by {@link LlvmIRGenerator} (no phi).
+ * Lowers the structured IR module built by {@link LlvmIRGenerator} to MIPS.
+ * Instructions are selected by opcode straight from the IR objects; phis are kept through
+ * register allocation and lowered by {@link OutOfSsa} into sequentialized copies on each
+ * incoming edge.
+ * SSA values are kept in registers chosen by {@link LinearScanAllocator}, or by
+ * {@link GraphColoringAllocator} in the slower high-optimization mode;
+ * only spilled values get a stack slot.
  * Stack layout:
  *   fp -> old sp
  *   fp-4 : saved ra
  *   fp-8 : saved fp
- *   fp-12 ... : locals/temps (growing to lower addresses)
+ *   fp-12 ... : saved $s registers, locals/spilled temps (growing to lower addresses)
  */
 public class LlvmToMipsGenerator {
     /* ------------ data models ------------ */
-    private static class DataItem {
-        String name;
-        boolean isString;
-        List<Integer> ints;
-        String str; // decoded ascii
-    }
-
     private static class Func {
-        String name; // without '@'
-        String retType;
-        List<String> params = new ArrayList<>();
-        List<Integer> paramWidths = new ArrayList<>();
-        List<String> body = new ArrayList<>();
-        Map<String, Integer> allocaOffset = new HashMap<>(); // %x -> offset from fp (positive), address = fp - off
-        Map<String, Integer> valOffset = new HashMap<>();     // SSA value slots
-        Map<String, Integer> valWidth = new HashMap<>();      // byte width for SSA values/pointers
+        final IrFunction ir;
+        final String name;
+        final Map<IrValue, Integer> allocaOffset = new HashMap<>(); // address = fp - off
+        final Map<IrValue, Integer> valOffset = new HashMap<>();    // spilled SSA value slots
+        final Map<IrValue, String> regOf = new HashMap<>();         // SSA values living in registers
+        final Map<String, Integer> savedOffset = new LinkedHashMap<>(); // callee-saved $s -> offset from fp
+        Map<String, List<OutOfSsa.Copy>> phiCopies = new HashMap<>(); // pred label -> phi copies on its jump
         int frameSize;
-    }
 
-    /* ------------ public API ------------ */
-    public String generateFromFile(String path) throws IOException {
-        List<String> lines = Files.readAllLines(Paths.get(path));
-        ParseResult pr = parse(lines);
-        pr.funcs.forEach(this::planFrame);
-
-        StringBuilder sb = new StringBuilder();
-        emitData(pr.dataItems, sb);
-        emitText(pr.funcs, sb);
-        return sb.toString();
+        Func(IrFunction ir) {
+            this.ir = ir;
+            this.name = ir.getName();
+        }
     }
 
-    // New: generate directly from structured IR module (no file parsing)
-    public String generateFromModule(backend.ir.IrModule module) {
-        ParseResult pr = new ParseResult();
-        // data segment: globals and string literals as already formatted
-        for (String g : module.getGlobalDefs()) {
-            pr.dataItems.add(parseData(g));
-        }
-        for (String s : module.getStringDefs()) {
-            pr.dataItems.add(parseData(s));
-        }
+    /** A memory operand: {@code label+offset}, or {@code offset(base)} when label is null. */
+    private static class MemRef {
+        final String label;
+        final String base;
+        final int offset;
 
-        for (backend.ir.IrFunction fn : module.getFunctions()) {
-            Func f = new Func();
-            parseFuncHeader(fn.getHeader(), f);
-            for (backend.ir.IrBasicBlock bb : fn.getBlocks()) {
-                f.body.add(bb.getLabel() + ":");
-                for (backend.ir.IrInstruction ins : bb.getInstructions()) {
-                    f.body.add(ins.getText());
-                }
-            }
-            f.body.add("}");
-            pr.funcs.add(f);
+        MemRef(String label, String base, int offset) {
+            this.label = label;
+            this.base = base;
+            this.offset = offset;
         }
-        pr.funcs.forEach(this::planFrame);
 
-        StringBuilder sb = new StringBuilder();
-        emitData(pr.dataItems, sb);
-        emitText(pr.funcs, sb);
-        return sb.toString();
+        String operand() {
+            if (label != null) return offset == 0 ? label : label + "+" + offset;
+            return offset + "(" + base + ")";
+        }
     }
 
-    /* ------------ parsing ------------ */
-    private static class ParseResult {
-        List<DataItem> dataItems = new ArrayList<>();
-        List<Func> funcs = new ArrayList<>();
-    }
+    /** Selection costs measured by running the emitters into a throwaway buffer. */
+    private class EmitterCosts implements InstructionSelector.CostModel {
+        private final Func f;
 
-    private ParseResult parse(List<String> lines) {
-        ParseResult pr = new ParseResult();
-        Iterator<String> it = lines.iterator();
-        while (it.hasNext()) {
-            String raw = it.next().trim();
-            if (raw.isEmpty() || raw.startsWith(";")) continue;
-            if (raw.startsWith("declare")) continue;
-            if (raw.startsWith("@")) {
-                pr.dataItems.add(parseData(raw));
-                continue;
-            }
-            if (raw.startsWith("define")) {
-                Func f = new Func();
-                parseFuncHeader(raw, f);
-                while (it.hasNext()) {
-                    String ln = it.next();
-                    f.body.add(ln);
-                    if (ln.trim().equals("}")) break;
-                }
-                pr.funcs.add(f);
+        EmitterCosts(Func f) {
+            this.f = f;
+        }
+
+        @Override
+        public int tile(InstructionSelector.Tile tile, IrInstruction root, IrInstruction child) {
+            StringBuilder sb = new StringBuilder();
+            switch (tile) {
+                case COMPARE_BRANCH:
+                    emitIcmpBranch(f, child, root, sb);
+                    break;
+                case COMPARE_SET:
+                    emitIcmpZext(f, child, root, sb);
+                    break;
+                case ADDRESSED_LOAD:
+                    emitLoad(f, root, child, sb);
+                    break;
+                default:
+                    emitStore(f, root, child, sb);
+                    break;
             }
+            return instructionCount(sb);
         }
-        return pr;
-    }
 
-    private void parseFuncHeader(String line, Func f) {
-        // example: define dso_local i32 @main(i32 %a, i32 %b) {
-        Matcher m = Pattern.compile("define\\s+\\w+\\s+(\\w+)\\s+@([\\w$\\.]+)\\((.*)\\)\\s*\\{").matcher(line);
-        if (!m.find()) throw new RuntimeException("Bad function header: " + line);
-        f.retType = m.group(1);
-        f.name = m.group(2);
-        String params = m.group(3).trim();
-        if (!params.isEmpty()) {
-            String[] ps = params.split(",");
-            for (String p : ps) {
-                p = p.trim();
-                if (p.isEmpty()) continue;
-                String[] seg = p.split("\\s+");
-                String pname = seg[seg.length - 1];
-                String ptype = seg[seg.length - 2];
-                f.params.add(pname);
-                f.paramWidths.add(typeWidth(ptype));
-                f.valWidth.put(pname, typeWidth(ptype));
+        @Override
+        public int plain(IrInstruction ins) {
+            StringBuilder sb = new StringBuilder();
+            switch (ins.getOpcode()) {
+                case ICMP:
+                    emitIcmp(f, ins, sb);
+                    break;
+                case BR:
+                    emitBr(f, ins, sb);
+                    break;
+                case ZEXT:
+                    emitZext(f, ins, sb);
+                    break;
+                case GEP:
+                    emitGep(f, ins, sb);
+                    break;
+                case LOAD:
+                    emitLoad(f, ins, null, sb);
+                    break;
+                case STORE:
+                    emitStore(f, ins, null, sb);
+                    break;
+                default:
+                    return 1;
             }
+            return instructionCount(sb);
         }
     }
 
-    private int typeWidth(String typ) {
-        if (typ == null) return 4;
-        typ = typ.trim();
-        if (typ.startsWith("i1") || typ.startsWith("i8")) return 1;
-        return 4;
+    private final boolean graphColoring;
+    private final OutOfSsa outOfSsa = new OutOfSsa();
+
+    public LlvmToMipsGenerator() {
+        this(false);
     }
 
-    private DataItem parseData(String line) {
-        DataItem di = new DataItem();
-        int nameEnd = line.indexOf('=');
-        di.name = line.substring(1, nameEnd).trim();
-        if (line.contains("c\"")) { // string constant
-            int start = line.indexOf("c\"") + 2;
-            int end = line.lastIndexOf('"');
-            String raw = line.substring(start, end);
-            di.isString = true;
-            di.str = decodeStr(raw);
-        } else {
-            di.isString = false;
-            di.ints = parseInts(line);
-        }
-        return di;
+    /** @param graphColoring use iterated register coalescing instead of linear scan */
+    public LlvmToMipsGenerator(boolean graphColoring) {
+        this.graphColoring = graphColoring;
     }
 
-    private List<Integer> parseInts(String line) {
-        List<Integer> ints = new ArrayList<>();
-        int lbr = line.indexOf('[');
-        int rbr = line.lastIndexOf(']');
-        if (lbr >= 0 && rbr > lbr) {
-            String inside = line.substring(lbr + 1, rbr);
-            Matcher m = Pattern.compile("i\\d+\\s+(-?\\d+)").matcher(inside);
-            while (m.find()) {
-                ints.add(Integer.parseInt(m.group(1)));
-            }
-            // if empty, maybe zero-initialized array length known
-            if (ints.isEmpty()) {
-                Matcher lenM = Pattern.compile("\\[(\\d+)\\s+x").matcher(line);
-                int len = lenM.find() ? Integer.parseInt(lenM.group(1)) : 0;
-                for (int i = 0; i < len; i++) ints.add(0);
-            }
-        } else { // scalar
-            Matcher m = Pattern.compile("(?:global|constant)\\s+i\\d+\\s+(-?\\d+)").matcher(line);
-            if (m.find()) {
-                ints.add(Integer.parseInt(m.group(1)));
-            } else {
-                ints.add(0);
+    /* ------------ public API ------------ */
+    public String generateFromModule(IrModule module) {
+        List<Func> funcs = new ArrayList<>();
+        for (IrFunction fn : module.getFunctions()) {
+            outOfSsa.splitCriticalEdges(fn);
+            Func f = new Func(fn);
+            f.phiCopies = outOfSsa.collectCopies(fn);
+            RegAllocation alloc = graphColoring
+                    ? new GraphColoringAllocator().allocate(fn)
+                    : new LinearScanAllocator().allocate(fn);
+            f.regOf.putAll(alloc.getAssignments());
+            if (!f.name.equals("main")) {
+                for (String reg : alloc.getUsedCalleeSaved()) f.savedOffset.put(reg, 0);
             }
+            planFrame(f);
+            funcs.add(f);
         }
-        return ints;
-    }
 
-    private String decodeStr(String raw) {
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < raw.length(); i++) {
-            char c = raw.charAt(i);
-            if (c == '\\' && i + 2 < raw.length()) {
-                char c1 = raw.charAt(i + 1);
-                char c2 = raw.charAt(i + 2);
-                if (isHex(c1) && isHex(c2)) {
-                    int v = Integer.parseInt("" + c1 + c2, 16);
-                    if (v == 0) { i += 2; continue; }
-                    sb.append((char) v);
-                    i += 2;
-                } else {
-                    sb.append(c1);
-                    i++;
-                }
-            } else {
-                sb.append(c);
-            }
-        }
+        emitData(module, sb);
+        emitText(funcs, sb);
         return sb.toString();
     }
 
-    private boolean isHex(char c) {
-        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
-    }
-
     /* ------------ frame planning ------------ */
     private void planFrame(Func f) {
         int cursor = 0; // bytes used by locals/temps (excludes saved fp/ra)
-        for (String p : f.params) {
-            if (!f.valOffset.containsKey(p)) {
+        for (String reg : f.savedOffset.keySet()) {
+            cursor += 4;
+            f.savedOffset.put(reg, 8 + cursor);
+        }
+        for (IrRegister p : f.ir.getParams()) {
+            if (!f.valOffset.containsKey(p) && !f.regOf.containsKey(p)) {
                 cursor = allocValue(f, p, cursor);
             }
         }
-        for (String raw : f.body) {
-            String line = raw.trim();
-            if (!line.startsWith("%")) continue;
-            int eq = line.indexOf('=');
-            if (eq < 0) continue;
-            String dest = line.substring(0, eq).trim();
-            String rest = line.substring(eq + 1).trim();
-            captureWidth(f, dest, rest);
-            if (rest.startsWith("alloca")) {
-                int size = parseAllocaSize(rest);
-                cursor = allocAlloca(f, dest, size, cursor);
-            } else {
-                if (!f.valOffset.containsKey(dest)) {
+        for (IrBasicBlock bb : f.ir.getBlocks()) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                IrRegister dest = ins.getResult();
+                if (dest == null) continue;
+                if (ins.getOpcode() == IrInstruction.Opcode.ALLOCA) {
+                    cursor = allocAlloca(f, dest, sizeOf(ins.getType()), cursor);
+                } else if (!f.valOffset.containsKey(dest) && !f.regOf.containsKey(dest)) {
                     cursor = allocValue(f, dest, cursor);
                 }
             }
@@ -239,81 +182,53 @@ public class LlvmToMipsGenerator {
         f.frameSize = align4(cursor + 8); // saved fp/ra
     }
 
-    private void captureWidth(Func f, String dest, String rest) {
-        rest = rest.trim();
-        if (rest.startsWith("load")) {
-            Matcher m = Pattern.compile("load\\s+(\\S+)").matcher(rest);
-            if (m.find()) f.valWidth.put(dest, typeWidth(m.group(1)));
-        } else if (rest.startsWith("alloca")) {
-            f.valWidth.put(dest, 4); // pointer
-        } else if (rest.startsWith("icmp")) {
-            f.valWidth.put(dest, 1);
-        } else if (rest.startsWith("zext")) {
-            f.valWidth.put(dest, 4);
-        } else if (rest.startsWith("xor")) {
-            f.valWidth.put(dest, rest.contains("xor i1") ? 1 : 4);
-        } else if (rest.startsWith("getelementptr")) {
-            f.valWidth.put(dest, 4);
-        } else if (rest.startsWith("call")) {
-            Matcher m = Pattern.compile("call\\s+(\\w+)\\s+@").matcher(rest);
-            if (m.find()) f.valWidth.put(dest, typeWidth(m.group(1)));
-        } else if (rest.startsWith("add") || rest.startsWith("sub") || rest.startsWith("mul")
-                || rest.startsWith("sdiv") || rest.startsWith("srem")) {
-            f.valWidth.put(dest, 4);
-        }
-    }
-
-    private int allocAlloca(Func f, String name, int size, int cursor) {
+    private int allocAlloca(Func f, IrValue v, int size, int cursor) {
         size = align4(size);
         int off = 8 + cursor + size; // address = fp - off
-        f.allocaOffset.put(name, off);
-        f.valWidth.put(name, 4); // pointer width
+        f.allocaOffset.put(v, off);
         return cursor + size;
     }
 
-    private int allocValue(Func f, String name, int cursor) {
+    private int allocValue(Func f, IrValue v, int cursor) {
         int size = 4;
         int off = 8 + cursor + size;
-        f.valOffset.put(name, off);
-        f.valWidth.putIfAbsent(name, 4);
+        f.valOffset.put(v, off);
         return cursor + size;
     }
 
-    private int parseAllocaSize(String rest) {
-        // rest: "alloca i32, align 4" or "alloca [5 x i32], align 4"
-        if (rest.contains("i32")) {
-            Matcher m = Pattern.compile("alloca\\s+\\[(\\d+)\\s+x\\s+i32\\]").matcher(rest);
-            if (m.find()) {
-                int n = Integer.parseInt(m.group(1));
-                return n * 4;
-            }
-            return 4;
+    private int sizeOf(IrType t) {
+        switch (t.getKind()) {
+            case ARRAY: return t.getLength() * sizeOf(t.getElementType());
+            case INT: return t.getBits() <= 8 ? 1 : 4;
+            default: return 4;
         }
-        if (rest.contains("i8") || rest.contains("i1")) {
-            Matcher m = Pattern.compile("alloca\\s+\\[(\\d+)\\s+x\\s+i8\\]").matcher(rest);
-            if (m.find()) {
-                int n = Integer.parseInt(m.group(1));
-                return n; // still align later
-            }
-            return 1;
-        }
-        return 4;
+    }
+
+    /** Bytes a value occupies in its stack slot: i1/i8 values use byte loads and stores. */
+    private int widthOf(IrValue v) {
+        IrType t = v.getType();
+        return t != null && t.getKind() == IrType.Kind.INT && t.getBits() <= 8 ? 1 : 4;
     }
 
     /* ------------ emission ------------ */
-    private void emitData(List<DataItem> items, StringBuilder sb) {
+    private void emitData(IrModule module, StringBuilder sb) {
         sb.append(".data\n");
-        for (DataItem di : items) {
-            if (di.isString) {
-                sb.append(di.name).append(": .asciiz \"").append(escape(di.str)).append("\"\n");
-            } else {
-                sb.append(di.name).append(": .word ");
-                for (int i = 0; i < di.ints.size(); i++) {
-                    if (i > 0) sb.append(", ");
-                    sb.append(di.ints.get(i));
-                }
-                sb.append("\n");
+        for (IrGlobal g : module.getGlobals()) {
+            if (g.getType().getKind() == IrType.Kind.ARRAY && g.isZeroInitialized()) {
+                // zero-filled arrays (large tables in particular) need no initializer list
+                sb.append(g.getName()).append(": .space ").append(4 * g.getInit().size()).append("\n");
+                continue;
+            }
+            sb.append(g.getName()).append(": .word ");
+            List<Integer> init = g.getInit();
+            for (int i = 0; i < init.size(); i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(init.get(i));
             }
+            sb.append("\n");
+        }
+        for (IrGlobal s : module.getStrings()) {
+            sb.append(s.getName()).append(": .asciiz \"").append(escape(s.getContent())).append("\"\n");
         }
         sb.append(".text\n.globl main\n");
     }
@@ -341,81 +256,107 @@ public class LlvmToMipsGenerator {
         sb.append("  sw $ra, ").append(f.frameSize - 4).append("($sp)\n");
         sb.append("  sw $fp, ").append(f.frameSize - 8).append("($sp)\n");
         sb.append("  addiu $fp, $sp, ").append(f.frameSize).append("\n");
-        // save params to slots
-        for (int i = 0; i < f.params.size(); i++) {
-            String p = f.params.get(i);
+        for (Map.Entry<String, Integer> e : f.savedOffset.entrySet()) {
+            sb.append("  sw ").append(e.getKey()).append(", -").append(e.getValue()).append("($fp)\n");
+        }
+        // move params to their registers or slots
+        List<IrRegister> params = f.ir.getParams();
+        for (int i = 0; i < params.size(); i++) {
+            IrRegister p = params.get(i);
+            String dst = f.regOf.get(p);
+            if (dst != null) {
+                if (i < 4) {
+                    sb.append("  move ").append(dst).append(", $a").append(i).append("\n");
+                } else {
+                    sb.append("  lw ").append(dst).append(", ").append((i - 4) * 4).append("($fp)\n");
+                }
+                continue;
+            }
             Integer off = f.valOffset.get(p);
             if (off == null) continue;
             if (i < 4) {
-                String reg = "$a" + i;
-                sb.append("  sw ").append(reg).append(", -").append(off).append("($fp)\n");
+                sb.append("  sw $a").append(i).append(", -").append(off).append("($fp)\n");
             } else {
-                int pos = (i - 4) * 4;
-                sb.append("  lw $t0, ").append(pos).append("($fp)\n");
+                sb.append("  lw $t0, ").append((i - 4) * 4).append("($fp)\n");
                 sb.append("  sw $t0, -").append(off).append("($fp)\n");
             }
         }
 
-        for (int idx = 0; idx < f.body.size(); idx++) {
-            String raw = f.body.get(idx);
-            String line = raw.trim();
-            if (line.isEmpty() || line.equals("}")) continue;
-            if (line.startsWith(";")) continue;
-            if (line.endsWith(":")) {
-                String label = line.substring(0, line.length() - 1);
-                sb.append(fname).append("_").append(label).append(":\n");
-                continue;
-            }
-            // peephole: icmp followed by zext or branch consuming it
-            if (line.contains(" = icmp") && idx + 1 < f.body.size()) {
-                String next = f.body.get(idx + 1).trim();
-                if (next.contains(" = zext") && tryEmitIcmpZextCombo(f, line, next, sb)) {
-                    idx++; // consume next as well
-                    continue;
+        InstructionSelector.Selection sel = new InstructionSelector(
+                v -> !f.regOf.containsKey(v) && (v instanceof IrGlobalRef || f.allocaOffset.containsKey(v)),
+                new EmitterCosts(f)).select(f.ir);
+        for (IrBasicBlock bb : f.ir.getBlocks()) {
+            sb.append(labelOf(f, bb.getLabel())).append(":\n");
+            for (IrInstruction ins = bb.getFirst(); ins != null; ins = ins.getNext()) {
+                if (sel.isCovered(ins)) continue;
+                IrInstruction child = sel.childOf(ins);
+                switch (sel.tileOf(ins)) {
+                    case COMPARE_BRANCH:
+                        emitIcmpBranch(f, child, ins, sb);
+                        continue;
+                    case COMPARE_SET:
+                        emitIcmpZext(f, child, ins, sb);
+                        continue;
+                    default:
+                        break;
                 }
-                if (next.startsWith("br i1") && tryEmitIcmpBranchCombo(f, line, next, sb)) {
-                    idx++; // consume next as well
-                    continue;
+                switch (ins.getOpcode()) {
+                    case ALLOCA:
+                    case PHI: // lowered to copies on the incoming jumps
+                        break;
+                    case STORE:
+                        emitStore(f, ins, child, sb);
+                        break;
+                    case LOAD:
+                        emitLoad(f, ins, child, sb);
+                        break;
+                    case ADD:
+                        emitAddSub(f, ins, sb, "addu");
+                        break;
+                    case SUB:
+                        emitAddSub(f, ins, sb, "subu");
+                        break;
+                    case MUL:
+                        emitMul(f, ins, sb);
+                        break;
+                    case SDIV:
+                        emitDivRem(f, ins, sb, true);
+                        break;
+                    case SREM:
+                        emitDivRem(f, ins, sb, false);
+                        break;
+                    case ICMP:
+                        emitIcmp(f, ins, sb);
+                        break;
+                    case ZEXT:
+                        emitZext(f, ins, sb);
+                        break;
+                    case XOR:
+                        emitXor(f, ins, sb);
+                        break;
+                    case GEP:
+                        emitGep(f, ins, sb);
+                        break;
+                    case BR:
+                        if (ins.getOperandCount() == 1) emitPhiCopies(f, bb.getLabel(), sb);
+                        emitBr(f, ins, sb);
+                        break;
+                    case RET:
+                        emitRet(f, ins, sb, exitLabel);
+                        break;
+                    case CALL:
+                        emitCall(f, ins, sb);
+                        break;
+                    default:
+                        break;
                 }
             }
-            if (line.startsWith("store")) {
-                emitStore(f, line, sb);
-            } else if (line.contains(" = load")) {
-                emitLoad(f, line, sb);
-            } else if (line.contains(" = add")) {
-                emitBinary(f, line, sb, "addu");
-            } else if (line.contains(" = sub")) {
-                emitBinary(f, line, sb, "subu");
-            } else if (line.contains(" = mul")) {
-                emitMul(f, line, sb);
-            } else if (line.contains(" = sdiv")) {
-                emitDivRem(f, line, sb, true);
-            } else if (line.contains(" = srem")) {
-                emitDivRem(f, line, sb, false);
-            } else if (line.contains(" = and")) {
-                emitAndOr(f, line, sb, true);
-            } else if (line.contains(" = or")) {
-                emitAndOr(f, line, sb, false);
-            } else if (line.contains(" = icmp")) {
-                emitIcmp(f, line, sb);
-            } else if (line.contains(" = zext")) {
-                emitZext(f, line, sb);
-            } else if (line.contains(" = xor")) {
-                emitXor(f, line, sb);
-            } else if (line.contains(" = getelementptr")) {
-                emitGep(f, line, sb);
-            } else if (line.startsWith("br ")) {
-                emitBr(f, line, sb);
-            } else if (line.startsWith("ret")) {
-                emitRet(f, line, sb, exitLabel);
-            } else if (line.contains(" = call") || line.startsWith("call")) {
-                emitCall(f, line, sb);
-            } else {
-                // ignore unsupported
-            }
         }
         // epilogue
         sb.append(exitLabel).append(":\n");
+        for (Map.Entry<String, Integer> e : f.savedOffset.entrySet()) {
+            sb.append("  lw ").append(e.getKey()).append(", ").append(f.frameSize - e.getValue()).append("($sp)\n");
+        }
         sb.append("  lw $ra, ").append(f.frameSize - 4).append("($sp)\n");
         sb.append("  lw $fp, ").append(f.frameSize - 8).append("($sp)\n");
         sb.append("  addiu $sp, $sp, ").append(f.frameSize).append("\n");
@@ -428,549 +369,449 @@ public class LlvmToMipsGenerator {
     }
 
     /* ------------ instruction emitters ------------ */
-    private void emitStore(Func f, String line, StringBuilder sb) {
-        // store i32 %v, i32* %ptr
-        String[] parts = line.split("\\s+", 3);
-        String rest = parts[2];
-        String[] seg = rest.split(",", 2);
-        String valPart = seg[0].trim(); // like "i32 %x"
-        String ptrPart = seg[1].trim(); // like "i32* %y"
-        String valOp = valPart.substring(valPart.indexOf(' ') + 1).trim();
-        String ptrOp = ptrPart.substring(ptrPart.indexOf(' ') + 1).trim();
-        boolean isByte = valPart.startsWith("i8") || valPart.startsWith("i1");
-
-        sb.append("  # ").append(line.trim()).append("\n");
-        String vReg = "$t0";
-        loadOperand(f, valOp, vReg, sb);
-        String aReg = "$t1";
-        loadAddress(f, ptrOp, aReg, sb);
-        if (isByte) {
-            sb.append("  sb ").append(vReg).append(", 0(").append(aReg).append(")\n");
-        } else {
-            sb.append("  sw ").append(vReg).append(", 0(").append(aReg).append(")\n");
-        }
-    }
-
-    private void emitLoad(Func f, String line, StringBuilder sb) {
-        // %dest = load i32, i32* %ptr
-        String dest = line.substring(0, line.indexOf('=')).trim();
-        String rest = line.substring(line.indexOf("load") + 4).trim();
-        String[] seg = rest.split(",");
-        String typeTok = seg[0].trim();
-        String ptrOp = seg[1].trim();
-        ptrOp = ptrOp.substring(ptrOp.indexOf(' ') + 1).trim();
-        boolean isByte = typeTok.startsWith("i8") || typeTok.startsWith("i1");
-
-        sb.append("  # ").append(line.trim()).append("\n");
-        String aReg = "$t1";
-        loadAddress(f, ptrOp, aReg, sb);
-        if (isByte) {
-            sb.append("  lbu $t0, 0(").append(aReg).append(")\n");
-        } else {
-            sb.append("  lw $t0, 0(").append(aReg).append(")\n");
+    /** {@code gep} is the address computation folded into the store by the selector, or null. */
+    private void emitStore(Func f, IrInstruction ins, IrInstruction gep, StringBuilder sb) {
+        // store ty v, ty* ptr
+        String vReg = useReg(f, ins.getOperand(0), "$t0", sb);
+        String addr = memOperand(f, ins.getOperand(1), gep, "$t1", sb);
+        String op = sizeOf(ins.getType()) == 1 ? "  sb " : "  sw ";
+        sb.append(op).append(vReg).append(", ").append(addr).append("\n");
+    }
+
+    private void emitLoad(Func f, IrInstruction ins, IrInstruction gep, StringBuilder sb) {
+        // dest = load ty, ty* ptr
+        IrRegister dest = ins.getResult();
+        String addr = memOperand(f, ins.getOperand(0), gep, "$t1", sb);
+        String d = defReg(f, dest, "$t0");
+        String op = sizeOf(ins.getType()) == 1 ? "  lbu " : "  lw ";
+        sb.append(op).append(d).append(", ").append(addr).append("\n");
+        storeValue(f, dest, d, sb);
+    }
+
+    private void emitAddSub(Func f, IrInstruction ins, StringBuilder sb, String op) {
+        IrRegister dest = ins.getResult();
+        IrValue op1 = ins.getOperand(0);
+        IrValue op2 = ins.getOperand(1);
+        boolean sub = op.equals("subu");
+        if (!sub && immOf(op2) == null && immOf(op1) != null) {
+            IrValue tmp = op1;
+            op1 = op2;
+            op2 = tmp;
+        }
+        String a = useReg(f, op1, "$t0", sb);
+        String d = defReg(f, dest, "$t2");
+        Integer imm = immOf(op2);
+        if (imm != null && fitsSigned16(sub ? -(long) imm : imm)) {
+            int val = sub ? -imm : imm;
+            sb.append("  addiu ").append(d).append(", ").append(a).append(", ").append(val).append("\n");
+            storeValue(f, dest, d, sb);
+            return;
         }
-        storeValue(f, dest, "$t0", sb, typeWidth(typeTok));
-    }
-
-    private void emitBinary(Func f, String line, StringBuilder sb, String op) {
-        // %d = add i32 op1, op2
-        String dest = line.substring(0, line.indexOf('=')).trim();
-        String rest = line.substring(line.indexOf(op.contains("addu") ? "add" : "sub") + 3).trim();
-        String[] seg = rest.split(",");
-        String op1 = seg[0].trim();
-        op1 = op1.substring(op1.indexOf(' ') + 1).trim();
-        String op2 = seg[1].trim();
-        op2 = op2.substring(op2.indexOf(' ') + 1).trim();
-
-        sb.append("  # ").append(line.trim()).append("\n");
-        loadOperand(f, op1, "$t0", sb);
-        if (op.contains("add") || op.contains("sub")) {
-            Integer imm = tryParseImm(op2);
-            if (imm != null && imm >= -32768 && imm <= 32767) {
-                int val = op.contains("sub") ? -imm : imm;
-                sb.append("  addiu $t2, $t0, ").append(val).append("\n");
-                storeValue(f, dest, "$t2", sb);
-                return;
-            }
+        String b = useReg(f, op2, "$t1", sb);
+        sb.append("  ").append(op).append(" ").append(d).append(", ").append(a).append(", ").append(b).append("\n");
+        storeValue(f, dest, d, sb);
+    }
+
+    private void emitMul(Func f, IrInstruction ins, StringBuilder sb) {
+        IrRegister dest = ins.getResult();
+        IrValue op1 = ins.getOperand(0);
+        IrValue op2 = ins.getOperand(1);
+        if (immOf(op2) == null && immOf(op1) != null) {
+            // multiplication commutes: keep the constant second
+            IrValue tmp = op1;
+            op1 = op2;
+            op2 = tmp;
+        }
+        String a = useReg(f, op1, "$t0", sb);
+        String d = defReg(f, dest, "$t2");
+        Integer imm = immOf(op2);
+        if (imm != null && ConstantLowering.emitMul(sb, d, a, imm)) {
+            storeValue(f, dest, d, sb);
+            return;
         }
-        loadOperand(f, op2, "$t1", sb);
-        sb.append("  ").append(op).append(" $t2, $t0, $t1\n");
-        storeValue(f, dest, "$t2", sb);
+        String b = useReg(f, op2, "$t1", sb);
+        sb.append("  mul ").append(d).append(", ").append(a).append(", ").append(b).append("\n");
+        storeValue(f, dest, d, sb);
     }
 
-    private void emitMul(Func f, String line, StringBuilder sb) {
-        String dest = line.substring(0, line.indexOf('=')).trim();
-        String rest = line.substring(line.indexOf("mul") + 3).trim();
-        String[] seg = rest.split(",");
-        String op1 = seg[0].trim();
-        op1 = op1.substring(op1.indexOf(' ') + 1).trim();
-        String op2 = seg[1].trim();
-        op2 = op2.substring(op2.indexOf(' ') + 1).trim();
-
-        sb.append("  # ").append(line.trim()).append("\n");
-        loadOperand(f, op1, "$t0", sb);
-        Integer imm = tryParseImm(op2);
-        if (imm != null) {
-            if (imm == 0) {
-                sb.append("  move $t2, $zero\n");
-                storeValue(f, dest, "$t2", sb);
-                return;
-            } else if (imm == 1) {
-                sb.append("  move $t2, $t0\n");
-                storeValue(f, dest, "$t2", sb);
-                return;
-            } else if (imm == -1) {
-                sb.append("  subu $t2, $zero, $t0\n");
-                storeValue(f, dest, "$t2", sb);
-                return;
-            }
+    private void emitDivRem(Func f, IrInstruction ins, StringBuilder sb, boolean isDiv) {
+        IrRegister dest = ins.getResult();
+        String a = useReg(f, ins.getOperand(0), "$t0", sb);
+        String d = defReg(f, dest, "$t2");
+        Integer imm = immOf(ins.getOperand(1));
+        if (imm != null && imm != 0) {
+            if (isDiv) ConstantLowering.emitDiv(sb, d, a, imm);
+            else ConstantLowering.emitRem(sb, d, a, imm);
+            storeValue(f, dest, d, sb);
+            return;
         }
-        loadOperand(f, op2, "$t1", sb);
-        sb.append("  mul $t2, $t0, $t1\n");
-        storeValue(f, dest, "$t2", sb);
-    }
-
-    private void emitDivRem(Func f, String line, StringBuilder sb, boolean isDiv) {
-        String dest = line.substring(0, line.indexOf('=')).trim();
-        String rest = line.substring(line.indexOf(isDiv ? "sdiv" : "srem") + 4).trim();
-        String[] seg = rest.split(",");
-        String op1 = seg[0].trim();
-        op1 = op1.substring(op1.indexOf(' ') + 1).trim();
-        String op2 = seg[1].trim();
-        op2 = op2.substring(op2.indexOf(' ') + 1).trim();
-
-        sb.append("  # ").append(line.trim()).append("\n");
-        loadOperand(f, op1, "$t0", sb);
-        Integer imm = tryParseImm(op2);
-        if (imm != null) {
-            if (imm == 1) {
-                sb.append("  move $t2, $t0\n");
-                storeValue(f, dest, "$t2", sb);
-                return;
-            } else if (imm == -1) {
-                if (isDiv) {
-                    sb.append("  subu $t2, $zero, $t0\n");
+        String b = useReg(f, ins.getOperand(1), "$t1", sb);
+        sb.append("  div ").append(a).append(", ").append(b).append("\n");
+        sb.append(isDiv ? "  mflo " : "  mfhi ").append(d).append("\n");
+        storeValue(f, dest, d, sb);
+    }
+
+    private void emitIcmp(Func f, IrInstruction ins, StringBuilder sb) {
+        IrRegister dest = ins.getResult();
+        String d = defReg(f, dest, "$t2");
+        emitIcmpInto(f, ins, d, sb);
+        storeValue(f, dest, d, sb);
+    }
+
+    /** d = icmp result as 0/1, using the immediate forms when the constant operand fits. */
+    private void emitIcmpInto(Func f, IrInstruction icmp, String d, StringBuilder sb) {
+        IrValue lhs = icmp.getOperand(0);
+        IrValue rhs = icmp.getOperand(1);
+        IrInstruction.Predicate pred = icmp.getPredicate();
+        if (immOf(rhs) == null && immOf(lhs) != null) {
+            lhs = icmp.getOperand(1);
+            rhs = icmp.getOperand(0);
+            pred = pred.swapped();
+        }
+        String a = useReg(f, lhs, "$t0", sb);
+        Integer imm = immOf(rhs);
+        if (imm != null && emitCompareImm(pred, d, a, imm, sb)) return;
+        String b = useReg(f, rhs, "$t1", sb);
+        emitCompare(pred, d, a, b, sb);
+    }
+
+    /** d = (a pred imm) with slti/sltiu/xori/addiu; false if imm does not fit the needed immediate. */
+    private boolean emitCompareImm(IrInstruction.Predicate pred, String d, String a, int imm, StringBuilder sb) {
+        if (pred == IrInstruction.Predicate.EQ || pred == IrInstruction.Predicate.NE) {
+            // bring a - imm (or a ^ imm) to zero first
+            String t = a;
+            if (imm != 0) {
+                if (fitsUnsigned16(imm)) {
+                    sb.append("  xori ").append(d).append(", ").append(a).append(", ").append(imm).append("\n");
+                } else if (fitsSigned16(-(long) imm)) {
+                    sb.append("  addiu ").append(d).append(", ").append(a).append(", ").append(-imm).append("\n");
                 } else {
-                    sb.append("  move $t2, $zero\n");
+                    return false;
                 }
-                storeValue(f, dest, "$t2", sb);
-                return;
+                t = d;
             }
-        }
-        loadOperand(f, op2, "$t1", sb);
-        sb.append("  div $t0, $t1\n");
-        sb.append(isDiv ? "  mflo $t2\n" : "  mfhi $t2\n");
-        storeValue(f, dest, "$t2", sb);
-    }
-
-    private void emitIcmp(Func f, String line, StringBuilder sb) {
-        // %d = icmp slt i32 %a, %b
-        String dest = line.substring(0, line.indexOf('=')).trim();
-        Matcher m = Pattern.compile("icmp\\s+(\\w+)\\s+i\\d+\\s+([^,]+),\\s+(.+)$").matcher(line);
-        if (!m.find()) return;
-        String cond = m.group(1);
-        String lhs = m.group(2).trim();
-        String rhs = m.group(3).trim();
-
-        sb.append("  # ").append(line.trim()).append("\n");
-        String lhsTok = lhs.substring(lhs.indexOf(' ') + 1).trim();
-        String rhsTok = rhs.substring(rhs.indexOf(' ') + 1).trim();
-        Integer imm = tryParseImm(rhsTok);
-        if (imm != null && imm >= -32768 && imm <= 32767) {
-            loadOperand(f, lhsTok, "$t0", sb);
-            switch (cond) {
-                case "slt":
-                    sb.append("  slti $t2, $t0, ").append(imm).append("\n");
-                    break;
-                case "sle":
-                    sb.append("  slti $t2, $t0, ").append(imm + 1).append("\n");
-                    break;
-                case "sge":
-                    sb.append("  slti $t2, $t0, ").append(imm).append("\n");
-                    sb.append("  xori $t2, $t2, 1\n");
-                    break;
-                case "sgt":
-                    sb.append("  slti $t2, $t0, ").append(imm + 1).append("\n");
-                    sb.append("  xori $t2, $t2, 1\n");
-                    break;
-                case "eq":
-                    sb.append("  xori $t2, $t0, ").append(imm).append("\n");
-                    sb.append("  sltiu $t2, $t2, 1\n");
-                    break;
-                case "ne":
-                    sb.append("  xori $t2, $t0, ").append(imm).append("\n");
-                    sb.append("  sltu $t2, $zero, $t2\n");
-                    break;
-                default:
-                    loadOperand(f, rhsTok, "$t1", sb);
-                    sb.append("  slt $t2, $t0, $t1\n");
-            }
-        } else {
-            loadOperand(f, lhsTok, "$t0", sb);
-            loadOperand(f, rhsTok, "$t1", sb);
-            switch (cond) {
-                case "slt":
-                    sb.append("  slt $t2, $t0, $t1\n");
-                    break;
-                case "sgt":
-                    sb.append("  slt $t2, $t1, $t0\n");
-                    break;
-                case "sle":
-                    sb.append("  slt $t2, $t1, $t0\n");
-                    sb.append("  xori $t2, $t2, 1\n");
-                    break;
-                case "sge":
-                    sb.append("  slt $t2, $t0, $t1\n");
-                    sb.append("  xori $t2, $t2, 1\n");
-                    break;
-                case "eq":
-                    sb.append("  xor $t2, $t0, $t1\n");
-                    sb.append("  sltiu $t2, $t2, 1\n");
-                    break;
-                case "ne":
-                    sb.append("  xor $t2, $t0, $t1\n");
-                    sb.append("  sltu $t2, $zero, $t2\n");
-                    break;
-                default:
-                    sb.append("  li $t2, 0\n");
+            if (pred == IrInstruction.Predicate.EQ) {
+                sb.append("  sltiu ").append(d).append(", ").append(t).append(", 1\n");
+            } else {
+                sb.append("  sltu ").append(d).append(", $zero, ").append(t).append("\n");
             }
+            return true;
+        }
+        if (pred == IrInstruction.Predicate.SGT && imm == 0) {
+            sb.append("  slt ").append(d).append(", $zero, ").append(a).append("\n");
+            return true;
+        }
+        // a < imm for SLT/SGE, a < imm + 1 for SLE/SGT; SGE/SGT take the negation
+        boolean strict = pred == IrInstruction.Predicate.SLT || pred == IrInstruction.Predicate.SGE;
+        long bound = strict ? imm : imm + 1L;
+        if (!fitsSigned16(bound)) return false;
+        sb.append("  slti ").append(d).append(", ").append(a).append(", ").append(bound).append("\n");
+        if (pred == IrInstruction.Predicate.SGE || pred == IrInstruction.Predicate.SGT) {
+            sb.append("  xori ").append(d).append(", ").append(d).append(", 1\n");
         }
-        f.valWidth.put(dest, 1);
-        storeValue(f, dest, "$t2", sb, 1);
+        return true;
     }
 
-    private boolean tryEmitIcmpZextCombo(Func f, String icmpLine, String zextLine, StringBuilder sb) {
-        String icmpDest = icmpLine.substring(0, icmpLine.indexOf('=')).trim();
-        Matcher mZext = Pattern.compile("zext\\s+i1\\s+%([\\w\\.]+)\\s+to\\s+i\\d+").matcher(zextLine);
-        if (!mZext.find()) return false;
-        String src = "%" + mZext.group(1);
-        if (!icmpDest.equals(src)) return false;
-        if (isUsedLater(f.body, icmpDest, zextLine)) return false;
-        Matcher mIcmp = Pattern.compile("icmp\\s+(\\w+)\\s+i\\d+\\s+([^,]+),\\s+(.+)$").matcher(icmpLine);
-        if (!mIcmp.find()) return false;
-        String cond = mIcmp.group(1);
-        String lhs = mIcmp.group(2).trim();
-        String rhs = mIcmp.group(3).trim();
-        String zextDest = zextLine.substring(0, zextLine.indexOf('=')).trim();
-
-        sb.append("  # ").append(icmpLine.trim()).append(" ; ").append(zextLine.trim()).append("\n");
-        loadOperand(f, lhs.substring(lhs.indexOf(' ') + 1).trim(), "$t0", sb);
-        loadOperand(f, rhs.substring(rhs.indexOf(' ') + 1).trim(), "$t1", sb);
-        switch (cond) {
-            case "slt":
-                sb.append("  slt $t2, $t0, $t1\n");
-                break;
-            case "sgt":
-                sb.append("  slt $t2, $t1, $t0\n");
+    /** d = (a pred b) for registers a, b; d may alias a or b. */
+    private void emitCompare(IrInstruction.Predicate pred, String d, String a, String b, StringBuilder sb) {
+        switch (pred) {
+            case SLT:
+                sb.append("  slt ").append(d).append(", ").append(a).append(", ").append(b).append("\n");
                 break;
-            case "sle":
-                sb.append("  slt $t2, $t1, $t0\n");
-                sb.append("  xori $t2, $t2, 1\n");
+            case SGT:
+                sb.append("  slt ").append(d).append(", ").append(b).append(", ").append(a).append("\n");
                 break;
-            case "sge":
-                sb.append("  slt $t2, $t0, $t1\n");
-                sb.append("  xori $t2, $t2, 1\n");
+            case SLE:
+                sb.append("  slt ").append(d).append(", ").append(b).append(", ").append(a).append("\n");
+                sb.append("  xori ").append(d).append(", ").append(d).append(", 1\n");
                 break;
-            case "eq":
-                sb.append("  xor $t2, $t0, $t1\n");
-                sb.append("  sltiu $t2, $t2, 1\n");
+            case SGE:
+                sb.append("  slt ").append(d).append(", ").append(a).append(", ").append(b).append("\n");
+                sb.append("  xori ").append(d).append(", ").append(d).append(", 1\n");
                 break;
-            case "ne":
-                sb.append("  xor $t2, $t0, $t1\n");
-                sb.append("  sltu $t2, $zero, $t2\n");
+            case EQ:
+                sb.append("  xor ").append(d).append(", ").append(a).append(", ").append(b).append("\n");
+                sb.append("  sltiu ").append(d).append(", ").append(d).append(", 1\n");
                 break;
             default:
-                return false;
+                sb.append("  xor ").append(d).append(", ").append(a).append(", ").append(b).append("\n");
+                sb.append("  sltu ").append(d).append(", $zero, ").append(d).append("\n");
+                break;
         }
-        f.valWidth.put(zextDest, 4);
-        storeValue(f, zextDest, "$t2", sb, 4);
-        return true;
     }
 
-    private boolean tryEmitIcmpBranchCombo(Func f, String icmpLine, String brLine, StringBuilder sb) {
-        String dest = icmpLine.substring(0, icmpLine.indexOf('=')).trim();
-        // ensure dest not used later
-        if (isUsedLater(f.body, dest, brLine)) return false;
-        Matcher mIcmp = Pattern.compile("icmp\\s+(\\w+)\\s+i\\d+\\s+([^,]+),\\s+(.+)$").matcher(icmpLine);
-        Matcher mBr = Pattern.compile("br\\s+i1\\s+%([\\w\\.]+),\\s+label\\s+%([^,]+),\\s+label\\s+%(.+)$").matcher(brLine);
-        if (!mIcmp.find() || !mBr.find()) return false;
-        if (!dest.equals(mBr.group(1).trim())) return false;
-        String cond = mIcmp.group(1);
-        String lhs = mIcmp.group(2).trim();
-        String rhs = mIcmp.group(3).trim();
-        String tLabel = mBr.group(2).trim();
-        String fLabel = mBr.group(3).trim();
-        sb.append("  # ").append(icmpLine.trim()).append(" ; ").append(brLine.trim()).append("\n");
-        loadOperand(f, lhs.substring(lhs.indexOf(' ') + 1).trim(), "$t0", sb);
-        loadOperand(f, rhs.substring(rhs.indexOf(' ') + 1).trim(), "$t1", sb);
-        switch (cond) {
-            case "slt":
-                sb.append("  slt $t2, $t0, $t1\n");
-                sb.append("  beq $t2, $zero, ").append(labelOf(f, fLabel)).append("\n");
-                sb.append("  j ").append(labelOf(f, tLabel)).append("\n");
-                break;
-            case "sgt":
-                sb.append("  slt $t2, $t1, $t0\n");
-                sb.append("  beq $t2, $zero, ").append(labelOf(f, fLabel)).append("\n");
-                sb.append("  j ").append(labelOf(f, tLabel)).append("\n");
+    private void emitIcmpZext(Func f, IrInstruction icmp, IrInstruction zext, StringBuilder sb) {
+        IrRegister dest = zext.getResult();
+        String d = defReg(f, dest, "$t2");
+        emitIcmpInto(f, icmp, d, sb);
+        storeValue(f, dest, d, sb);
+    }
+
+    private void emitIcmpBranch(Func f, IrInstruction icmp, IrInstruction br, StringBuilder sb) {
+        IrValue lhs = icmp.getOperand(0);
+        IrValue rhs = icmp.getOperand(1);
+        IrInstruction.Predicate pred = icmp.getPredicate();
+        if (immOf(rhs) == null && immOf(lhs) != null) {
+            lhs = icmp.getOperand(1);
+            rhs = icmp.getOperand(0);
+            pred = pred.swapped();
+        }
+        String a = useReg(f, lhs, "$t0", sb);
+        String tLabel = labelOf(f, br.getOperand(1).getName());
+        String fLabel = labelOf(f, br.getOperand(2).getName());
+        Integer imm = immOf(rhs);
+        if (imm == null || !emitBranchImm(pred, a, imm, fLabel, sb)) {
+            String b = useReg(f, rhs, "$t1", sb);
+            emitBranchReg(pred, a, b, fLabel, sb);
+        }
+        sb.append("  j ").append(tLabel).append("\n");
+    }
+
+    /** Jumps to fLabel unless (a pred b). */
+    private void emitBranchReg(IrInstruction.Predicate pred, String a, String b, String fLabel, StringBuilder sb) {
+        switch (pred) {
+            case SLT:
+                sb.append("  slt $t2, ").append(a).append(", ").append(b).append("\n");
+                sb.append("  beq $t2, $zero, ").append(fLabel).append("\n");
                 break;
-            case "sle":
-                sb.append("  slt $t2, $t1, $t0\n");
-                sb.append("  bne $t2, $zero, ").append(labelOf(f, tLabel)).append("\n");
-                sb.append("  j ").append(labelOf(f, fLabel)).append("\n");
+            case SGT:
+                sb.append("  slt $t2, ").append(b).append(", ").append(a).append("\n");
+                sb.append("  beq $t2, $zero, ").append(fLabel).append("\n");
                 break;
-            case "sge":
-                sb.append("  slt $t2, $t0, $t1\n");
-                sb.append("  bne $t2, $zero, ").append(labelOf(f, fLabel)).append("\n");
-                sb.append("  j ").append(labelOf(f, tLabel)).append("\n");
+            case SLE:
+                sb.append("  slt $t2, ").append(b).append(", ").append(a).append("\n");
+                sb.append("  bne $t2, $zero, ").append(fLabel).append("\n");
                 break;
-            case "eq":
-                sb.append("  xor $t2, $t0, $t1\n");
-                sb.append("  bne $t2, $zero, ").append(labelOf(f, fLabel)).append("\n");
-                sb.append("  j ").append(labelOf(f, tLabel)).append("\n");
+            case SGE:
+                sb.append("  slt $t2, ").append(a).append(", ").append(b).append("\n");
+                sb.append("  bne $t2, $zero, ").append(fLabel).append("\n");
                 break;
-            case "ne":
-                sb.append("  xor $t2, $t0, $t1\n");
-                sb.append("  beq $t2, $zero, ").append(labelOf(f, fLabel)).append("\n");
-                sb.append("  j ").append(labelOf(f, tLabel)).append("\n");
+            case EQ:
+                sb.append("  bne ").append(a).append(", ").append(b).append(", ").append(fLabel).append("\n");
                 break;
             default:
-                return false;
+                sb.append("  beq ").append(a).append(", ").append(b).append(", ").append(fLabel).append("\n");
+                break;
         }
-        return true;
     }
 
-    private boolean isUsedLater(List<String> body, String dest, String fromLine) {
-        boolean foundFrom = false;
-        String token = "%" + dest.replace("%", "");
-        for (String raw : body) {
-            String line = raw.trim();
-            if (!foundFrom) {
-                if (line.equals(fromLine.trim())) foundFrom = true;
-                continue;
-            }
-            if (line.contains(token)) {
-                return true;
+    /**
+     * Jumps to fLabel unless (a pred imm): sign tests against zero use the compare-with-zero
+     * branches, other ordered compares slti; false for EQ/NE (beq/bne take no immediate) or if imm does not fit.
+     */
+    private boolean emitBranchImm(IrInstruction.Predicate pred, String a, int imm, String fLabel, StringBuilder sb) {
+        if (pred == IrInstruction.Predicate.EQ || pred == IrInstruction.Predicate.NE) return false;
+        if (imm == 0) {
+            String op;
+            switch (pred) {
+                case SLT:
+                    op = "bgez";
+                    break;
+                case SGE:
+                    op = "bltz";
+                    break;
+                case SGT:
+                    op = "blez";
+                    break;
+                default:
+                    op = "bgtz";
+                    break;
             }
+            sb.append("  ").append(op).append(" ").append(a).append(", ").append(fLabel).append("\n");
+            return true;
         }
-        return false;
+        // a < imm for SLT/SGE, a < imm + 1 for SLE/SGT; SGE/SGT take the negation
+        boolean strict = pred == IrInstruction.Predicate.SLT || pred == IrInstruction.Predicate.SGE;
+        long bound = strict ? imm : imm + 1L;
+        if (!fitsSigned16(bound)) return false;
+        sb.append("  slti $t2, ").append(a).append(", ").append(bound).append("\n");
+        boolean negated = pred == IrInstruction.Predicate.SGE || pred == IrInstruction.Predicate.SGT;
+        sb.append(negated ? "  bne" : "  beq").append(" $t2, $zero, ").append(fLabel).append("\n");
+        return true;
     }
 
-    private void emitZext(Func f, String line, StringBuilder sb) {
-        // %d = zext i1 %x to i32
-        String dest = line.substring(0, line.indexOf('=')).trim();
-        Matcher m = Pattern.compile("zext\\s+i\\d+\\s+([^\\s]+)\\s+to").matcher(line);
-        if (!m.find()) return;
-        String op = m.group(1);
-        sb.append("  # ").append(line.trim()).append("\n");
-        loadOperand(f, op, "$t0", sb);
-        f.valWidth.put(dest, 4);
-        storeValue(f, dest, "$t0", sb, 4);
+    private void emitZext(Func f, IrInstruction ins, StringBuilder sb) {
+        IrRegister dest = ins.getResult();
+        String d = defReg(f, dest, "$t0");
+        loadOperand(f, ins.getOperand(0), d, sb);
+        storeValue(f, dest, d, sb);
     }
 
-    private Integer tryParseImm(String tok) {
-        tok = tok.trim();
-        int comma = tok.indexOf(',');
-        if (comma >= 0) tok = tok.substring(0, comma).trim();
-        try {
-            return Integer.parseInt(tok);
-        } catch (NumberFormatException e) {
-            return null;
-        }
+    private Integer immOf(IrValue v) {
+        return v instanceof IrConstInt ? ((IrConstInt) v).getValue() : null;
     }
 
-    private void emitXor(Func f, String line, StringBuilder sb) {
-        // %d = xor i1 %a, true/false/%b
-        String dest = line.substring(0, line.indexOf('=')).trim();
-        Matcher m = Pattern.compile("xor\\s+i\\d+\\s+([^,]+),\\s+(.+)$").matcher(line);
-        if (!m.find()) return;
-        String op1 = m.group(1).trim();
-        String op2 = m.group(2).trim();
-        sb.append("  # ").append(line.trim()).append("\n");
+    private void emitXor(Func f, IrInstruction ins, StringBuilder sb) {
+        IrRegister dest = ins.getResult();
+        IrValue op1 = ins.getOperand(0);
+        IrValue op2 = ins.getOperand(1);
         // prefer immediate form when possible
-        Integer imm = tryParseImm(op2);
+        Integer imm = immOf(op2);
         if (imm == null) {
-            imm = tryParseImm(op1);
+            imm = immOf(op1);
             if (imm != null) {
                 // swap so that op1 is register
-                String tmp = op1;
+                IrValue tmp = op1;
                 op1 = op2;
                 op2 = tmp;
             }
         }
+        String d = defReg(f, dest, "$t2");
+        String a = useReg(f, op1, "$t0", sb);
         if (imm != null && imm >= 0 && imm <= 0xFFFF) {
-            loadOperand(f, op1, "$t0", sb);
-            sb.append("  xori $t2, $t0, ").append(imm).append("\n");
+            sb.append("  xori ").append(d).append(", ").append(a).append(", ").append(imm).append("\n");
         } else {
-            loadOperand(f, op1, "$t0", sb);
-            loadOperand(f, op2, "$t1", sb);
-            sb.append("  xor $t2, $t0, $t1\n");
-        }
-        int w = line.contains("xor i1") ? 1 : 4;
-        f.valWidth.put(dest, w);
-        storeValue(f, dest, "$t2", sb, w);
-    }
-
-    private void emitAndOr(Func f, String line, StringBuilder sb, boolean isAnd) {
-        String dest = line.substring(0, line.indexOf('=')).trim();
-        Matcher m = Pattern.compile("(and|or)\\s+i\\d+\\s+([^,]+),\\s+(.+)$").matcher(line);
-        if (!m.find()) return;
-        String op1 = m.group(2).trim();
-        String op2 = m.group(3).trim();
-        sb.append("  # ").append(line.trim()).append("\n");
-        Integer imm = tryParseImm(op2);
-        boolean swap = false;
-        if (imm == null) {
-            imm = tryParseImm(op1);
+            String b = useReg(f, op2, "$t1", sb);
+            sb.append("  xor ").append(d).append(", ").append(a).append(", ").append(b).append("\n");
+        }
+        storeValue(f, dest, d, sb);
+    }
+
+    private void emitGep(Func f, IrInstruction ins, StringBuilder sb) {
+        IrRegister dest = ins.getResult();
+        String d = defReg(f, dest, "$t0");
+        MemRef m = gepAddress(f, ins, d, sb);
+        if (m.label != null) {
+            sb.append("  la ").append(d).append(", ").append(m.label).append("\n");
+            if (m.offset != 0) sb.append("  addiu ").append(d).append(", ").append(d).append(", ").append(m.offset).append("\n");
+        } else if (m.offset != 0) {
+            sb.append("  addiu ").append(d).append(", ").append(m.base).append(", ").append(m.offset).append("\n");
+        } else if (!m.base.equals(d)) {
+            sb.append("  move ").append(d).append(", ").append(m.base).append("\n");
+        }
+        storeValue(f, dest, d, sb);
+    }
+
+    /**
+     * Address computed by a gep as base + displacement, without materializing it:
+     * getelementptr T, T* base, idx0 [, idx1] = base + idx0 * sizeof(T) + idx1 * sizeof(elem T).
+     * Constant indices go into the displacement, frame arrays are addressed off {@code $fp}
+     * and globals by label; base and variable part are summed into {@code sum}.
+     * Uses {@code $t1-$t3} as scratch besides {@code sum}.
+     */
+    private MemRef gepAddress(Func f, IrInstruction gep, String sum, StringBuilder sb) {
+        IrType t = gep.getType();
+        int constOff = 0;
+        String acc = null; // register holding the variable part of the offset
+        for (int i = 1; i < gep.getOperandCount(); i++) {
+            if (i > 1) t = t.getElementType();
+            int stride = sizeOf(t);
+            IrValue idx = gep.getOperand(i);
+            Integer imm = immOf(idx);
             if (imm != null) {
-                swap = true;
-                String tmp = op1; op1 = op2; op2 = tmp;
+                constOff += imm * stride;
+                continue;
             }
-        }
-        int w = line.contains("and i1") || line.contains("or i1") ? 1 : 4;
-        if (imm != null && imm >= 0 && imm <= 0xFFFF) {
-            loadOperand(f, op1, "$t0", sb);
-            sb.append(isAnd ? "  andi $t2, $t0, " : "  ori $t2, $t0, ").append(imm).append("\n");
-            f.valWidth.put(dest, w);
-            storeValue(f, dest, "$t2", sb, w);
+            String scratch = acc == null ? "$t1" : "$t2";
+            String r = useReg(f, idx, scratch, sb);
+            if (Integer.bitCount(stride) == 1 && stride != 1) {
+                sb.append("  sll ").append(scratch).append(", ").append(r).append(", ")
+                        .append(Integer.numberOfTrailingZeros(stride)).append("\n");
+            } else if (stride != 1) {
+                sb.append("  li $t3, ").append(stride).append("\n");
+                sb.append("  mul ").append(scratch).append(", ").append(r).append(", $t3\n");
+            } else if (!r.equals(scratch)) {
+                sb.append("  move ").append(scratch).append(", ").append(r).append("\n");
+            }
+            if (acc != null) sb.append("  addu $t1, $t1, $t2\n");
+            acc = "$t1";
+        }
+        IrValue base = gep.getOperand(0);
+        String reg = f.regOf.get(base);
+        Integer allocaOff = f.allocaOffset.get(base);
+        if (reg == null && allocaOff != null) {
+            reg = "$fp";
+            constOff -= allocaOff;
+        } else if (reg == null && base instanceof IrGlobalRef && acc == null && constOff >= 0) {
+            return new MemRef(base.getName().substring(1), null, constOff);
+        } else if (reg == null) {
+            reg = useAddr(f, base, "$t2", sb);
+        }
+        if (acc != null) {
+            sb.append("  addu ").append(sum).append(", ").append(reg).append(", $t1\n");
+            reg = sum;
+        }
+        if (!fitsSigned16(constOff)) {
+            loadImmediate("$t3", constOff, sb);
+            sb.append("  addu ").append(sum).append(", ").append(reg).append(", $t3\n");
+            reg = sum;
+            constOff = 0;
+        }
+        return new MemRef(null, reg, constOff);
+    }
+
+    private void emitBr(Func f, IrInstruction ins, StringBuilder sb) {
+        if (ins.getOperandCount() == 1) {
+            sb.append("  j ").append(labelOf(f, ins.getOperand(0).getName())).append("\n");
             return;
         }
-        loadOperand(f, op1, "$t0", sb);
-        loadOperand(f, op2, "$t1", sb);
-        sb.append(isAnd ? "  and $t2, $t0, $t1\n" : "  or $t2, $t0, $t1\n");
-        f.valWidth.put(dest, w);
-        storeValue(f, dest, "$t2", sb, w);
-    }
-
-    private void emitGep(Func f, String line, StringBuilder sb) {
-        // %d = getelementptr inbounds [N x i32], [N x i32]* %ptr, i32 idx0, i32 idx1
-        String dest = line.substring(0, line.indexOf('=')).trim();
-        String rest = line.substring(line.indexOf("getelementptr") + "getelementptr".length()).trim();
-        rest = rest.replaceFirst("^inbounds\\s+", "");
-        String[] parts = rest.split(",\\s*");
-        if (parts.length < 2) return;
-        String typePart = parts[0].trim();
-        String ptrPart = parts[1].trim();
-        String ptrOp = ptrPart.substring(ptrPart.indexOf('*') + 1).trim();
-
-        int elemSize = typePart.contains("i8") ? 1 : 4;
-        int arrLen = 1;
-        Matcher lenM = Pattern.compile("\\[(\\d+)\\s+x").matcher(typePart);
-        if (lenM.find()) arrLen = Integer.parseInt(lenM.group(1));
-
-        // indices
-        List<String> idxOps = new ArrayList<>();
-        for (int i = 2; i < parts.length; i++) {
-            String idxPart = parts[i];
-            idxPart = idxPart.substring(idxPart.indexOf(' ') + 1).trim();
-            idxOps.add(idxPart);
+        IrValue cond = ins.getOperand(0);
+        String tLabel = labelOf(f, ins.getOperand(1).getName());
+        String fLabel = labelOf(f, ins.getOperand(2).getName());
+        Integer imm = immOf(cond);
+        if (imm != null) {
+            sb.append("  j ").append(imm != 0 ? tLabel : fLabel).append("\n");
+            return;
         }
-
-        sb.append("  # ").append(line.trim()).append("\n");
-        loadAddress(f, ptrOp, "$t0", sb); // base
-
-        if (idxOps.isEmpty()) {
-            // nothing
-        } else if (idxOps.size() == 1) {
-            String idx = idxOps.get(0);
-            loadOperand(f, idx, "$t1", sb);
-            if (elemSize == 4) sb.append("  sll $t1, $t1, 2\n");
-            sb.append("  addu $t0, $t0, $t1\n");
-        } else {
-            // two indices
-            String idx0 = idxOps.get(0);
-            String idx1 = idxOps.get(1);
-            loadOperand(f, idx0, "$t1", sb);
-            loadOperand(f, idx1, "$t2", sb);
-            int stride0 = arrLen * elemSize;
-            if (stride0 == 4) {
-                sb.append("  sll $t1, $t1, 2\n");
-            } else if (stride0 != 0) {
-                sb.append("  li $t3, ").append(stride0).append("\n");
-                sb.append("  mul $t1, $t1, $t3\n");
+        String c = useReg(f, cond, "$t0", sb);
+        sb.append("  beq ").append(c).append(", $zero, ").append(fLabel).append("\n");
+        sb.append("  j ").append(tLabel).append("\n");
+    }
+
+    /** Parallel copies into the successor's phis, sequentialized with $t1 as the cycle breaker. */
+    private void emitPhiCopies(Func f, String label, StringBuilder sb) {
+        List<OutOfSsa.Copy> copies = f.phiCopies.get(label);
+        if (copies == null) return;
+        // sequentialize works on location names: an allocated register, or the value's own name
+        Map<String, IrValue> valueAt = new HashMap<>();
+        List<OutOfSsa.Move> located = new ArrayList<>();
+        for (OutOfSsa.Copy c : copies) {
+            located.add(new OutOfSsa.Move(locationOf(f, c.phi, valueAt), locationOf(f, c.value, valueAt)));
+        }
+        for (OutOfSsa.Move m : OutOfSsa.sequentialize(located, "$t1")) {
+            String src = m.src;
+            if (!src.startsWith("$")) {
+                if (m.dst.startsWith("$")) {
+                    loadOperand(f, valueAt.get(src), m.dst, sb);
+                    continue;
+                }
+                loadOperand(f, valueAt.get(src), "$t0", sb);
+                src = "$t0";
+            }
+            if (m.dst.startsWith("$")) {
+                if (!m.dst.equals(src)) sb.append("  move ").append(m.dst).append(", ").append(src).append("\n");
+            } else {
+                storeValue(f, (IrRegister) valueAt.get(m.dst), src, sb);
             }
-            if (elemSize == 4) sb.append("  sll $t2, $t2, 2\n");
-            sb.append("  addu $t1, $t1, $t2\n");
-            sb.append("  addu $t0, $t0, $t1\n");
         }
-        storeValue(f, dest, "$t0", sb);
     }
 
-    private void emitBr(Func f, String line, StringBuilder sb) {
-        if (line.startsWith("br label")) {
-            String target = line.substring(line.indexOf('%') + 1).trim();
-            sb.append("  j ").append(labelOf(f, target)).append("\n");
-        } else {
-            Matcher m = Pattern.compile("br\\s+i1\\s+([^,]+),\\s+label\\s+%([^,]+),\\s+label\\s+%(.+)$").matcher(line);
-            if (!m.find()) return;
-            String cond = m.group(1).trim();
-            String tLabel = m.group(2).trim();
-            String fLabel = m.group(3).trim();
-            sb.append("  # ").append(line.trim()).append("\n");
-            Integer imm = tryParseImm(cond);
-            if (imm != null) {
-                String target = imm != 0 ? tLabel : fLabel;
-                sb.append("  j ").append(labelOf(f, target)).append("\n");
-                return;
-            }
-            if ("true".equals(cond) || "false".equals(cond)) {
-                String target = "true".equals(cond) ? tLabel : fLabel;
-                sb.append("  j ").append(labelOf(f, target)).append("\n");
-                return;
-            }
-            loadOperand(f, cond, "$t0", sb);
-            sb.append("  beq $t0, $zero, ").append(labelOf(f, fLabel)).append("\n");
-            sb.append("  j ").append(labelOf(f, tLabel)).append("\n");
-        }
+    private String locationOf(Func f, IrValue v, Map<String, IrValue> valueAt) {
+        String reg = f.regOf.get(v);
+        if (reg != null) return reg;
+        valueAt.put(v.getName(), v);
+        return v.getName();
     }
 
-    private void emitRet(Func f, String line, StringBuilder sb, String exitLabel) {
-        if (line.startsWith("ret void")) {
-            sb.append("  j ").append(exitLabel).append("\n");
-        } else {
-            String val = line.substring(line.indexOf(' ') + 1).trim();
-            val = val.substring(val.indexOf(' ') + 1).trim();
-            loadOperand(f, val, "$v0", sb);
-            sb.append("  j ").append(exitLabel).append("\n");
-        }
+    private void emitRet(Func f, IrInstruction ins, StringBuilder sb, String exitLabel) {
+        if (ins.getOperandCount() > 0) loadOperand(f, ins.getOperand(0), "$v0", sb);
+        sb.append("  j ").append(exitLabel).append("\n");
     }
 
-    private void emitCall(Func f, String line, StringBuilder sb) {
-        // with or without dest
-        String dest = null;
-        String callPart = line;
-        if (line.contains("=")) {
-            dest = line.substring(0, line.indexOf('=')).trim();
-            callPart = line.substring(line.indexOf("call"));
-        }
-        Matcher m = Pattern.compile("call\\s+(\\w+)\\s+@([\\w$\\.]+)\\((.*)\\)").matcher(callPart);
-        if (!m.find()) return;
-        String retType = m.group(1);
-        String funcName = m.group(2);
-        String argsStr = m.group(3).trim();
-        List<String> args = new ArrayList<>();
-        if (!argsStr.isEmpty()) {
-            String[] seg = argsStr.split(",");
-            for (String s : seg) {
-                String op = s.trim();
-                op = op.substring(op.indexOf(' ') + 1).trim();
-                args.add(op);
-            }
-        }
-        sb.append("  # ").append(line.trim()).append("\n");
-        int extra = Math.max(0, args.size() - 4);
-        if (extra > 0) {
-            for (int i = args.size() - 1; i >= 4; i--) {
-                loadOperand(f, args.get(i), "$t0", sb);
-                sb.append("  addiu $sp, $sp, -4\n");
-                sb.append("  sw $t0, 0($sp)\n");
-            }
+    private void emitCall(Func f, IrInstruction ins, StringBuilder sb) {
+        int argc = ins.getOperandCount();
+        int extra = Math.max(0, argc - 4);
+        for (int i = argc - 1; i >= 4; i--) {
+            loadOperand(f, ins.getOperand(i), "$t0", sb);
+            sb.append("  addiu $sp, $sp, -4\n");
+            sb.append("  sw $t0, 0($sp)\n");
         }
-        for (int i = 0; i < args.size() && i < 4; i++) {
-            loadOperand(f, args.get(i), "$a" + i, sb);
+        for (int i = 0; i < argc && i < 4; i++) {
+            loadOperand(f, ins.getOperand(i), "$a" + i, sb);
         }
 
-        switch (funcName) {
+        String callee = ins.getCallee();
+        switch (callee) {
             case "getint":
                 sb.append("  li $v0, 5\n  syscall\n");
                 break;
@@ -984,77 +825,148 @@ public class LlvmToMipsGenerator {
                 sb.append("  li $v0, 4\n  syscall\n");
                 break;
             default:
-                sb.append("  jal ").append(funcName).append("\n");
+                sb.append("  jal ").append(callee).append("\n");
         }
         if (extra > 0) {
             sb.append("  addiu $sp, $sp, ").append(extra * 4).append("\n");
         }
-        if (dest != null && !"void".equals(retType)) {
-            int w = typeWidth(retType);
-            f.valWidth.put(dest, w);
-            storeValue(f, dest, "$v0", sb, w);
+        if (ins.getResult() != null) {
+            storeValue(f, ins.getResult(), "$v0", sb);
         }
     }
 
     /* ------------ helpers ------------ */
-    private void loadOperand(Func f, String op, String reg, StringBuilder sb) {
-        op = op.trim();
-        int comma = op.indexOf(',');
-        if (comma >= 0) op = op.substring(0, comma).trim();
-        if (op.startsWith("%")) {
-            Integer off = f.valOffset.get(op);
-            if (off == null) off = f.allocaOffset.get(op);
-            if (off == null) throw new RuntimeException("unknown operand " + op);
-            int w = f.valWidth.getOrDefault(op, 4);
-            if (w == 1) {
-                sb.append("  lbu ").append(reg).append(", -").append(off).append("($fp)\n");
-            } else {
-                sb.append("  lw ").append(reg).append(", -").append(off).append("($fp)\n");
-            }
-        } else if (op.startsWith("@")) {
-            sb.append("  la ").append(reg).append(", ").append(op.substring(1)).append("\n");
-        } else if (op.equals("true")) {
-            sb.append("  li ").append(reg).append(", 1\n");
-        } else if (op.equals("false")) {
-            sb.append("  li ").append(reg).append(", 0\n");
+    /** Register holding operand {@code v}: its allocated register, or {@code scratch} after loading it. */
+    private String useReg(Func f, IrValue v, String scratch, StringBuilder sb) {
+        String reg = f.regOf.get(v);
+        if (reg != null) return reg;
+        if (v instanceof IrConstInt && ((IrConstInt) v).getValue() == 0) return "$zero";
+        loadOperand(f, v, scratch, sb);
+        return scratch;
+    }
+
+    private String useAddr(Func f, IrValue v, String scratch, StringBuilder sb) {
+        String reg = f.regOf.get(v);
+        if (reg != null) return reg;
+        loadAddress(f, v, scratch, sb);
+        return scratch;
+    }
+
+    /**
+     * Memory operand addressing {@code ptr}: a folded {@code gep} as base + displacement,
+     * frame slots off {@code $fp} and globals by label, anything else as {@code 0(reg)}.
+     */
+    private String memOperand(Func f, IrValue ptr, IrInstruction gep, String scratch, StringBuilder sb) {
+        if (gep != null) return gepAddress(f, gep, "$t1", sb).operand();
+        if (!f.regOf.containsKey(ptr)) {
+            Integer allocaOff = f.allocaOffset.get(ptr);
+            if (allocaOff != null && fitsSigned16(-(long) allocaOff)) return "-" + allocaOff + "($fp)";
+            if (ptr instanceof IrGlobalRef) return ptr.getName().substring(1);
+        }
+        return "0(" + useAddr(f, ptr, scratch, sb) + ")";
+    }
+
+    /** Register an instruction should write {@code dest} into; spilled values go through {@code scratch}. */
+    private String defReg(Func f, IrRegister dest, String scratch) {
+        return f.regOf.getOrDefault(dest, scratch);
+    }
+
+    private void loadOperand(Func f, IrValue v, String reg, StringBuilder sb) {
+        String allocated = f.regOf.get(v);
+        if (allocated != null) {
+            if (!allocated.equals(reg)) sb.append("  move ").append(reg).append(", ").append(allocated).append("\n");
+        } else if (v instanceof IrConstInt) {
+            loadImmediate(reg, ((IrConstInt) v).getValue(), sb);
+        } else if (v instanceof IrGlobalRef || f.allocaOffset.containsKey(v)) {
+            loadAddress(f, v, reg, sb);
         } else {
-            sb.append("  li ").append(reg).append(", ").append(Integer.parseInt(op)).append("\n");
+            Integer off = f.valOffset.get(v);
+            if (off == null) throw new RuntimeException("unknown operand " + v.getName());
+            String op = widthOf(v) == 1 ? "  lbu " : "  lw ";
+            sb.append(op).append(reg).append(", -").append(off).append("($fp)\n");
+        }
+    }
+
+    private void loadAddress(Func f, IrValue v, String reg, StringBuilder sb) {
+        String allocated = f.regOf.get(v);
+        Integer allocaOff = f.allocaOffset.get(v);
+        if (allocated != null) {
+            if (!allocated.equals(reg)) sb.append("  move ").append(reg).append(", ").append(allocated).append("\n");
+        } else if (allocaOff != null) {
+            sb.append("  addiu ").append(reg).append(", $fp, -").append(allocaOff).append("\n");
+        } else if (v instanceof IrGlobalRef) {
+            sb.append("  la ").append(reg).append(", ").append(v.getName().substring(1)).append("\n");
+        } else if (v instanceof IrConstInt) {
+            // immediate address
+            sb.append("  li ").append(reg).append(", ").append(((IrConstInt) v).getValue()).append("\n");
+        } else {
+            Integer off = f.valOffset.get(v);
+            if (off == null) throw new RuntimeException("unknown ptr " + v.getName());
+            sb.append("  lw ").append(reg).append(", -").append(off).append("($fp)\n");
         }
     }
 
-    private void loadAddress(Func f, String op, String reg, StringBuilder sb) {
-        op = op.trim();
-        int comma = op.indexOf(',');
-        if (comma >= 0) op = op.substring(0, comma).trim();
-        if (op.startsWith("%") && f.allocaOffset.containsKey(op)) {
-            int off = f.allocaOffset.get(op);
-            sb.append("  addiu ").append(reg).append(", $fp, -").append(off).append("\n");
-        } else if (op.startsWith("%")) {
-            Integer off = f.valOffset.get(op);
-            if (off == null) off = f.allocaOffset.get(op);
-            if (off == null) throw new RuntimeException("unknown ptr " + op);
-            sb.append("  lw ").append(reg).append(", -").append(off).append("($fp)\n");
-        } else if (op.startsWith("@")) {
-            sb.append("  la ").append(reg).append(", ").append(op.substring(1)).append("\n");
+    /**
+     * Constants are never kept in registers; each use rematerializes them. Values with a zero
+     * low half take a single lui, the rest li (one instruction when they fit 16 bits).
+     */
+    private void loadImmediate(String reg, int value, StringBuilder sb) {
+        if (value != 0 && (value & 0xFFFF) == 0) {
+            sb.append("  lui ").append(reg).append(", ").append(value >>> 16).append("\n");
         } else {
-            // immediate address
-            sb.append("  li ").append(reg).append(", ").append(op).append("\n");
+            sb.append("  li ").append(reg).append(", ").append(value).append("\n");
+        }
+    }
+
+    /**
+     * Machine instructions in emitted code, counting the pseudo-instructions the assembler
+     * expands to two: la, loads/stores addressed by label, and li of a value beyond 16 bits.
+     */
+    private static int instructionCount(StringBuilder sb) {
+        int n = 0;
+        for (String line : sb.toString().split("\n")) {
+            String[] parts = line.trim().split("[ ,]+");
+            if (parts[0].isEmpty()) continue;
+            n++;
+            switch (parts[0]) {
+                case "la":
+                    n++;
+                    break;
+                case "li":
+                    long v = Long.parseLong(parts[2]);
+                    if (!fitsSigned16(v) && !fitsUnsigned16(v)) n++;
+                    break;
+                case "lw":
+                case "sw":
+                case "lbu":
+                case "sb":
+                    if (!parts[2].contains("(")) n++;
+                    break;
+                default:
+                    break;
+            }
         }
+        return n;
     }
 
-    private void storeValue(Func f, String name, String reg, StringBuilder sb) {
-        storeValue(f, name, reg, sb, f.valWidth.getOrDefault(name, 4));
+    private static boolean fitsSigned16(long v) {
+        return v >= -32768 && v <= 32767;
     }
 
-    private void storeValue(Func f, String name, String reg, StringBuilder sb, int width) {
-        Integer off = f.valOffset.get(name);
-        if (off == null) off = f.allocaOffset.get(name);
-        if (off == null) throw new RuntimeException("unknown dest " + name);
-        if (width == 1) {
-            sb.append("  sb ").append(reg).append(", -").append(off).append("($fp)\n");
-        } else {
-            sb.append("  sw ").append(reg).append(", -").append(off).append("($fp)\n");
+    private static boolean fitsUnsigned16(long v) {
+        return v >= 0 && v <= 0xFFFF;
+    }
+
+    private void storeValue(Func f, IrRegister dest, String reg, StringBuilder sb) {
+        String allocated = f.regOf.get(dest);
+        if (allocated != null) {
+            if (!allocated.equals(reg)) sb.append("  move ").append(allocated).append(", ").append(reg).append("\n");
+            return;
         }
+        Integer off = f.valOffset.get(dest);
+        if (off == null) throw new RuntimeException("unknown dest " + dest.getName());
+        String op = widthOf(dest) == 1 ? "  sb " : "  sw ";
+        sb.append(op).append(reg).append(", -").append(off).append("($fp)\n");
     }
 
     private String labelOf(Func f, String lbl) {
@@ -0,0 +1,154 @@
+package backend;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrFunction;
+import backend.ir.IrInstruction;
+import backend.ir.IrLabel;
+import backend.ir.IrRegister;
+import backend.ir.IrValue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Out-of-SSA support for the MIPS backend.
+ * Phis stay in the IR through register allocation (both allocators understand phi
+ * liveness); this class splits the critical edges into phi blocks so every phi edge
+ * ends in an unconditional jump, collects the per-edge parallel copies, and
+ * sequentializes them (Boissinot et al.) once operands are mapped to locations.
+ */
+public class OutOfSsa {
+    /** A copy {@code dst <- src}; both are locations (registers, slots or constants). */
+    public static final class Move {
+        public final String dst;
+        public final String src;
+
+        public Move(String dst, String src) {
+            this.dst = dst;
+            this.src = src;
+        }
+    }
+
+    /** A phi copy on one incoming edge: {@code phi <- value}. */
+    public static final class Copy {
+        public final IrRegister phi;
+        public final IrValue value;
+
+        Copy(IrRegister phi, IrValue value) {
+            this.phi = phi;
+            this.value = value;
+        }
+    }
+
+    private int splitId;
+
+    /**
+     * Gives every edge that leaves a conditional branch and enters a block with phis its
+     * own block, so the copies of that edge do not run on the other path.
+     */
+    public void splitCriticalEdges(IrFunction fn) {
+        List<IrBasicBlock> blocks = fn.getBlocks();
+        for (int i = 0; i < blocks.size(); i++) {
+            IrBasicBlock pred = blocks.get(i);
+            IrInstruction term = pred.getLast();
+            if (term == null || term.getOpcode() != IrInstruction.Opcode.BR || term.getOperandCount() != 3) continue;
+            Map<String, String> retarget = new LinkedHashMap<>();
+            for (int k = 1; k < 3; k++) {
+                String target = term.getOperand(k).getName();
+                IrBasicBlock succ = fn.getBlock(target);
+                if (succ == null || !hasPhi(succ) || retarget.containsKey(target)) continue;
+                IrBasicBlock mid = new IrBasicBlock("split_" + (splitId++));
+                mid.addInstruction(IrInstruction.br(fn.getOrCreateLabel(target)));
+                fn.addBlock(mid);
+                blocks.remove(blocks.size() - 1);
+                blocks.add(i + 1, mid);
+                retargetPhis(fn, succ, pred.getLabel(), mid.getLabel());
+                retarget.put(target, mid.getLabel());
+            }
+            for (int k = 1; k < 3; k++) {
+                String mid = retarget.get(term.getOperand(k).getName());
+                if (mid != null) term.replaceOperand(k, fn.getOrCreateLabel(mid));
+            }
+        }
+    }
+
+    /** Parallel copies keyed by predecessor label. */
+    public Map<String, List<Copy>> collectCopies(IrFunction fn) {
+        Map<String, List<Copy>> copies = new HashMap<>();
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            for (IrInstruction phi : bb.getInstructions()) {
+                if (phi.getOpcode() != IrInstruction.Opcode.PHI) break;
+                for (int k = 0; k + 1 < phi.getOperandCount(); k += 2) {
+                    String pred = phi.getOperand(k + 1).getName();
+                    copies.computeIfAbsent(pred, x -> new ArrayList<>())
+                            .add(new Copy(phi.getResult(), phi.getOperand(k)));
+                }
+            }
+        }
+        return copies;
+    }
+
+    /**
+     * Orders a parallel copy into sequential moves with the minimal number of moves:
+     * copies into an unused destination go first, and each remaining cycle is broken
+     * with one move through {@code tmp}. Self copies are dropped.
+     */
+    public static List<Move> sequentialize(List<Move> parallel, String tmp) {
+        List<Move> out = new ArrayList<>();
+        Map<String, String> pred = new LinkedHashMap<>();
+        Map<String, String> loc = new HashMap<>();
+        Set<String> done = new HashSet<>();
+        Deque<String> ready = new ArrayDeque<>();
+        Deque<String> todo = new ArrayDeque<>();
+        for (Move m : parallel) {
+            if (m.dst.equals(m.src) || pred.containsKey(m.dst)) continue;
+            loc.put(m.src, m.src);
+            pred.put(m.dst, m.src);
+            todo.push(m.dst);
+        }
+        for (String dst : pred.keySet()) {
+            if (!loc.containsKey(dst)) ready.push(dst);
+        }
+        while (!todo.isEmpty()) {
+            while (!ready.isEmpty()) {
+                String b = ready.pop();
+                String a = pred.get(b);
+                String c = loc.get(a);
+                out.add(new Move(b, c));
+                done.add(b);
+                loc.put(a, b);
+                if (a.equals(c) && pred.containsKey(a)) ready.push(a);
+            }
+            String b = todo.pop();
+            if (!done.contains(b)) {
+                // every pending destination is still read by another copy: a cycle
+                out.add(new Move(tmp, b));
+                loc.put(b, tmp);
+                ready.push(b);
+            }
+        }
+        return out;
+    }
+
+    private static boolean hasPhi(IrBasicBlock bb) {
+        IrInstruction first = bb.getFirst();
+        return first != null && first.getOpcode() == IrInstruction.Opcode.PHI;
+    }
+
+    private static void retargetPhis(IrFunction fn, IrBasicBlock bb, String oldPred, String newPred) {
+        IrLabel label = fn.getOrCreateLabel(newPred);
+        for (IrInstruction phi : bb.getInstructions()) {
+            if (phi.getOpcode() != IrInstruction.Opcode.PHI) break;
+            for (int k = 1; k < phi.getOperandCount(); k += 2) {
+                if (oldPred.equals(phi.getOperand(k).getName())) phi.replaceOperand(k, label);
+            }
+        }
+    }
+}
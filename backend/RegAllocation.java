@@ -0,0 +1,39 @@
+package backend;
+
+import backend.ir.IrValue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Result of register allocation for one function: physical register per SSA value.
+ * Values without an entry are spilled and keep their stack slot.
+ */
+public class RegAllocation {
+    private final Map<IrValue, String> regs = new HashMap<>();
+    private final Set<String> usedCalleeSaved = new TreeSet<>();
+
+    public void assign(IrValue v, String reg) {
+        regs.put(v, reg);
+        if (reg.startsWith("$s")) usedCalleeSaved.add(reg);
+    }
+
+    public void unassign(IrValue v) {
+        regs.remove(v);
+    }
+
+    public String getReg(IrValue v) {
+        return regs.get(v);
+    }
+
+    public Map<IrValue, String> getAssignments() {
+        return Collections.unmodifiableMap(regs);
+    }
+
+    public Set<String> getUsedCalleeSaved() {
+        return Collections.unmodifiableSet(usedCalleeSaved);
+    }
+}
@@ -1,11 +1,22 @@
 package backend.ir;
 
+import java.util.AbstractSequentialList;
 import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
 
+/**
+ * A basic block whose instructions form an intrusive doubly-linked list threaded through
+ * {@link IrInstruction}. Inserting, erasing and moving an instruction are O(1); an
+ * instruction belongs to at most one block, and adding it elsewhere moves it.
+ */
 public class IrBasicBlock {
     private final String label;
-    private final List<IrInstruction> instructions = new ArrayList<>();
+    private IrInstruction head;
+    private IrInstruction tail;
+    private int size;
     private final List<IrBasicBlock> preds = new ArrayList<>();
     private final List<IrBasicBlock> succs = new ArrayList<>();
 
@@ -17,15 +28,212 @@ public class IrBasicBlock {
         return label;
     }
 
+    /* ---------- instruction list ---------- */
     public void addInstruction(IrInstruction insn) {
-        instructions.add(insn);
-        insn.setParent(this);
+        unlinkFromParent(insn);
+        linkBefore(insn, null);
+    }
+
+    public void prepend(IrInstruction insn) {
+        unlinkFromParent(insn);
+        linkBefore(insn, head);
+    }
+
+    /** Inserts {@code insn} right before {@code pos}, which must be in this block. */
+    public void insertBefore(IrInstruction pos, IrInstruction insn) {
+        checkOwned(pos);
+        if (insn == pos) return;
+        unlinkFromParent(insn);
+        linkBefore(insn, pos);
+    }
+
+    /** Inserts {@code insn} right after {@code pos}, which must be in this block. */
+    public void insertAfter(IrInstruction pos, IrInstruction insn) {
+        checkOwned(pos);
+        if (insn == pos) return;
+        unlinkFromParent(insn);
+        linkBefore(insn, pos.next);
+    }
+
+    /** Unlinks {@code insn} from this block; its operands keep their uses. */
+    public void remove(IrInstruction insn) {
+        checkOwned(insn);
+        if (insn.prev != null) insn.prev.next = insn.next;
+        else head = insn.next;
+        if (insn.next != null) insn.next.prev = insn.prev;
+        else tail = insn.prev;
+        insn.prev = null;
+        insn.next = null;
+        insn.setParent(null);
+        size--;
+    }
+
+    /** Puts {@code repl} where {@code old} was and erases {@code old}. */
+    public void replace(IrInstruction old, IrInstruction repl) {
+        insertBefore(old, repl);
+        old.eraseFromParent();
+    }
+
+    public IrInstruction getFirst() {
+        return head;
+    }
+
+    public IrInstruction getLast() {
+        return tail;
+    }
+
+    /** The closing br/ret, or null if the block is not terminated yet. */
+    public IrInstruction getTerminator() {
+        if (tail == null) return null;
+        IrInstruction.Opcode op = tail.getOpcode();
+        return op == IrInstruction.Opcode.BR || op == IrInstruction.Opcode.RET ? tail : null;
+    }
+
+    /** First instruction that is not a phi, or null. */
+    public IrInstruction getFirstNonPhi() {
+        IrInstruction ins = head;
+        while (ins != null && ins.getOpcode() == IrInstruction.Opcode.PHI) ins = ins.next;
+        return ins;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
     }
 
+    /**
+     * Live list view of the instructions. Its iterators fetch the next node before handing
+     * out the current one, so erasing the instruction just returned (through the iterator
+     * or {@link IrInstruction#eraseFromParent()}) is safe. Positional access walks from the
+     * nearer end; prefer {@link #getFirst()}/{@link IrInstruction#getNext()} in loops.
+     */
     public List<IrInstruction> getInstructions() {
-        return instructions;
+        return view;
+    }
+
+    private static void unlinkFromParent(IrInstruction insn) {
+        if (insn.getParent() != null) insn.getParent().remove(insn);
+    }
+
+    /** Links a free instruction in front of {@code after}, or at the end if it is null. */
+    private void linkBefore(IrInstruction insn, IrInstruction after) {
+        IrInstruction before = after == null ? tail : after.prev;
+        insn.prev = before;
+        insn.next = after;
+        if (before != null) before.next = insn;
+        else head = insn;
+        if (after != null) after.prev = insn;
+        else tail = insn;
+        insn.setParent(this);
+        size++;
+    }
+
+    private void checkOwned(IrInstruction insn) {
+        if (insn.getParent() != this) {
+            throw new IllegalArgumentException("instruction is not in block " + label);
+        }
+    }
+
+    private final List<IrInstruction> view = new AbstractSequentialList<IrInstruction>() {
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public ListIterator<IrInstruction> listIterator(int index) {
+            if (index < 0 || index > size) throw new IndexOutOfBoundsException("index " + index);
+            return new Itr(index);
+        }
+    };
+
+    private final class Itr implements ListIterator<IrInstruction> {
+        private IrInstruction nextNode;
+        private IrInstruction lastReturned;
+        private int nextIndex;
+
+        Itr(int index) {
+            if (index <= size / 2) {
+                nextNode = head;
+                for (int i = 0; i < index; i++) nextNode = nextNode.next;
+            } else {
+                nextNode = null;
+                for (int i = size; i > index; i--) nextNode = nextNode == null ? tail : nextNode.prev;
+            }
+            nextIndex = index;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextNode != null;
+        }
+
+        @Override
+        public IrInstruction next() {
+            if (nextNode == null) throw new NoSuchElementException();
+            if (nextNode.getParent() != IrBasicBlock.this) throw new ConcurrentModificationException();
+            lastReturned = nextNode;
+            nextNode = nextNode.next;
+            nextIndex++;
+            return lastReturned;
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return nextNode == null ? tail != null : nextNode.prev != null;
+        }
+
+        @Override
+        public IrInstruction previous() {
+            IrInstruction p = nextNode == null ? tail : nextNode.prev;
+            if (p == null) throw new NoSuchElementException();
+            lastReturned = p;
+            nextNode = p;
+            nextIndex--;
+            return p;
+        }
+
+        @Override
+        public int nextIndex() {
+            return nextIndex;
+        }
+
+        @Override
+        public int previousIndex() {
+            return nextIndex - 1;
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == null) throw new IllegalStateException();
+            if (lastReturned == nextNode) nextNode = lastReturned.next;
+            else nextIndex--;
+            if (lastReturned.getParent() == IrBasicBlock.this) IrBasicBlock.this.remove(lastReturned);
+            lastReturned = null;
+        }
+
+        @Override
+        public void set(IrInstruction insn) {
+            if (lastReturned == null) throw new IllegalStateException();
+            insertBefore(lastReturned, insn);
+            IrBasicBlock.this.remove(lastReturned);
+            if (nextNode == lastReturned) nextNode = insn;
+            lastReturned = insn;
+        }
+
+        @Override
+        public void add(IrInstruction insn) {
+            if (nextNode == null) addInstruction(insn);
+            else insertBefore(nextNode, insn);
+            nextIndex++;
+            lastReturned = null;
+        }
     }
 
+    /* ---------- CFG edges ---------- */
     public List<IrBasicBlock> getPreds() {
         return preds;
     }
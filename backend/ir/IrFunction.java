@@ -7,23 +7,40 @@ import java.util.Map;
 
 public class IrFunction {
     private final String name;
-    private final String header;
+    private final IrType returnType;
+    private final List<IrRegister> params;
     private final List<IrBasicBlock> blocks = new ArrayList<>();
     private final Map<String, IrValue> valueMap = new HashMap<>();
     private final Map<String, IrLabel> labelMap = new HashMap<>();
     private final Map<String, IrBasicBlock> blockMap = new HashMap<>();
 
-    public IrFunction(String name, String header) {
+    public IrFunction(String name, IrType returnType, List<IrRegister> params) {
         this.name = name;
-        this.header = header;
+        this.returnType = returnType;
+        this.params = new ArrayList<>(params);
+        for (IrRegister p : params) putValue(p);
     }
 
     public String getName() {
         return name;
     }
 
+    public IrType getReturnType() {
+        return returnType;
+    }
+
+    public List<IrRegister> getParams() {
+        return params;
+    }
+
     public String getHeader() {
-        return header;
+        StringBuilder sb = new StringBuilder("define dso_local ");
+        sb.append(returnType.getDesc()).append(" @").append(name).append('(');
+        for (int i = 0; i < params.size(); i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(params.get(i).getType().getDesc()).append(' ').append(params.get(i).getName());
+        }
+        return sb.append(") {").toString();
     }
 
     public void addBlock(IrBasicBlock block) {
@@ -54,11 +71,11 @@ public class IrFunction {
 
     public String emit() {
         StringBuilder sb = new StringBuilder();
-        sb.append(header).append("\n");
+        sb.append(getHeader()).append("\n");
         for (IrBasicBlock block : blocks) {
             sb.append(block.getLabel()).append(":\n");
             for (IrInstruction ins : block.getInstructions()) {
-                sb.append(ins.getText()).append("\n");
+                sb.append(IrPrinter.print(ins)).append("\n");
             }
         }
         sb.append("}\n\n");
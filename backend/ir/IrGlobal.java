@@ -0,0 +1,75 @@
+package backend.ir;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A module-level definition: an i32 scalar or array with word initializers, or a
+ * NUL-terminated string constant.
+ */
+public class IrGlobal {
+    private final String name;
+    private final IrType type;
+    private final boolean constant;
+    private final List<Integer> init;
+    private final String content;
+
+    private IrGlobal(String name, IrType type, boolean constant, List<Integer> init, String content) {
+        this.name = name;
+        this.type = type;
+        this.constant = constant;
+        this.init = init;
+        this.content = content;
+    }
+
+    public static IrGlobal variable(String name, IrType type, List<Integer> init, boolean constant) {
+        return new IrGlobal(name, type, constant, init, null);
+    }
+
+    public static IrGlobal string(String name, String content) {
+        int len = content.getBytes(StandardCharsets.UTF_8).length + 1;
+        return new IrGlobal(name, IrType.arrayOf(len, IrType.I8), true, Collections.emptyList(), content);
+    }
+
+    /** Symbol name without the leading {@code @}. */
+    public String getName() {
+        return name;
+    }
+
+    public IrType getType() {
+        return type;
+    }
+
+    public boolean isConstant() {
+        return constant;
+    }
+
+    public boolean isString() {
+        return content != null;
+    }
+
+    /** Word initializers, one per element (a single one for scalars). */
+    public List<Integer> getInit() {
+        return init;
+    }
+
+    /** True for variables whose every word initializer is zero. */
+    public boolean isZeroInitialized() {
+        if (content != null) return false;
+        for (int v : init) {
+            if (v != 0) return false;
+        }
+        return true;
+    }
+
+    /** String contents without the terminating NUL; null for variables. */
+    public String getContent() {
+        return content;
+    }
+
+    @Override
+    public String toString() {
+        return IrPrinter.print(this);
+    }
+}
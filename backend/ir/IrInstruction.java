@@ -1,30 +1,159 @@
 package backend.ir;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * One IR instruction. Everything the printer needs lives in typed fields; the LLVM text
+ * is produced by {@link IrPrinter} on demand, so rewriting an operand never touches strings.
+ * <p>
+ * The meaning of {@link #getType()} depends on the opcode: the allocated type for alloca,
+ * the loaded/stored/compared/operand type for load, store, icmp and arithmetic, the source
+ * type for zext, the return type for call and ret, the source element type for gep, and the
+ * value type for phi.
+ */
 public class IrInstruction {
     public enum Opcode {
         ALLOCA, LOAD, STORE, ADD, SUB, MUL, SDIV, SREM, ICMP, ZEXT, XOR, BR, CALL, RET, GEP, PHI
     }
 
+    public enum Predicate {
+        EQ("eq"), NE("ne"), SLT("slt"), SGT("sgt"), SLE("sle"), SGE("sge");
+
+        private final String name;
+
+        Predicate(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean evaluate(int a, int b) {
+            switch (this) {
+                case EQ: return a == b;
+                case NE: return a != b;
+                case SLT: return a < b;
+                case SGT: return a > b;
+                case SLE: return a <= b;
+                default: return a >= b;
+            }
+        }
+
+        /** The predicate with its operands exchanged: {@code a p b == b p.swapped() a}. */
+        public Predicate swapped() {
+            switch (this) {
+                case SLT: return SGT;
+                case SGT: return SLT;
+                case SLE: return SGE;
+                case SGE: return SLE;
+                default: return this;
+            }
+        }
+    }
+
     private final Opcode opcode;
     private final IrRegister result;
-    private final List<IrValue> operands;
-    private String text;
+    private final IrType type;
+    private final List<IrUse> operands;
+    private Predicate predicate;
+    private String callee;
     private IrBasicBlock parent;
+    IrInstruction prev; // links in the parent's instruction list, maintained by IrBasicBlock
+    IrInstruction next;
 
-    public IrInstruction(Opcode opcode, IrRegister result, List<IrValue> operands, String text) {
+    public IrInstruction(Opcode opcode, IrRegister result, IrType type, List<IrValue> operands) {
         this.opcode = opcode;
         this.result = result;
-        this.operands = new ArrayList<>(operands);
-        this.text = text;
+        this.type = type;
+        this.operands = new ArrayList<>(operands.size());
         for (IrValue op : operands) {
-            if (op != null) op.addUser(this);
+            this.operands.add(new IrUse(this, this.operands.size(), op));
         }
     }
 
+    /* ---------- factories (they also fix the result register's type) ---------- */
+    public static IrInstruction alloca(IrRegister result, IrType allocated) {
+        result.setType(IrType.pointerTo(allocated));
+        return new IrInstruction(Opcode.ALLOCA, result, allocated, Collections.emptyList());
+    }
+
+    public static IrInstruction load(IrRegister result, IrType type, IrValue ptr) {
+        result.setType(type);
+        return new IrInstruction(Opcode.LOAD, result, type, Collections.singletonList(ptr));
+    }
+
+    public static IrInstruction store(IrType type, IrValue value, IrValue ptr) {
+        return new IrInstruction(Opcode.STORE, null, type, Arrays.asList(value, ptr));
+    }
+
+    public static IrInstruction binary(Opcode opcode, IrRegister result, IrType type, IrValue a, IrValue b) {
+        result.setType(type);
+        return new IrInstruction(opcode, result, type, Arrays.asList(a, b));
+    }
+
+    public static IrInstruction icmp(IrRegister result, Predicate predicate, IrType type, IrValue a, IrValue b) {
+        result.setType(IrType.I1);
+        IrInstruction ins = new IrInstruction(Opcode.ICMP, result, type, Arrays.asList(a, b));
+        ins.predicate = predicate;
+        return ins;
+    }
+
+    public static IrInstruction zext(IrRegister result, IrType from, IrType to, IrValue value) {
+        result.setType(to);
+        return new IrInstruction(Opcode.ZEXT, result, from, Collections.singletonList(value));
+    }
+
+    /** Operands are the base pointer followed by the indices; the result points at the indexed element. */
+    public static IrInstruction gep(IrRegister result, IrType sourceElement, IrValue base, IrValue... indices) {
+        IrType t = sourceElement;
+        for (int i = 1; i < indices.length; i++) t = t.getElementType();
+        result.setType(IrType.pointerTo(t));
+        List<IrValue> ops = new ArrayList<>();
+        ops.add(base);
+        ops.addAll(Arrays.asList(indices));
+        return new IrInstruction(Opcode.GEP, result, sourceElement, ops);
+    }
+
+    public static IrInstruction br(IrLabel target) {
+        return new IrInstruction(Opcode.BR, null, null, Collections.singletonList(target));
+    }
+
+    public static IrInstruction condBr(IrValue cond, IrLabel ifTrue, IrLabel ifFalse) {
+        return new IrInstruction(Opcode.BR, null, null, Arrays.asList(cond, ifTrue, ifFalse));
+    }
+
+    /** Operands are the arguments only; {@code result} is null for void calls. */
+    public static IrInstruction call(IrRegister result, IrType retType, String callee, List<IrValue> args) {
+        if (result != null) result.setType(retType);
+        IrInstruction ins = new IrInstruction(Opcode.CALL, result, retType, args);
+        ins.callee = callee;
+        return ins;
+    }
+
+    /** {@code value} is null for {@code ret void}. */
+    public static IrInstruction ret(IrType type, IrValue value) {
+        List<IrValue> ops = value == null ? Collections.emptyList() : Collections.singletonList(value);
+        return new IrInstruction(Opcode.RET, null, type, ops);
+    }
+
+    /** Operands are {@code [v0, pred0, v1, pred1, ...]} with the predecessors as labels. */
+    public static IrInstruction phi(IrRegister result, List<IrValue> operands) {
+        return new IrInstruction(Opcode.PHI, result, result.getType(), operands);
+    }
+
+    /** Same opcode, type, predicate and callee as this instruction, with a new result and operands. */
+    public IrInstruction copy(IrRegister newResult, List<IrValue> newOperands) {
+        IrInstruction ins = new IrInstruction(opcode, newResult, type, newOperands);
+        ins.predicate = predicate;
+        ins.callee = callee;
+        return ins;
+    }
+
+    /* ---------- accessors ---------- */
     public Opcode getOpcode() {
         return opcode;
     }
@@ -33,11 +162,30 @@ public class IrInstruction {
         return result;
     }
 
+    public IrType getType() {
+        return type;
+    }
+
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    /** Callee name without the leading {@code @}; null unless this is a call. */
+    public String getCallee() {
+        return callee;
+    }
+
     public List<IrValue> getOperands() {
-        return Collections.unmodifiableList(operands);
+        List<IrValue> vals = new ArrayList<>(operands.size());
+        for (IrUse u : operands) vals.add(u.getValue());
+        return Collections.unmodifiableList(vals);
     }
 
     public IrValue getOperand(int idx) {
+        return operands.get(idx).getValue();
+    }
+
+    public IrUse getUse(int idx) {
         return operands.get(idx);
     }
 
@@ -46,31 +194,56 @@ public class IrInstruction {
     }
 
     public void replaceOperand(int idx, IrValue newVal) {
-        IrValue old = operands.get(idx);
-        if (old != null) old.removeUser(this);
-        operands.set(idx, newVal);
-        if (newVal != null) newVal.addUser(this);
+        operands.get(idx).set(newVal);
     }
 
+    /** Unlinks every operand slot from its value's use list; the operands stay readable. */
     public void detachOperands() {
-        for (IrValue op : operands) {
-            if (op != null) op.removeUser(this);
-        }
+        for (IrUse u : operands) u.unlink();
+    }
+
+    /* ---------- position in the parent block ---------- */
+    void setParent(IrBasicBlock parent) {
+        this.parent = parent;
     }
 
-    public String getText() {
-        return text;
+    public IrBasicBlock getParent() {
+        return parent;
     }
 
-    public void setText(String text) {
-        this.text = text;
+    public IrInstruction getPrev() {
+        return prev;
     }
 
-    public void setParent(IrBasicBlock parent) {
-        this.parent = parent;
+    public IrInstruction getNext() {
+        return next;
     }
 
-    public IrBasicBlock getParent() {
-        return parent;
+    /** Unlinks this instruction from its block but keeps its operand uses. */
+    public void removeFromParent() {
+        if (parent != null) parent.remove(this);
+    }
+
+    /** Unlinks this instruction from its block and drops its operand uses. */
+    public void eraseFromParent() {
+        removeFromParent();
+        detachOperands();
+    }
+
+    public void moveBefore(IrInstruction pos) {
+        pos.parent.insertBefore(pos, this);
+    }
+
+    public void moveAfter(IrInstruction pos) {
+        pos.parent.insertAfter(pos, this);
+    }
+
+    public void moveToEnd(IrBasicBlock bb) {
+        bb.addInstruction(this);
+    }
+
+    @Override
+    public String toString() {
+        return IrPrinter.print(this);
     }
 }
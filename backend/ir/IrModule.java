@@ -5,20 +5,20 @@ import java.util.List;
 
 public class IrModule {
     private final List<String> declarations = new ArrayList<>();
-    private final List<String> globalDefs = new ArrayList<>();
-    private final List<String> stringDefs = new ArrayList<>();
+    private final List<IrGlobal> globals = new ArrayList<>();
+    private final List<IrGlobal> strings = new ArrayList<>();
     private final List<IrFunction> functions = new ArrayList<>();
 
     public void addDeclaration(String decl) {
         declarations.add(decl);
     }
 
-    public void addGlobalDef(String def) {
-        globalDefs.add(def);
+    public void addGlobal(IrGlobal global) {
+        globals.add(global);
     }
 
-    public void addStringDef(String def) {
-        stringDefs.add(def);
+    public void addString(IrGlobal str) {
+        strings.add(str);
     }
 
     public void addFunction(IrFunction func) {
@@ -29,12 +29,12 @@ public class IrModule {
         return functions;
     }
 
-    public List<String> getGlobalDefs() {
-        return globalDefs;
+    public List<IrGlobal> getGlobals() {
+        return globals;
     }
 
-    public List<String> getStringDefs() {
-        return stringDefs;
+    public List<IrGlobal> getStrings() {
+        return strings;
     }
 
     public String emit() {
@@ -43,14 +43,14 @@ public class IrModule {
             sb.append(decl).append("\n");
         }
         if (!declarations.isEmpty()) sb.append("\n");
-        for (String g : globalDefs) {
-            sb.append(g).append("\n");
+        for (IrGlobal g : globals) {
+            sb.append(IrPrinter.print(g)).append("\n");
         }
-        if (!globalDefs.isEmpty()) sb.append("\n");
-        for (String s : stringDefs) {
-            sb.append(s).append("\n");
+        if (!globals.isEmpty()) sb.append("\n");
+        for (IrGlobal s : strings) {
+            sb.append(IrPrinter.print(s)).append("\n");
         }
-        if (!stringDefs.isEmpty()) sb.append("\n");
+        if (!strings.isEmpty()) sb.append("\n");
         for (IrFunction f : functions) {
             sb.append(f.emit());
         }
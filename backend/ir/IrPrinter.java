@@ -0,0 +1,128 @@
+package backend.ir;
+
+/**
+ * Renders structured instructions and globals as LLVM IR text. This is the only place
+ * IR text is built; it runs when the module is emitted.
+ */
+public final class IrPrinter {
+    private IrPrinter() {
+    }
+
+    public static String print(IrInstruction ins) {
+        StringBuilder sb = new StringBuilder("  ");
+        if (ins.getResult() != null) sb.append(ins.getResult().getName()).append(" = ");
+        IrType ty = ins.getType();
+        switch (ins.getOpcode()) {
+            case ALLOCA:
+                sb.append("alloca ").append(ty.getDesc()).append(align(ty));
+                break;
+            case LOAD:
+                sb.append("load ").append(ty.getDesc()).append(", ").append(ty.getDesc()).append("* ")
+                        .append(operand(ins, 0)).append(align(ty));
+                break;
+            case STORE:
+                sb.append("store ").append(ty.getDesc()).append(' ').append(operand(ins, 0))
+                        .append(", ").append(ty.getDesc()).append("* ").append(operand(ins, 1)).append(align(ty));
+                break;
+            case ICMP:
+                sb.append("icmp ").append(ins.getPredicate().getName()).append(' ').append(ty.getDesc()).append(' ')
+                        .append(operand(ins, 0)).append(", ").append(operand(ins, 1));
+                break;
+            case ZEXT:
+                sb.append("zext ").append(ty.getDesc()).append(' ').append(operand(ins, 0))
+                        .append(" to ").append(ins.getResult().getType().getDesc());
+                break;
+            case GEP:
+                sb.append("getelementptr inbounds ").append(ty.getDesc()).append(", ").append(ty.getDesc()).append("* ")
+                        .append(operand(ins, 0));
+                for (int i = 1; i < ins.getOperandCount(); i++) sb.append(", i32 ").append(operand(ins, i));
+                break;
+            case BR:
+                if (ins.getOperandCount() == 1) {
+                    sb.append("br label %").append(ins.getOperand(0).getName());
+                } else {
+                    sb.append("br i1 ").append(operand(ins, 0))
+                            .append(", label %").append(ins.getOperand(1).getName())
+                            .append(", label %").append(ins.getOperand(2).getName());
+                }
+                break;
+            case CALL:
+                sb.append("call ").append(ty.getDesc()).append(" @").append(ins.getCallee()).append('(');
+                for (int i = 0; i < ins.getOperandCount(); i++) {
+                    if (i > 0) sb.append(", ");
+                    IrType argTy = ins.getOperand(i).getType();
+                    sb.append(argTy != null ? argTy.getDesc() : "i32").append(' ').append(operand(ins, i));
+                }
+                sb.append(')');
+                break;
+            case RET:
+                if (ins.getOperandCount() == 0) sb.append("ret void");
+                else sb.append("ret ").append(ty.getDesc()).append(' ').append(operand(ins, 0));
+                break;
+            case PHI:
+                sb.append("phi ").append(ty.getDesc()).append(' ');
+                for (int i = 0; i + 1 < ins.getOperandCount(); i += 2) {
+                    if (i > 0) sb.append(", ");
+                    sb.append("[ ").append(operand(ins, i)).append(", %").append(ins.getOperand(i + 1).getName()).append(" ]");
+                }
+                break;
+            default:
+                sb.append(ins.getOpcode().name().toLowerCase()).append(' ').append(ty.getDesc()).append(' ')
+                        .append(operand(ins, 0)).append(", ").append(operand(ins, 1));
+                break;
+        }
+        return sb.toString();
+    }
+
+    public static String print(IrGlobal g) {
+        StringBuilder sb = new StringBuilder("@").append(g.getName());
+        if (g.isString()) {
+            sb.append(" = private unnamed_addr constant ").append(g.getType().getDesc())
+                    .append(" c\"").append(escape(g.getContent())).append("\", align 1");
+            return sb.toString();
+        }
+        sb.append(" = dso_local ").append(g.isConstant() ? "constant" : "global").append(' ').append(g.getType().getDesc());
+        if (g.getType().getKind() == IrType.Kind.ARRAY && g.isZeroInitialized()) {
+            sb.append(" zeroinitializer");
+        } else if (g.getType().getKind() == IrType.Kind.ARRAY) {
+            sb.append(" [");
+            for (int i = 0; i < g.getInit().size(); i++) {
+                if (i > 0) sb.append(", ");
+                sb.append("i32 ").append(g.getInit().get(i));
+            }
+            sb.append(']');
+        } else {
+            sb.append(' ').append(g.getInit().get(0));
+        }
+        return sb.append(", align 4").toString();
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (char ch : s.toCharArray()) {
+            switch (ch) {
+                case '\\': sb.append("\\5C"); break;
+                case '\"': sb.append("\\22"); break;
+                case '\n': sb.append("\\0A"); break;
+                case '\t': sb.append("\\09"); break;
+                default:
+                    if (ch >= 32 && ch < 127) sb.append(ch);
+                    else sb.append(String.format("\\%02X", (int) ch));
+            }
+        }
+        sb.append("\\00");
+        return sb.toString();
+    }
+
+    private static String operand(IrInstruction ins, int idx) {
+        IrValue v = ins.getOperand(idx);
+        if (v instanceof IrConstInt && v.getType().isInt(1)) {
+            return ((IrConstInt) v).getValue() != 0 ? "true" : "false";
+        }
+        return v.getName();
+    }
+
+    private static String align(IrType ty) {
+        return ty.isInt(1) ? "" : ", align 4";
+    }
+}
@@ -1,22 +1,41 @@
 package backend.ir;
 
+import java.util.Objects;
+
 public class IrType {
-    public enum Kind { INT, VOID }
+    public enum Kind { INT, VOID, POINTER, ARRAY }
+
+    public static final IrType I1 = intType(1);
+    public static final IrType I8 = intType(8);
+    public static final IrType I32 = intType(32);
+    public static final IrType VOID = voidType();
 
     private final Kind kind;
     private final int bits; // for INT
+    private final int length; // for ARRAY
+    private final IrType element; // pointee for POINTER, element for ARRAY
 
-    private IrType(Kind kind, int bits) {
+    private IrType(Kind kind, int bits, int length, IrType element) {
         this.kind = kind;
         this.bits = bits;
+        this.length = length;
+        this.element = element;
     }
 
     public static IrType intType(int bits) {
-        return new IrType(Kind.INT, bits);
+        return new IrType(Kind.INT, bits, 0, null);
     }
 
     public static IrType voidType() {
-        return new IrType(Kind.VOID, 0);
+        return new IrType(Kind.VOID, 0, 0, null);
+    }
+
+    public static IrType pointerTo(IrType pointee) {
+        return new IrType(Kind.POINTER, 0, 0, pointee);
+    }
+
+    public static IrType arrayOf(int length, IrType element) {
+        return new IrType(Kind.ARRAY, 0, length, element);
     }
 
     public Kind getKind() {
@@ -27,8 +46,42 @@ public class IrType {
         return bits;
     }
 
+    public int getLength() {
+        return length;
+    }
+
+    public IrType getElementType() {
+        return element;
+    }
+
+    public boolean isInt(int bits) {
+        return kind == Kind.INT && this.bits == bits;
+    }
+
     public String getDesc() {
-        if (kind == Kind.VOID) return "void";
-        return "i" + bits;
+        switch (kind) {
+            case VOID: return "void";
+            case POINTER: return element.getDesc() + "*";
+            case ARRAY: return "[" + length + " x " + element.getDesc() + "]";
+            default: return "i" + bits;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof IrType)) return false;
+        IrType t = (IrType) o;
+        return kind == t.kind && bits == t.bits && length == t.length && Objects.equals(element, t.element);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(kind, bits, length, element);
+    }
+
+    @Override
+    public String toString() {
+        return getDesc();
     }
 }
@@ -0,0 +1,66 @@
+package backend.ir;
+
+/**
+ * One operand slot of an instruction. Each use sits in its value's intrusive doubly-linked
+ * use list, so linking, unlinking and retargeting a slot are O(1).
+ */
+public final class IrUse {
+    private final IrInstruction user;
+    private final int index;
+    private IrValue value;
+    private IrUse prev;
+    private IrUse next;
+    private boolean linked;
+
+    IrUse(IrInstruction user, int index, IrValue value) {
+        this.user = user;
+        this.index = index;
+        this.value = value;
+        link();
+    }
+
+    public IrInstruction getUser() {
+        return user;
+    }
+
+    /** Position of this slot in the user's operand list. */
+    public int getIndex() {
+        return index;
+    }
+
+    public IrValue getValue() {
+        return value;
+    }
+
+    IrUse getNext() {
+        return next;
+    }
+
+    /** Points the slot at {@code v}, moving it to that value's use list. */
+    void set(IrValue v) {
+        unlink();
+        value = v;
+        link();
+    }
+
+    void link() {
+        if (linked || value == null) return;
+        next = value.firstUse;
+        if (next != null) next.prev = this;
+        prev = null;
+        value.firstUse = this;
+        value.useCount++;
+        linked = true;
+    }
+
+    void unlink() {
+        if (!linked) return;
+        if (prev != null) prev.next = next;
+        else value.firstUse = next;
+        if (next != null) next.prev = prev;
+        prev = null;
+        next = null;
+        value.useCount--;
+        linked = false;
+    }
+}
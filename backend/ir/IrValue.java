@@ -1,12 +1,15 @@
 package backend.ir;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 public abstract class IrValue {
     protected String name;
     protected IrType type;
-    private final List<IrInstruction> users = new ArrayList<>();
+    IrUse firstUse; // head of the intrusive use list, maintained by IrUse
+    int useCount;
 
     protected IrValue(String name, IrType type) {
         this.name = name;
@@ -25,15 +28,52 @@ public abstract class IrValue {
         this.type = type;
     }
 
-    public void addUser(IrInstruction user) {
-        users.add(user);
+    public boolean hasUses() {
+        return firstUse != null;
     }
 
-    public void removeUser(IrInstruction user) {
-        users.remove(user);
+    public int getUseCount() {
+        return useCount;
     }
 
+    /**
+     * Live view of the operand slots referring to this value. Retargeting the current use
+     * while iterating is allowed; the iterator has already moved past it.
+     */
+    public Iterable<IrUse> getUses() {
+        return () -> new Iterator<IrUse>() {
+            private IrUse cur = firstUse;
+
+            @Override
+            public boolean hasNext() {
+                return cur != null;
+            }
+
+            @Override
+            public IrUse next() {
+                if (cur == null) throw new NoSuchElementException();
+                IrUse u = cur;
+                cur = u.getNext();
+                return u;
+            }
+        };
+    }
+
+    /** Snapshot of the using instructions, one entry per operand slot. */
     public List<IrInstruction> getUsers() {
+        List<IrInstruction> users = new ArrayList<>(useCount);
+        for (IrUse u = firstUse; u != null; u = u.getNext()) users.add(u.getUser());
         return users;
     }
+
+    /** Points every use of this value at {@code replacement}. */
+    public void replaceAllUsesWith(IrValue replacement) {
+        if (replacement == this) return;
+        IrUse u = firstUse;
+        while (u != null) {
+            IrUse next = u.getNext();
+            u.set(replacement);
+            u = next;
+        }
+    }
 }
@@ -0,0 +1,24 @@
+package opt.llvm;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * {@link AnalysisManager} 按函数缓存的分析种类。pass 用它声明依赖与保留的分析。
+ */
+public enum Analysis {
+    /** 后继/前驱表，见 {@link Cfg}。 */
+    CFG,
+    /** 支配树与支配边界，见 {@link DominatorTree}；依赖 CFG。 */
+    DOMINATORS,
+    /** 后支配树与控制依赖，见 {@link DominatorTree#postDominators}；依赖 CFG。 */
+    POST_DOMINATORS,
+    /** 自然循环与嵌套树，见 {@link LoopInfo}；依赖支配树。 */
+    LOOPS,
+    /** 寄存器活跃区间，见 {@link backend.LiveIntervals}；任何指令改动都会使其失效。 */
+    LIVENESS;
+
+    public static final Set<Analysis> NONE = EnumSet.noneOf(Analysis.class);
+    /** 只改写块内指令、不动跳转的 pass 保留的分析。 */
+    public static final Set<Analysis> CFG_ONLY = EnumSet.of(CFG, DOMINATORS, POST_DOMINATORS, LOOPS);
+}
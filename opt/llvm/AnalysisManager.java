@@ -0,0 +1,146 @@
+package opt.llvm;
+
+import backend.LiveIntervals;
+import backend.ir.IrBasicBlock;
+import backend.ir.IrFunction;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按函数缓存分析结果：首次请求时计算，pass 修改 IR 后由 {@link PassManager}
+ * 按其声明的保留集合作废其余结果。依赖关系（支配树依赖 CFG）在作废时一并处理。
+ */
+public class AnalysisManager {
+    private final Map<IrFunction, Map<Analysis, Object>> cache = new HashMap<>();
+    private ModRef modRef = new ModRef();
+    private int computed;
+
+    public Cfg getCfg(IrFunction fn) {
+        return (Cfg) results(fn).computeIfAbsent(Analysis.CFG, k -> compute(new Cfg(fn)));
+    }
+
+    public DominatorTree getDominatorTree(IrFunction fn) {
+        Cfg cfg = getCfg(fn);
+        return (DominatorTree) results(fn).computeIfAbsent(Analysis.DOMINATORS,
+                k -> compute(new DominatorTree(fn, cfg)));
+    }
+
+    public DominatorTree getPostDominatorTree(IrFunction fn) {
+        Cfg cfg = getCfg(fn);
+        return (DominatorTree) results(fn).computeIfAbsent(Analysis.POST_DOMINATORS,
+                k -> compute(DominatorTree.postDominators(fn, cfg)));
+    }
+
+    public LoopInfo getLoopInfo(IrFunction fn) {
+        Cfg cfg = getCfg(fn);
+        DominatorTree dt = getDominatorTree(fn);
+        return (LoopInfo) results(fn).computeIfAbsent(Analysis.LOOPS, k -> compute(new LoopInfo(cfg, dt)));
+    }
+
+    /** 模块级的副作用摘要，不随单个函数作废；未设置时除库函数外的调用均按最坏情况处理。 */
+    public ModRef getModRef() {
+        return modRef;
+    }
+
+    public void setModRef(ModRef modRef) {
+        this.modRef = modRef;
+    }
+
+    public LiveIntervals getLiveness(IrFunction fn) {
+        return (LiveIntervals) results(fn).computeIfAbsent(Analysis.LIVENESS, k -> compute(new LiveIntervals(fn)));
+    }
+
+    /** 预先计算 pass 声明依赖的分析。 */
+    public void require(IrFunction fn, Set<Analysis> analyses) {
+        for (Analysis a : analyses) {
+            switch (a) {
+                case CFG: getCfg(fn); break;
+                case DOMINATORS: getDominatorTree(fn); break;
+                case POST_DOMINATORS: getPostDominatorTree(fn); break;
+                case LOOPS: getLoopInfo(fn); break;
+                default: getLiveness(fn); break;
+            }
+        }
+    }
+
+    /** 作废 fn 上不在 preserved 中的分析；CFG 失效时依赖它的支配树也失效，支配树失效时循环信息随之失效。 */
+    public void invalidate(IrFunction fn, Set<Analysis> preserved) {
+        Map<Analysis, Object> res = cache.get(fn);
+        if (res == null) return;
+        res.keySet().removeIf(a -> !preserved.contains(a));
+        if (!res.containsKey(Analysis.CFG)) {
+            res.remove(Analysis.DOMINATORS);
+            res.remove(Analysis.POST_DOMINATORS);
+        }
+        if (!res.containsKey(Analysis.DOMINATORS)) res.remove(Analysis.LOOPS);
+    }
+
+    /* ---------- 就地维护：改动 CFG 的 pass 调用这些方法，已缓存的 CFG 与（后）支配树随之增量更新（循环信息只在拆边时更新，其余情况作废） ---------- */
+
+    /** 边 pred→succ 上插入了新块 mid。 */
+    public void onEdgeSplit(IrFunction fn, IrBasicBlock pred, IrBasicBlock succ, IrBasicBlock mid) {
+        Map<Analysis, Object> res = cache.get(fn);
+        if (res == null) return;
+        res.remove(Analysis.LIVENESS);
+        Cfg cfg = (Cfg) res.get(Analysis.CFG);
+        if (cfg == null) return;
+        cfg.splitEdge(pred, succ, mid);
+        for (DominatorTree dt : trees(res)) dt.splitEdge(pred, succ, mid);
+        LoopInfo loops = (LoopInfo) res.get(Analysis.LOOPS);
+        if (loops != null) loops.splitEdge(pred, succ, mid);
+    }
+
+    /** 块 b 并入了它的唯一前驱 pred。 */
+    public void onBlocksMerged(IrFunction fn, IrBasicBlock pred, IrBasicBlock b) {
+        Map<Analysis, Object> res = cache.get(fn);
+        if (res == null) return;
+        res.remove(Analysis.LIVENESS);
+        res.remove(Analysis.LOOPS);
+        Cfg cfg = (Cfg) res.get(Analysis.CFG);
+        if (cfg == null) return;
+        cfg.mergeInto(pred, b);
+        for (DominatorTree dt : trees(res)) dt.mergeInto(pred, b);
+    }
+
+    /** 删除了从入口不可达的块 b。 */
+    public void onBlockRemoved(IrFunction fn, IrBasicBlock b) {
+        Map<Analysis, Object> res = cache.get(fn);
+        if (res == null) return;
+        res.remove(Analysis.LIVENESS);
+        res.remove(Analysis.LOOPS);
+        Cfg cfg = (Cfg) res.get(Analysis.CFG);
+        if (cfg == null) return;
+        cfg.removeBlock(b);
+        for (DominatorTree dt : trees(res)) dt.removeBlock(b);
+    }
+
+    public void invalidateAll(IrFunction fn) {
+        cache.remove(fn);
+    }
+
+    /** 实际计算过的分析次数（缓存命中不计）。 */
+    public int getComputedCount() {
+        return computed;
+    }
+
+    private Map<Analysis, Object> results(IrFunction fn) {
+        return cache.computeIfAbsent(fn, k -> new EnumMap<>(Analysis.class));
+    }
+
+    private List<DominatorTree> trees(Map<Analysis, Object> res) {
+        List<DominatorTree> trees = new ArrayList<>(2);
+        if (res.containsKey(Analysis.DOMINATORS)) trees.add((DominatorTree) res.get(Analysis.DOMINATORS));
+        if (res.containsKey(Analysis.POST_DOMINATORS)) trees.add((DominatorTree) res.get(Analysis.POST_DOMINATORS));
+        return trees;
+    }
+
+    private Object compute(Object result) {
+        computed++;
+        return result;
+    }
+}
@@ -0,0 +1,116 @@
+package opt.llvm;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrFunction;
+import backend.ir.IrInstruction;
+import backend.ir.IrModule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 模块内的调用图：边是函数体中对本模块定义函数的 call（getint/putint 等库函数不算）。
+ * 强连通分量按 Tarjan 算法求出，{@link #getBottomUpOrder()} 让被调用者排在调用者之前，
+ * 同一递归分量内的函数相邻。
+ */
+public class CallGraph {
+    private final Map<String, IrFunction> byName = new LinkedHashMap<>();
+    private final Map<IrFunction, Set<IrFunction>> callees = new HashMap<>();
+    private final Map<IrFunction, Integer> callSites = new HashMap<>();
+    private final Map<IrFunction, Integer> sccOf = new HashMap<>();
+    private final List<List<IrFunction>> sccs = new ArrayList<>();
+
+    // Tarjan 的工作状态
+    private final Map<IrFunction, Integer> index = new HashMap<>();
+    private final Map<IrFunction, Integer> lowLink = new HashMap<>();
+    private final List<IrFunction> stack = new ArrayList<>();
+    private final Set<IrFunction> onStack = new LinkedHashSet<>();
+
+    public CallGraph(IrModule module) {
+        for (IrFunction fn : module.getFunctions()) byName.put(fn.getName(), fn);
+        for (IrFunction fn : module.getFunctions()) {
+            Set<IrFunction> out = new LinkedHashSet<>();
+            for (IrBasicBlock bb : fn.getBlocks()) {
+                for (IrInstruction ins : bb.getInstructions()) {
+                    IrFunction callee = getCallee(ins);
+                    if (callee == null) continue;
+                    out.add(callee);
+                    callSites.merge(callee, 1, Integer::sum);
+                }
+            }
+            callees.put(fn, out);
+        }
+        for (IrFunction fn : module.getFunctions()) {
+            if (!index.containsKey(fn)) connect(fn);
+        }
+        index.clear();
+        lowLink.clear();
+    }
+
+    /** ins 调用的本模块函数；不是 call 或调用库函数时返回 null。 */
+    public IrFunction getCallee(IrInstruction ins) {
+        return ins.getOpcode() == IrInstruction.Opcode.CALL ? byName.get(ins.getCallee()) : null;
+    }
+
+    public Set<IrFunction> getCallees(IrFunction fn) {
+        return Collections.unmodifiableSet(callees.getOrDefault(fn, Collections.emptySet()));
+    }
+
+    /** 构造时全模块中调用 fn 的 call 指令数。 */
+    public int getCallSiteCount(IrFunction fn) {
+        return callSites.getOrDefault(fn, 0);
+    }
+
+    /** a 与 b 是否在同一个强连通分量中。 */
+    public boolean inSameScc(IrFunction a, IrFunction b) {
+        Integer sa = sccOf.get(a);
+        return sa != null && sa.equals(sccOf.get(b));
+    }
+
+    /** fn 是否（直接或间接）递归。 */
+    public boolean isRecursive(IrFunction fn) {
+        Integer s = sccOf.get(fn);
+        return s != null && (sccs.get(s).size() > 1 || callees.get(fn).contains(fn));
+    }
+
+    /** 被调用者在前的函数顺序（Tarjan 产出分量的顺序即逆拓扑序）。 */
+    public List<IrFunction> getBottomUpOrder() {
+        List<IrFunction> order = new ArrayList<>();
+        for (List<IrFunction> scc : sccs) order.addAll(scc);
+        return order;
+    }
+
+    private void connect(IrFunction fn) {
+        // 调用链深度有限（SysY 程序的函数数很少），递归实现即可
+        index.put(fn, index.size());
+        lowLink.put(fn, index.get(fn));
+        stack.add(fn);
+        onStack.add(fn);
+        for (IrFunction callee : callees.get(fn)) {
+            if (!index.containsKey(callee)) {
+                connect(callee);
+                lowLink.put(fn, Math.min(lowLink.get(fn), lowLink.get(callee)));
+            } else if (onStack.contains(callee)) {
+                lowLink.put(fn, Math.min(lowLink.get(fn), index.get(callee)));
+            }
+        }
+        if (lowLink.get(fn).equals(index.get(fn))) {
+            List<IrFunction> scc = new ArrayList<>();
+            IrFunction top;
+            do {
+                top = stack.remove(stack.size() - 1);
+                onStack.remove(top);
+                scc.add(top);
+                sccOf.put(top, sccs.size());
+            } while (top != fn);
+            Collections.reverse(scc);
+            sccs.add(scc);
+        }
+    }
+}
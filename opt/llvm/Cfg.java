@@ -0,0 +1,96 @@
+package opt.llvm;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrFunction;
+import backend.ir.IrInstruction;
+import backend.ir.IrLabel;
+import backend.ir.IrValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 由终结指令计算的 CFG 快照（IrBasicBlock 中的 preds/succs 只在生成时建立，优化后会过期）。
+ * 由 {@link AnalysisManager} 缓存；改动跳转的 pass 要么声明不保留 CFG，要么经
+ * {@link AnalysisManager} 的 onEdgeSplit/onBlocksMerged/onBlockRemoved 就地维护。
+ */
+public class Cfg {
+    private final Map<IrBasicBlock, List<IrBasicBlock>> succs = new HashMap<>();
+    private final Map<IrBasicBlock, List<IrBasicBlock>> preds = new HashMap<>();
+
+    public Cfg(IrFunction fn) {
+        Set<IrBasicBlock> present = new HashSet<>(fn.getBlocks());
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            preds.put(bb, new ArrayList<>());
+        }
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            List<IrBasicBlock> out = new ArrayList<>();
+            IrInstruction term = bb.getTerminator();
+            if (term != null && term.getOpcode() == IrInstruction.Opcode.BR) {
+                for (IrValue op : term.getOperands()) {
+                    if (!(op instanceof IrLabel)) continue;
+                    IrBasicBlock target = fn.getBlock(op.getName());
+                    if (target != null && present.contains(target) && !out.contains(target)) out.add(target);
+                }
+            }
+            succs.put(bb, out);
+            for (IrBasicBlock s : out) preds.get(s).add(bb);
+        }
+    }
+
+    /** 按终结指令中的出现顺序返回去重后的后继。 */
+    public List<IrBasicBlock> successors(IrBasicBlock bb) {
+        return Collections.unmodifiableList(succs.getOrDefault(bb, Collections.emptyList()));
+    }
+
+    /** 前驱（按块布局顺序）。 */
+    public List<IrBasicBlock> predecessors(IrBasicBlock bb) {
+        return Collections.unmodifiableList(preds.getOrDefault(bb, Collections.emptyList()));
+    }
+
+    /** 恰有一个前驱时返回它，否则返回 null。 */
+    public IrBasicBlock uniquePredecessor(IrBasicBlock bb) {
+        List<IrBasicBlock> ps = preds.get(bb);
+        return ps != null && ps.size() == 1 ? ps.get(0) : null;
+    }
+
+    /** b 的指令并入其唯一前驱 pred 之后同步边：pred 接管 b 的后继，b 从图中消失。 */
+    public void mergeInto(IrBasicBlock pred, IrBasicBlock b) {
+        List<IrBasicBlock> out = succs.remove(b);
+        preds.remove(b);
+        succs.put(pred, out);
+        for (IrBasicBlock s : out) {
+            List<IrBasicBlock> ps = preds.get(s);
+            int idx = ps.indexOf(b);
+            if (ps.contains(pred)) ps.remove(idx);
+            else ps.set(idx, pred);
+        }
+    }
+
+    /** 在边 pred→succ 上插入了新块 mid：pred→mid→succ。 */
+    public void splitEdge(IrBasicBlock pred, IrBasicBlock succ, IrBasicBlock mid) {
+        List<IrBasicBlock> out = succs.get(pred);
+        out.set(out.indexOf(succ), mid);
+        List<IrBasicBlock> in = preds.get(succ);
+        in.set(in.indexOf(pred), mid);
+        succs.put(mid, new ArrayList<>(Collections.singletonList(succ)));
+        preds.put(mid, new ArrayList<>(Collections.singletonList(pred)));
+    }
+
+    /** 删除块 b 及其所有边。 */
+    public void removeBlock(IrBasicBlock b) {
+        for (IrBasicBlock s : succs.remove(b)) {
+            List<IrBasicBlock> ps = preds.get(s);
+            if (ps != null) ps.remove(b);
+        }
+        for (IrBasicBlock p : preds.remove(b)) {
+            List<IrBasicBlock> ss = succs.get(p);
+            if (ss != null) ss.remove(b);
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package opt.llvm;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrFunction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 支配树（Cooper-Harvey-Kennedy 迭代算法）与支配边界；{@link #postDominators} 在反向 CFG 上
+ * 构造后支配树，其边界即控制依赖。
+ * 只覆盖从根可达的块：支配树里不可达块没有 idom，也不出现在逆后序中；后支配树里到不了 ret 的块
+ * （死循环）同样不在树中。
+ * 拆边、合并块、删除不可达块后可以用 {@link #splitEdge}/{@link #mergeInto}/{@link #removeBlock}
+ * 增量更新，调用前须先更新所依赖的 {@link Cfg}（通常经由 {@link AnalysisManager} 统一转发）。
+ */
+public class DominatorTree {
+    private final IrFunction function;
+    private final Cfg cfg;
+    private final boolean post;
+    /** 后支配树的虚拟根：所有出口块的公共后继，不对外暴露。支配树中即入口块。 */
+    private final IrBasicBlock root;
+    private final List<IrBasicBlock> exits = new ArrayList<>();
+    private List<IrBasicBlock> rpo; // 树变化后置空，按需重算
+    private final Map<IrBasicBlock, IrBasicBlock> idom = new HashMap<>();
+    private final Map<IrBasicBlock, List<IrBasicBlock>> children = new HashMap<>();
+    // 树上 DFS 的进入/离开序号，用于 O(1) 的支配查询；树变化后惰性重算
+    private final Map<IrBasicBlock, Integer> enter = new HashMap<>();
+    private final Map<IrBasicBlock, Integer> exit = new HashMap<>();
+    private boolean numbered;
+    private Map<IrBasicBlock, Set<IrBasicBlock>> frontier;
+
+    public DominatorTree(IrFunction function) {
+        this(function, new Cfg(function));
+    }
+
+    public DominatorTree(IrFunction function, Cfg cfg) {
+        this(function, cfg, false);
+    }
+
+    private DominatorTree(IrFunction function, Cfg cfg, boolean post) {
+        this.function = function;
+        this.cfg = cfg;
+        this.post = post;
+        if (function.getBlocks().isEmpty()) {
+            this.root = null;
+            return;
+        }
+        if (post) {
+            this.root = new IrBasicBlock("<exit>");
+            for (IrBasicBlock bb : function.getBlocks()) {
+                if (cfg.successors(bb).isEmpty()) exits.add(bb);
+            }
+        } else {
+            this.root = function.getBlocks().get(0);
+        }
+        rpo = computeRpo();
+        computeIdom();
+    }
+
+    /** 后支配树：a 后支配 b 当且仅当 b 到 ret 的每条路径都经过 a。 */
+    public static DominatorTree postDominators(IrFunction function, Cfg cfg) {
+        return new DominatorTree(function, cfg, true);
+    }
+
+    public IrFunction getFunction() {
+        return function;
+    }
+
+    public boolean isPostDominatorTree() {
+        return post;
+    }
+
+    /** 支配树的根（入口块）；后支配树的根是虚拟出口，返回 null。 */
+    public IrBasicBlock getEntry() {
+        return root == null || post ? null : root;
+    }
+
+    /** 没有（非虚拟）idom 的块：支配树中只有入口，后支配树中是各出口块。 */
+    public List<IrBasicBlock> getRoots() {
+        if (root == null) return Collections.emptyList();
+        return post ? getChildren(root) : Collections.singletonList(root);
+    }
+
+    /** 树所在方向上的逆后序（后支配树即反向 CFG 上的逆后序），不含虚拟根。 */
+    public List<IrBasicBlock> getReversePostOrder() {
+        List<IrBasicBlock> order = order();
+        return Collections.unmodifiableList(post ? order.subList(1, order.size()) : order);
+    }
+
+    public boolean isReachable(IrBasicBlock bb) {
+        return !(post && bb == root) && idom.containsKey(bb);
+    }
+
+    public List<IrBasicBlock> getSuccessors(IrBasicBlock bb) {
+        return cfg.successors(bb);
+    }
+
+    public List<IrBasicBlock> getPredecessors(IrBasicBlock bb) {
+        return cfg.predecessors(bb);
+    }
+
+    /** 直接（后）支配者；根返回 null。 */
+    public IrBasicBlock getIdom(IrBasicBlock bb) {
+        IrBasicBlock d = idom.get(bb);
+        return d == bb || d == root && post ? null : d;
+    }
+
+    public List<IrBasicBlock> getChildren(IrBasicBlock bb) {
+        List<IrBasicBlock> cs = children.get(bb);
+        return cs == null ? Collections.emptyList() : Collections.unmodifiableList(cs);
+    }
+
+    /** a 是否（后）支配 b（自反）。 */
+    public boolean dominates(IrBasicBlock a, IrBasicBlock b) {
+        if (!isReachable(a) || !isReachable(b)) return false;
+        if (!numbered) number();
+        return enter.get(a) <= enter.get(b) && exit.get(b) <= exit.get(a);
+    }
+
+    public boolean strictlyDominates(IrBasicBlock a, IrBasicBlock b) {
+        return a != b && dominates(a, b);
+    }
+
+    /** 两块在树上的最近公共祖先；不在同一棵树中（后支配树的不同出口）时返回 null。 */
+    public IrBasicBlock nearestCommonDominator(IrBasicBlock a, IrBasicBlock b) {
+        if (!isReachable(a) || !isReachable(b)) return null;
+        IrBasicBlock d = a;
+        while (d != null && !dominates(d, b)) d = getIdom(d);
+        return d;
+    }
+
+    /** 支配边界；后支配树上即控制依赖：bb 控制依赖于结果中的每个块。 */
+    public Set<IrBasicBlock> getFrontier(IrBasicBlock bb) {
+        if (frontier == null) computeFrontier();
+        return frontier.getOrDefault(bb, Collections.emptySet());
+    }
+
+    /* ---------- incremental updates ---------- */
+
+    /** CFG 边 pred→succ 上插入了新块 mid（Cfg 已更新）。 */
+    public void splitEdge(IrBasicBlock pred, IrBasicBlock succ, IrBasicBlock mid) {
+        // 在树的方向上看，这是边 u→v 被拆成 u→mid→v
+        IrBasicBlock u = post ? succ : pred;
+        IrBasicBlock v = post ? pred : succ;
+        if (!idom.containsKey(u)) return;
+        if (!numbered) number();
+        // mid 成为 v 唯一的非回边前驱时，v 的 idom 改为 mid；否则 v 的 idom 不变
+        boolean soleEntry = v != root && !dominates(v, u);
+        if (soleEntry) {
+            for (IrBasicBlock p : graphPreds(v)) {
+                if (p != mid && idom.containsKey(p) && !dominates(v, p)) {
+                    soleEntry = false;
+                    break;
+                }
+            }
+        }
+        setIdom(mid, u);
+        if (soleEntry) setIdom(v, mid);
+        treeChanged();
+    }
+
+    /** 块 b 并入了它的唯一前驱 pred（pred 原先无条件跳到 b，Cfg 已更新）。 */
+    public void mergeInto(IrBasicBlock pred, IrBasicBlock b) {
+        if (post) {
+            int i = exits.indexOf(b);
+            if (i >= 0) exits.set(i, pred);
+        }
+        if (!idom.containsKey(b)) {
+            forget(b);
+            return;
+        }
+        if (post) {
+            // pred 的唯一后继是 b，所以 ipdom(pred) = b；合并后 pred 接替 b 在树中的位置
+            IrBasicBlock parent = idom.get(b);
+            children.get(b).remove(pred);
+            List<IrBasicBlock> siblings = children.get(parent);
+            siblings.set(siblings.indexOf(b), pred);
+            idom.put(pred, parent);
+        } else {
+            children.get(pred).remove(b);
+        }
+        for (IrBasicBlock c : children.getOrDefault(b, Collections.emptyList())) {
+            idom.put(c, pred);
+            children.computeIfAbsent(pred, k -> new ArrayList<>()).add(c);
+        }
+        forget(b);
+        treeChanged();
+    }
+
+    /** 删除一个从入口不可达的块（它不影响其余块之间的支配关系）。 */
+    public void removeBlock(IrBasicBlock b) {
+        exits.remove(b);
+        if (idom.containsKey(b)) {
+            IrBasicBlock parent = idom.get(b);
+            children.get(parent).remove(b);
+            for (IrBasicBlock c : children.getOrDefault(b, Collections.emptyList())) {
+                idom.put(c, parent);
+                children.get(parent).add(c);
+            }
+        }
+        forget(b);
+        treeChanged();
+    }
+
+    private void setIdom(IrBasicBlock bb, IrBasicBlock d) {
+        IrBasicBlock old = idom.put(bb, d);
+        if (old != null && old != bb) children.get(old).remove(bb);
+        children.computeIfAbsent(d, k -> new ArrayList<>()).add(bb);
+    }
+
+    private void forget(IrBasicBlock b) {
+        idom.remove(b);
+        children.remove(b);
+    }
+
+    private void treeChanged() {
+        rpo = null;
+        numbered = false;
+        frontier = null;
+    }
+
+    private List<IrBasicBlock> order() {
+        if (rpo == null) rpo = computeRpo();
+        return rpo;
+    }
+
+    /* ---------- construction ---------- */
+    private List<IrBasicBlock> graphSuccs(IrBasicBlock bb) {
+        if (!post) return cfg.successors(bb);
+        return bb == root ? exits : cfg.predecessors(bb);
+    }
+
+    private List<IrBasicBlock> graphPreds(IrBasicBlock bb) {
+        if (!post) return cfg.predecessors(bb);
+        List<IrBasicBlock> out = cfg.successors(bb);
+        return out.isEmpty() ? Collections.singletonList(root) : out;
+    }
+
+    private List<IrBasicBlock> computeRpo() {
+        List<IrBasicBlock> postOrder = new ArrayList<>();
+        Set<IrBasicBlock> visited = new LinkedHashSet<>();
+        // 显式栈 DFS，避免深层 CFG 递归溢出
+        List<IrBasicBlock> stack = new ArrayList<>();
+        List<Integer> next = new ArrayList<>();
+        stack.add(root);
+        next.add(0);
+        visited.add(root);
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            IrBasicBlock bb = stack.get(top);
+            List<IrBasicBlock> out = graphSuccs(bb);
+            int i = next.get(top);
+            if (i < out.size()) {
+                next.set(top, i + 1);
+                IrBasicBlock s = out.get(i);
+                if (visited.add(s)) {
+                    stack.add(s);
+                    next.add(0);
+                }
+            } else {
+                postOrder.add(bb);
+                stack.remove(top);
+                next.remove(top);
+            }
+        }
+        Collections.reverse(postOrder);
+        return postOrder;
+    }
+
+    private void computeIdom() {
+        Map<IrBasicBlock, Integer> index = new HashMap<>();
+        for (IrBasicBlock bb : rpo) index.put(bb, index.size());
+        idom.put(root, root);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < rpo.size(); i++) {
+                IrBasicBlock bb = rpo.get(i);
+                IrBasicBlock newIdom = null;
+                for (IrBasicBlock p : graphPreds(bb)) {
+                    if (!idom.containsKey(p)) continue;
+                    newIdom = newIdom == null ? p : intersect(p, newIdom, index);
+                }
+                if (newIdom != null && idom.get(bb) != newIdom) {
+                    idom.put(bb, newIdom);
+                    changed = true;
+                }
+            }
+        }
+        for (IrBasicBlock bb : rpo) {
+            IrBasicBlock d = idom.get(bb);
+            if (d != bb) children.computeIfAbsent(d, k -> new ArrayList<>()).add(bb);
+        }
+    }
+
+    private IrBasicBlock intersect(IrBasicBlock a, IrBasicBlock b, Map<IrBasicBlock, Integer> index) {
+        while (a != b) {
+            while (index.get(a) > index.get(b)) a = idom.get(a);
+            while (index.get(b) > index.get(a)) b = idom.get(b);
+        }
+        return a;
+    }
+
+    private void number() {
+        enter.clear();
+        exit.clear();
+        int clock = 0;
+        List<IrBasicBlock> stack = new ArrayList<>();
+        List<Integer> next = new ArrayList<>();
+        stack.add(root);
+        next.add(0);
+        enter.put(root, clock++);
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            List<IrBasicBlock> cs = children.getOrDefault(stack.get(top), Collections.emptyList());
+            int i = next.get(top);
+            if (i < cs.size()) {
+                next.set(top, i + 1);
+                stack.add(cs.get(i));
+                next.add(0);
+                enter.put(cs.get(i), clock++);
+            } else {
+                exit.put(stack.get(top), clock++);
+                stack.remove(top);
+                next.remove(top);
+            }
+        }
+        numbered = true;
+    }
+
+    private void computeFrontier() {
+        frontier = new HashMap<>();
+        for (IrBasicBlock bb : order()) {
+            List<IrBasicBlock> ps = new ArrayList<>();
+            for (IrBasicBlock p : graphPreds(bb)) {
+                if (idom.containsKey(p) && !(post && p == root)) ps.add(p);
+            }
+            if (ps.size() < 2) continue;
+            IrBasicBlock d = treeParent(bb);
+            for (IrBasicBlock p : ps) {
+                IrBasicBlock runner = p;
+                while (runner != null && runner != d) {
+                    if (!(post && runner == root)) {
+                        frontier.computeIfAbsent(runner, k -> new LinkedHashSet<>()).add(bb);
+                    }
+                    runner = treeParent(runner);
+                }
+            }
+        }
+    }
+
+    private IrBasicBlock treeParent(IrBasicBlock bb) {
+        return bb == root ? null : idom.get(bb);
+    }
+}
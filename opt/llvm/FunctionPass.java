@@ -0,0 +1,26 @@
+package opt.llvm;
+
+import backend.ir.IrFunction;
+
+import java.util.Set;
+
+/**
+ * 作用于单个函数的优化 pass。分析结果一律通过 {@link AnalysisManager} 获取，
+ * 不要自行重算 CFG 或支配树。
+ */
+public interface FunctionPass {
+    String getName();
+
+    /** 运行 pass，返回是否修改了 IR。 */
+    boolean run(IrFunction fn, AnalysisManager am);
+
+    /** 运行前需要的分析，由管理器预先备好。 */
+    default Set<Analysis> required() {
+        return Analysis.NONE;
+    }
+
+    /** 修改 IR 后仍然有效的分析；未修改时全部保留。 */
+    default Set<Analysis> preserved() {
+        return Analysis.NONE;
+    }
+}
@@ -0,0 +1,290 @@
+package opt.llvm;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrConstInt;
+import backend.ir.IrFunction;
+import backend.ir.IrGlobalRef;
+import backend.ir.IrInstruction;
+import backend.ir.IrType;
+import backend.ir.IrValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 沿支配树的全局值编号。表达式以整数数组为键（操作码、谓词/类型编号、操作数值编号），
+ * 进入支配树子节点时继承祖先的表项，离开时撤销本块插入的表项，因此被支配块中的重复计算
+ * 直接复用支配者的结果。
+ * load 的键额外带上其所指内存的“版本号”：store 只推进被写对象（alloca/全局，无法确定时为全部）
+ * 的版本，call 只推进 {@link ModRef} 摘要中它可能写到的对象的版本；块只有唯一前驱且该前驱就是 idom
+ * 时才沿用 idom 末尾的内存状态，否则视为全部失效。store 之后对同一地址的 load 直接取被存入的值。
+ * 不写内存、不做 I/O 的调用像普通表达式一样编号，键中带上它所读对象当时的内存版本。
+ */
+public class Gvn implements FunctionPass {
+    /** 整数编码的表达式键。 */
+    private static final class Key {
+        final int[] parts;
+        final int hash;
+
+        Key(int[] parts) {
+            this.parts = parts;
+            this.hash = Arrays.hashCode(parts);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(parts, ((Key) o).parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /** 块末尾的内存版本，供以其为唯一前驱的子节点继承。 */
+    private static final class MemState {
+        int clobberAll;
+        int latest;
+        final Map<Object, Integer> objectVersion;
+
+        MemState(int clobberAll, int latest, Map<Object, Integer> objectVersion) {
+            this.clobberAll = clobberAll;
+            this.latest = latest;
+            this.objectVersion = objectVersion;
+        }
+
+        MemState copy() {
+            return new MemState(clobberAll, latest, new HashMap<>(objectVersion));
+        }
+    }
+
+    private static final class Frame {
+        final IrBasicBlock block;
+        final List<Key> inserted = new ArrayList<>();
+        MemState memOut;
+        int next;
+
+        Frame(IrBasicBlock block) {
+            this.block = block;
+        }
+    }
+
+    /** 被写地址无法归到某个对象时使用的标记。 */
+    private static final Object UNKNOWN = new Object();
+
+    private final Map<Key, IrValue> table = new HashMap<>();
+    private final Map<IrValue, Integer> valueNumbers = new HashMap<>();
+    private final Map<Object, Integer> canonicalNumbers = new HashMap<>();
+    private final Map<IrValue, IrInstruction> defOf = new HashMap<>();
+    private int version;
+    private MemState mem;
+    private ModRef modRef;
+
+    @Override
+    public String getName() {
+        return "gvn";
+    }
+
+    @Override
+    public Set<Analysis> preserved() {
+        return Analysis.CFG_ONLY;
+    }
+
+    @Override
+    public boolean run(IrFunction fn, AnalysisManager am) {
+        if (fn.getBlocks().isEmpty()) return false;
+        DominatorTree dt = am.getDominatorTree(fn);
+        Cfg cfg = am.getCfg(fn);
+        modRef = am.getModRef();
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                if (ins.getResult() != null) defOf.put(ins.getResult(), ins);
+            }
+        }
+        boolean changed = false;
+        List<Frame> stack = new ArrayList<>();
+        stack.add(new Frame(dt.getEntry()));
+        mem = new MemState(++version, version, new HashMap<>());
+        changed |= visitBlock(stack.get(0));
+        while (!stack.isEmpty()) {
+            Frame top = stack.get(stack.size() - 1);
+            List<IrBasicBlock> children = dt.getChildren(top.block);
+            if (top.next < children.size()) {
+                IrBasicBlock child = children.get(top.next++);
+                Frame f = new Frame(child);
+                if (cfg.uniquePredecessor(child) == top.block) {
+                    mem = top.memOut.copy();
+                } else {
+                    // 经由其它路径也能到达 child，其间的写无从得知
+                    mem = new MemState(++version, version, new HashMap<>());
+                }
+                stack.add(f);
+                changed |= visitBlock(f);
+            } else {
+                for (Key k : top.inserted) table.remove(k);
+                stack.remove(stack.size() - 1);
+            }
+        }
+        table.clear();
+        valueNumbers.clear();
+        canonicalNumbers.clear();
+        defOf.clear();
+        mem = null;
+        modRef = null;
+        return changed;
+    }
+
+    private boolean visitBlock(Frame frame) {
+        boolean changed = false;
+        IrInstruction ins = frame.block.getFirst();
+        while (ins != null) {
+            IrInstruction next = ins.getNext();
+            IrInstruction.Opcode op = ins.getOpcode();
+            if (op == IrInstruction.Opcode.STORE) {
+                IrValue ptr = ins.getOperand(1);
+                clobber(baseObject(ptr));
+                // 随后对同一地址的 load 直接得到存入的值
+                insert(frame, loadKey(ptr), ins.getOperand(0));
+            } else if (op == IrInstruction.Opcode.CALL && !modRef.isReadOnlyCall(ins)) {
+                Set<Object> written = modRef.writtenObjects(ins, defOf);
+                if (written == null) {
+                    clobber(UNKNOWN);
+                } else {
+                    for (Object base : written) clobber(base);
+                }
+            } else if (ins.getResult() != null
+                    && (PURE.contains(op) || op == IrInstruction.Opcode.LOAD || op == IrInstruction.Opcode.CALL)) {
+                Key key;
+                if (op == IrInstruction.Opcode.LOAD) key = loadKey(ins.getOperand(0));
+                else if (op == IrInstruction.Opcode.CALL) key = callKey(ins);
+                else key = exprKey(ins);
+                IrValue leader = table.get(key);
+                if (leader != null && leader.getType() != null && leader.getType().equals(ins.getResult().getType())) {
+                    ins.getResult().replaceAllUsesWith(leader);
+                    ins.eraseFromParent();
+                    changed = true;
+                } else if (leader == null) {
+                    insert(frame, key, ins.getResult());
+                }
+            }
+            ins = next;
+        }
+        frame.memOut = mem;
+        return changed;
+    }
+
+    private void insert(Frame frame, Key key, IrValue value) {
+        if (table.putIfAbsent(key, value) == null) frame.inserted.add(key);
+    }
+
+    /* ---------- keys ---------- */
+    private Key exprKey(IrInstruction ins) {
+        int n = ins.getOperandCount();
+        int[] parts = new int[n + 2];
+        parts[0] = ins.getOpcode().ordinal();
+        if (ins.getOpcode() == IrInstruction.Opcode.ICMP) parts[1] = ins.getPredicate().ordinal();
+        else parts[1] = numberOf(ins.getType());
+        for (int i = 0; i < n; i++) parts[i + 2] = numberOf(ins.getOperand(i));
+        if (COMMUTATIVE.contains(ins.getOpcode()) && parts[2] > parts[3]) {
+            int t = parts[2];
+            parts[2] = parts[3];
+            parts[3] = t;
+        }
+        return new Key(parts);
+    }
+
+    /** 只读调用：被调用者名、内存版本与各实参的值编号。 */
+    private Key callKey(IrInstruction call) {
+        int n = call.getOperandCount();
+        int[] parts = new int[n + 3];
+        parts[0] = IrInstruction.Opcode.CALL.ordinal();
+        parts[1] = canonicalNumbers.computeIfAbsent(Arrays.asList("call", call.getCallee()),
+                k -> canonicalNumbers.size());
+        parts[2] = callMemoryVersion(call);
+        for (int i = 0; i < n; i++) parts[i + 3] = numberOf(call.getOperand(i));
+        return new Key(parts);
+    }
+
+    private Key loadKey(IrValue ptr) {
+        return new Key(new int[]{IrInstruction.Opcode.LOAD.ordinal(), numberOf(ptr), memoryVersion(baseObject(ptr))});
+    }
+
+    /** 值编号：常量按数值与位宽、全局按名字归一，其余按对象身份。 */
+    private int numberOf(IrValue v) {
+        Integer n = valueNumbers.get(v);
+        if (n != null) return n;
+        Object canon = v;
+        if (v instanceof IrConstInt) {
+            int bits = v.getType() != null ? v.getType().getBits() : 32;
+            canon = ((long) bits << 32) | (((IrConstInt) v).getValue() & 0xffffffffL);
+        } else if (v instanceof IrGlobalRef) {
+            canon = v.getName();
+        }
+        n = canonicalNumbers.computeIfAbsent(canon, k -> canonicalNumbers.size());
+        valueNumbers.put(v, n);
+        return n;
+    }
+
+    private int numberOf(IrType t) {
+        return canonicalNumbers.computeIfAbsent(t, k -> canonicalNumbers.size());
+    }
+
+    /* ---------- memory versions ---------- */
+    private Object baseObject(IrValue ptr) {
+        Object base = IrUtils.baseObject(ptr, defOf);
+        return base != null ? base : UNKNOWN;
+    }
+
+    private int memoryVersion(Object base) {
+        if (base == UNKNOWN) return mem.latest;
+        return Math.max(mem.clobberAll, mem.objectVersion.getOrDefault(base, 0));
+    }
+
+    /** 只读调用所读对象的最新版本：摘要中的全局变量与指针实参所指的对象；不读内存时为 0。 */
+    private int callMemoryVersion(IrInstruction call) {
+        ModRef.Summary s = modRef.getSummary(call.getCallee());
+        if (s.readsAny()) return mem.latest;
+        int v = 0;
+        for (String g : s.getReads()) v = Math.max(v, memoryVersion(g));
+        if (s.readsArgs()) {
+            for (IrValue arg : call.getOperands()) {
+                if (arg.getType() != null && arg.getType().getKind() == IrType.Kind.POINTER) {
+                    v = Math.max(v, memoryVersion(baseObject(arg)));
+                }
+            }
+        }
+        return v;
+    }
+
+    private void clobber(Object base) {
+        mem = mem.copy();
+        version++;
+        if (base == UNKNOWN) mem.clobberAll = version;
+        else mem.objectVersion.put(base, version);
+        mem.latest = version;
+    }
+
+    private static final EnumSet<IrInstruction.Opcode> PURE = EnumSet.of(
+            IrInstruction.Opcode.ADD,
+            IrInstruction.Opcode.SUB,
+            IrInstruction.Opcode.MUL,
+            IrInstruction.Opcode.SDIV,
+            IrInstruction.Opcode.SREM,
+            IrInstruction.Opcode.XOR,
+            IrInstruction.Opcode.ZEXT,
+            IrInstruction.Opcode.ICMP,
+            IrInstruction.Opcode.GEP
+    );
+
+    private static final EnumSet<IrInstruction.Opcode> COMMUTATIVE = EnumSet.of(
+            IrInstruction.Opcode.ADD,
+            IrInstruction.Opcode.MUL,
+            IrInstruction.Opcode.XOR
+    );
+}
@@ -0,0 +1,198 @@
+package opt.llvm;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrConstInt;
+import backend.ir.IrInstruction;
+import backend.ir.IrRegister;
+import backend.ir.IrValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 单个循环的归纳变量：首部 phi 形如 {@code i = phi [init, preheader], [i + c, latch]}
+ * （c 为常量，也可以是展开后的多次常量加减）即基本归纳变量，记作加法递推 {init,+,c}。
+ * 循环内的值若能写成 {@code scale * i + invariant + constant}（scale、constant 为常量，
+ * invariant 为至多一个循环不变量），则是 i 的仿射函数，即递推 {scale*init+invariant+constant,+,scale*c}。
+ * 只识别 add/sub/mul，溢出按 32 位回绕，与运行时一致。
+ */
+public class InductionVariables {
+    /** 基本归纳变量 {start,+,step}。 */
+    public static final class BasicIv {
+        private final IrInstruction phi;
+        private final IrValue start;
+        private final int step;
+
+        private BasicIv(IrInstruction phi, IrValue start, int step) {
+            this.phi = phi;
+            this.start = start;
+            this.step = step;
+        }
+
+        public IrInstruction getPhi() {
+            return phi;
+        }
+
+        public IrValue getStart() {
+            return start;
+        }
+
+        public int getStep() {
+            return step;
+        }
+    }
+
+    /** 相对某个基本归纳变量的仿射式 scale*iv + invariant + constant；invariant 可为 null。 */
+    public static final class Affine {
+        private final BasicIv iv;
+        private final int scale;
+        private final IrValue invariant;
+        private final int constant;
+
+        private Affine(BasicIv iv, int scale, IrValue invariant, int constant) {
+            this.iv = iv;
+            this.scale = scale;
+            this.invariant = invariant;
+            this.constant = constant;
+        }
+
+        public BasicIv getIv() {
+            return iv;
+        }
+
+        public int getScale() {
+            return scale;
+        }
+
+        public IrValue getInvariant() {
+            return invariant;
+        }
+
+        public int getConstant() {
+            return constant;
+        }
+
+        /** 每次迭代的增量，即递推的 step。 */
+        public int getStep() {
+            return scale * iv.step;
+        }
+    }
+
+    private final LoopInfo.Loop loop;
+    private final Map<IrValue, IrInstruction> defOf;
+    private final IrBasicBlock preheader;
+    private final IrBasicBlock latch;
+    private final List<BasicIv> ivs = new ArrayList<>();
+    private final Map<IrValue, BasicIv> byPhi = new HashMap<>();
+    private final Map<IrValue, Affine> cache = new HashMap<>();
+
+    /** 循环须有前置块与唯一回边；否则不识别任何归纳变量。 */
+    public InductionVariables(LoopInfo.Loop loop, IrBasicBlock preheader, Map<IrValue, IrInstruction> defOf) {
+        this.loop = loop;
+        this.defOf = defOf;
+        this.preheader = preheader;
+        this.latch = loop.getLatches().size() == 1 ? loop.getLatches().get(0) : null;
+        if (preheader == null || latch == null) return;
+        for (IrInstruction phi : loop.getHeader().getInstructions()) {
+            if (phi.getOpcode() != IrInstruction.Opcode.PHI) break;
+            BasicIv iv = recognize(phi);
+            if (iv != null) {
+                ivs.add(iv);
+                byPhi.put(phi.getResult(), iv);
+            }
+        }
+    }
+
+    public List<BasicIv> getBasicIvs() {
+        return Collections.unmodifiableList(ivs);
+    }
+
+    public IrBasicBlock getPreheader() {
+        return preheader;
+    }
+
+    public IrBasicBlock getLatch() {
+        return latch;
+    }
+
+    public boolean isInvariant(IrValue v) {
+        if (!(v instanceof IrRegister)) return true;
+        IrInstruction def = defOf.get(v);
+        return def == null || !loop.contains(def.getParent());
+    }
+
+    /** v 关于某个基本归纳变量的仿射式；不是（或是循环不变量）时返回 null。 */
+    public Affine affine(IrValue v) {
+        if (cache.containsKey(v)) return cache.get(v);
+        Affine res = compute(v);
+        cache.put(v, res);
+        return res;
+    }
+
+    /* ---------- recognition ---------- */
+    private BasicIv recognize(IrInstruction phi) {
+        if (phi.getOperandCount() != 4 || !phi.getResult().getType().isInt(32)) return null;
+        IrValue start = null;
+        IrValue next = null;
+        for (int k = 0; k < 4; k += 2) {
+            String from = phi.getOperand(k + 1).getName();
+            if (from.equals(preheader.getLabel())) start = phi.getOperand(k);
+            else if (from.equals(latch.getLabel())) next = phi.getOperand(k);
+        }
+        if (start == null || next == null) return null;
+        IrInstruction def = defOf.get(next);
+        if (def == null || !loop.contains(def.getParent())) return null;
+        Integer step = IrUtils.stepOf(next, phi.getResult(), defOf);
+        return step == null || step == 0 ? null : new BasicIv(phi, start, step);
+    }
+
+    /** 不变量记作 scale=0 的仿射式（iv 为 null），便于统一合并。 */
+    private Affine compute(IrValue v) {
+        if (v instanceof IrConstInt) return new Affine(null, 0, null, ((IrConstInt) v).getValue());
+        if (isInvariant(v)) return new Affine(null, 0, v, 0);
+        BasicIv iv = byPhi.get(v);
+        if (iv != null) return new Affine(iv, 1, null, 0);
+        IrInstruction def = defOf.get(v);
+        if (def == null || def.getOperandCount() != 2 || !v.getType().isInt(32)) return null;
+        Affine a;
+        Affine b;
+        switch (def.getOpcode()) {
+            case ADD:
+                if ((a = affine(def.getOperand(0))) == null || (b = affine(def.getOperand(1))) == null) return null;
+                return combine(a, b, 1);
+            case SUB:
+                if ((a = affine(def.getOperand(0))) == null || (b = affine(def.getOperand(1))) == null) return null;
+                if (b.invariant != null) return null;
+                return combine(a, b, -1);
+            case MUL:
+                if ((a = affine(def.getOperand(0))) == null || (b = affine(def.getOperand(1))) == null) return null;
+                if (isConstant(b)) return scale(a, b.constant);
+                if (isConstant(a)) return scale(b, a.constant);
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isConstant(Affine a) {
+        return a.iv == null && a.invariant == null;
+    }
+
+    private static Affine combine(Affine a, Affine b, int sign) {
+        if (a.iv != null && b.iv != null && a.iv != b.iv) return null;
+        if (a.invariant != null && b.invariant != null) return null;
+        BasicIv iv = a.iv != null ? a.iv : b.iv;
+        int scale = a.scale + sign * b.scale;
+        return new Affine(scale == 0 ? null : iv, scale, a.invariant != null ? a.invariant : b.invariant,
+                a.constant + sign * b.constant);
+    }
+
+    private static Affine scale(Affine a, int k) {
+        if (a.invariant != null && k != 1) return null;
+        int scale = a.scale * k;
+        return new Affine(scale == 0 ? null : a.iv, scale, a.invariant, a.constant * k);
+    }
+}
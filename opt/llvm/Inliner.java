@@ -0,0 +1,207 @@
+package opt.llvm;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrConstInt;
+import backend.ir.IrFunction;
+import backend.ir.IrGlobalRef;
+import backend.ir.IrInstruction;
+import backend.ir.IrLabel;
+import backend.ir.IrRegister;
+import backend.ir.IrValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 函数内联。{@link PassManager} 按调用图自底向上处理函数，轮到调用者时被调用者已经优化完毕，
+ * 这里只需把 call 替换为被调用者函数体的副本：调用点所在块在 call 处一分为二，
+ * 副本中的 ret 改为跳到后半块，多个返回值经后半块开头的 phi 汇合；副本中的 alloca 移到调用者入口块。
+ * 静态局部变量是模块级全局（newStaticLabel），副本与原函数引用同一个全局，状态自然共享。
+ * <p>
+ * 代价模型：被调用者的指令数减去调用本身的开销（传参、jal、序言/尾声）与常量实参带来的收益，
+ * 与阈值比较；调用点在循环中时阈值按嵌套深度放大，被调用者只有这一个调用点时也放宽。
+ * 同一递归分量内的调用从不内联；递归函数可以被分量外的调用者内联一层，
+ * 副本里的递归调用不会再被展开，因此增长有界。
+ */
+public class Inliner implements FunctionPass {
+    /** 不超过此规模总是内联。 */
+    private static final int ALWAYS_SIZE = 12;
+    private static final int BASE_THRESHOLD = 30;
+    /** 每层循环嵌套增加的阈值（最多计两层）。 */
+    private static final int LOOP_BONUS = 60;
+    /** 唯一调用点的阈值：内联后原函数即可删除，代码量不增加。 */
+    private static final int SINGLE_SITE_THRESHOLD = 200;
+    /** 省去的 jal、jr 与序言/尾声的大致指令数。 */
+    private static final int CALL_OVERHEAD = 8;
+    private static final int ARG_BONUS = 2;
+    private static final int CONST_ARG_BONUS = 4;
+    /** 调用者内联后的规模上限。 */
+    private static final int MAX_CALLER_SIZE = 2000;
+
+    private final CallGraph callGraph;
+    private int nextId;
+
+    public Inliner(CallGraph callGraph) {
+        this.callGraph = callGraph;
+    }
+
+    @Override
+    public String getName() {
+        return "inline";
+    }
+
+    @Override
+    public boolean run(IrFunction fn, AnalysisManager am) {
+        if (fn.getBlocks().isEmpty()) return false;
+        LoopInfo loops = am.getLoopInfo(fn);
+        // 只处理原有的调用点，副本中新出现的 call 不再展开
+        List<IrInstruction> calls = new ArrayList<>();
+        Map<IrInstruction, Integer> depth = new HashMap<>();
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                if (callGraph.getCallee(ins) == null) continue;
+                calls.add(ins);
+                depth.put(ins, loops.getDepth(bb));
+            }
+        }
+        int size = sizeOf(fn);
+        boolean changed = false;
+        for (IrInstruction call : calls) {
+            IrFunction callee = callGraph.getCallee(call);
+            if (!shouldInline(fn, call, callee, depth.get(call), size)) continue;
+            size += sizeOf(callee);
+            inline(fn, call, callee);
+            changed = true;
+        }
+        if (changed) am.invalidateAll(fn);
+        return changed;
+    }
+
+    /* ---------- cost model ---------- */
+    private boolean shouldInline(IrFunction caller, IrInstruction call, IrFunction callee, int loopDepth,
+                                 int callerSize) {
+        if (callee == caller || callGraph.inSameScc(caller, callee)) return false;
+        if (callee.getBlocks().isEmpty()) return false;
+        // 入口块是循环首部（带 phi）时，副本的入口还需要额外的前驱处理，不内联
+        IrInstruction first = callee.getBlocks().get(0).getFirst();
+        if (first != null && first.getOpcode() == IrInstruction.Opcode.PHI) return false;
+        int calleeSize = sizeOf(callee);
+        if (callerSize + calleeSize > MAX_CALLER_SIZE) return false;
+        if (calleeSize <= ALWAYS_SIZE) return true;
+        int cost = calleeSize - CALL_OVERHEAD;
+        for (IrValue arg : call.getOperands()) {
+            cost -= arg instanceof IrConstInt ? CONST_ARG_BONUS : ARG_BONUS;
+        }
+        int threshold = BASE_THRESHOLD + LOOP_BONUS * Math.min(loopDepth, 2);
+        if (callGraph.getCallSiteCount(callee) == 1 && !callGraph.isRecursive(callee)) {
+            threshold = Math.max(threshold, SINGLE_SITE_THRESHOLD);
+        }
+        return cost <= threshold;
+    }
+
+    private static int sizeOf(IrFunction fn) {
+        int n = 0;
+        for (IrBasicBlock bb : fn.getBlocks()) n += bb.size();
+        return n;
+    }
+
+    /* ---------- transformation ---------- */
+    private void inline(IrFunction fn, IrInstruction call, IrFunction callee) {
+        String tag = "_i" + (nextId++);
+        IrBasicBlock bb = call.getParent();
+        List<IrBasicBlock> blocks = fn.getBlocks();
+
+        // call 之后的指令移到后半块，后继 phi 的入边随之改名
+        IrBasicBlock cont = newBlock(fn, bb.getLabel() + tag);
+        for (IrInstruction ins = call.getNext(); ins != null; ) {
+            IrInstruction next = ins.getNext();
+            ins.removeFromParent();
+            cont.addInstruction(ins);
+            ins = next;
+        }
+        IrInstruction term = cont.getTerminator();
+        if (term != null) {
+            for (IrValue op : term.getOperands()) {
+                if (op instanceof IrLabel) IrUtils.renamePhiIncoming(fn, fn.getBlock(op.getName()), bb.getLabel(),
+                        cont.getLabel());
+            }
+        }
+
+        // 复制函数体：形参换成实参，寄存器与标签加后缀
+        Map<IrValue, IrValue> values = new HashMap<>();
+        for (int i = 0; i < callee.getParams().size(); i++) values.put(callee.getParams().get(i), call.getOperand(i));
+        Map<String, IrLabel> labels = new HashMap<>();
+        Map<IrBasicBlock, IrBasicBlock> copies = new HashMap<>();
+        for (IrBasicBlock src : callee.getBlocks()) {
+            IrBasicBlock copy = newBlock(fn, callee.getName() + "_" + src.getLabel() + tag);
+            copies.put(src, copy);
+            labels.put(src.getLabel(), fn.getOrCreateLabel(copy.getLabel()));
+            for (IrInstruction ins : src.getInstructions()) {
+                IrRegister r = ins.getResult();
+                if (r != null) values.put(r, new IrRegister(r.getName() + ".i" + tag.substring(2), r.getType()));
+            }
+        }
+        IrLabel contLabel = fn.getOrCreateLabel(cont.getLabel());
+        List<IrValue> returned = new ArrayList<>();
+        IrBasicBlock entry = blocks.get(0);
+        for (IrBasicBlock src : callee.getBlocks()) {
+            IrBasicBlock copy = copies.get(src);
+            for (IrInstruction ins : src.getInstructions()) {
+                if (ins.getOpcode() == IrInstruction.Opcode.RET) {
+                    if (ins.getOperandCount() > 0) {
+                        returned.add(mapValue(ins.getOperand(0), values));
+                        returned.add(fn.getOrCreateLabel(copy.getLabel()));
+                    }
+                    copy.addInstruction(IrInstruction.br(contLabel));
+                    continue;
+                }
+                List<IrValue> ops = new ArrayList<>();
+                for (IrValue op : ins.getOperands()) {
+                    if (op instanceof IrLabel) ops.add(labels.get(op.getName()));
+                    else ops.add(mapValue(op, values));
+                }
+                IrInstruction clone = ins.copy((IrRegister) values.get(ins.getResult()), ops);
+                if (ins.getOpcode() == IrInstruction.Opcode.ALLOCA) entry.prepend(clone);
+                else copy.addInstruction(clone);
+            }
+        }
+
+        // 返回值：唯一的 ret 直接替换，多个 ret 在后半块开头用 phi 汇合
+        IrRegister result = call.getResult();
+        if (result != null && result.hasUses()) {
+            if (returned.size() == 2) result.replaceAllUsesWith(returned.get(0));
+            else if (!returned.isEmpty()) cont.prepend(IrInstruction.phi(result, returned));
+        }
+        call.eraseFromParent();
+        bb.addInstruction(IrInstruction.br(labels.get(callee.getBlocks().get(0).getLabel())));
+
+        int at = blocks.indexOf(bb) + 1;
+        List<IrBasicBlock> placed = new ArrayList<>();
+        for (IrBasicBlock src : callee.getBlocks()) placed.add(copies.get(src));
+        placed.add(cont);
+        blocks.addAll(at, placed);
+    }
+
+    /** 常量与全局引用的 use 链挂在对象上，副本用新对象，避免两个函数共用同一条 use 链。 */
+    private static IrValue mapValue(IrValue v, Map<IrValue, IrValue> values) {
+        IrValue mapped = values.get(v);
+        if (mapped != null) return mapped;
+        if (v instanceof IrConstInt) return new IrConstInt(((IrConstInt) v).getValue(), v.getType().getBits());
+        if (v instanceof IrGlobalRef) {
+            IrGlobalRef ref = new IrGlobalRef(v.getName());
+            ref.setType(v.getType());
+            return ref;
+        }
+        return v;
+    }
+
+    /** 在 fn 中登记一个新块（标签与块映射），但不放进块列表，由调用方决定位置。 */
+    private static IrBasicBlock newBlock(IrFunction fn, String label) {
+        IrBasicBlock b = new IrBasicBlock(label);
+        fn.addBlock(b);
+        fn.getBlocks().remove(fn.getBlocks().size() - 1);
+        return b;
+    }
+}
@@ -0,0 +1,149 @@
+package opt.llvm;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrConstInt;
+import backend.ir.IrFunction;
+import backend.ir.IrGlobalRef;
+import backend.ir.IrInstruction;
+import backend.ir.IrLabel;
+import backend.ir.IrRegister;
+import backend.ir.IrValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 各优化共享的 IR 工具：替换使用、phi 入边维护、常量求值。
+ */
+public final class IrUtils {
+    private IrUtils() {
+    }
+
+    /** 替换 reg 的所有使用：沿 use 链逐个改写操作数槽，代价与使用数成正比。 */
+    public static void replaceAllUses(IrRegister reg, IrValue replacement) {
+        reg.replaceAllUsesWith(replacement);
+    }
+
+    /** 删除 bb 中所有 phi 来自 pred 的入边。 */
+    public static void removePhiIncoming(IrBasicBlock bb, String predLabel) {
+        IrInstruction phi = bb.getFirst();
+        while (phi != null && phi.getOpcode() == IrInstruction.Opcode.PHI) {
+            IrInstruction next = phi.getNext();
+            List<IrValue> ops = new ArrayList<>();
+            for (int k = 0; k + 1 < phi.getOperandCount(); k += 2) {
+                if (predLabel.equals(phi.getOperand(k + 1).getName())) continue;
+                ops.add(phi.getOperand(k));
+                ops.add(phi.getOperand(k + 1));
+            }
+            if (ops.size() != phi.getOperandCount()) bb.replace(phi, IrInstruction.phi(phi.getResult(), ops));
+            phi = next;
+        }
+    }
+
+    /** 把 bb 中 phi 来自 oldPred 的入边改为来自 newPred。 */
+    public static void renamePhiIncoming(IrFunction fn, IrBasicBlock bb, String oldPred, String newPred) {
+        IrLabel label = fn.getOrCreateLabel(newPred);
+        for (IrInstruction phi : bb.getInstructions()) {
+            if (phi.getOpcode() != IrInstruction.Opcode.PHI) break;
+            for (int k = 1; k < phi.getOperandCount(); k += 2) {
+                if (oldPred.equals(phi.getOperand(k).getName())) phi.replaceOperand(k, label);
+            }
+        }
+    }
+
+    /**
+     * 在边 pred→succ 上插入只含一条跳转的新块 label，放在 pred 之后，并改写 pred 的跳转目标与
+     * succ 中 phi 的入边。缓存的分析由调用方经 {@link AnalysisManager#onEdgeSplit} 更新。
+     */
+    public static IrBasicBlock splitEdge(IrFunction fn, IrBasicBlock pred, IrBasicBlock succ, String label) {
+        IrBasicBlock mid = new IrBasicBlock(label);
+        mid.addInstruction(IrInstruction.br(fn.getOrCreateLabel(succ.getLabel())));
+        fn.addBlock(mid);
+        List<IrBasicBlock> blocks = fn.getBlocks();
+        blocks.remove(blocks.size() - 1);
+        blocks.add(blocks.indexOf(pred) + 1, mid);
+        IrInstruction term = pred.getLast();
+        IrLabel midLabel = fn.getOrCreateLabel(label);
+        for (int k = 0; k < term.getOperandCount(); k++) {
+            if (term.getOperand(k) instanceof IrLabel && succ.getLabel().equals(term.getOperand(k).getName())) {
+                term.replaceOperand(k, midLabel);
+            }
+        }
+        renamePhiIncoming(fn, succ, pred.getLabel(), label);
+        return mid;
+    }
+
+    /**
+     * 指针所指的对象：沿 gep 回溯到 alloca 的结果或全局名（String）；参数等来源不明时返回 null。
+     * defOf 是函数内寄存器到其定义指令的映射。
+     */
+    public static Object baseObject(IrValue ptr, Map<IrValue, IrInstruction> defOf) {
+        while (true) {
+            if (ptr instanceof IrGlobalRef) return ptr.getName();
+            IrInstruction def = defOf.get(ptr);
+            if (def == null) return null;
+            if (def.getOpcode() == IrInstruction.Opcode.ALLOCA) return ptr;
+            if (def.getOpcode() != IrInstruction.Opcode.GEP) return null;
+            ptr = def.getOperand(0);
+        }
+    }
+
+    /**
+     * v 是否为 phi 加上若干常量（经 add/sub 链）；是则返回累计的常量，否则返回 null。
+     * 用于识别回边上 {@code i + c} 形式的递增，展开后的 {@code ((i + 1) + 1) + 1} 也能识别。
+     */
+    public static Integer stepOf(IrValue v, IrValue phi, Map<IrValue, IrInstruction> defOf) {
+        int step = 0;
+        while (v != phi) {
+            IrInstruction def = defOf.get(v);
+            if (def == null) return null;
+            IrValue a = def.getOperand(0);
+            IrValue b = def.getOperandCount() > 1 ? def.getOperand(1) : null;
+            if (def.getOpcode() == IrInstruction.Opcode.ADD && b instanceof IrConstInt) {
+                step += ((IrConstInt) b).getValue();
+                v = a;
+            } else if (def.getOpcode() == IrInstruction.Opcode.ADD && a instanceof IrConstInt) {
+                step += ((IrConstInt) a).getValue();
+                v = b;
+            } else if (def.getOpcode() == IrInstruction.Opcode.SUB && b instanceof IrConstInt) {
+                step -= ((IrConstInt) b).getValue();
+                v = a;
+            } else {
+                return null;
+            }
+        }
+        return step;
+    }
+
+    /** 以 a、b 为操作数对二元运算或 icmp 求值；不可折叠（含除零）时返回 null。 */
+    public static Integer evaluate(IrInstruction ins, int a, int b) {
+        switch (ins.getOpcode()) {
+            case ADD: return a + b;
+            case SUB: return a - b;
+            case MUL: return a * b;
+            case SDIV: return b == 0 ? null : a / b;
+            case SREM: return b == 0 ? null : a % b;
+            case XOR: return a ^ b;
+            case ICMP: return ins.getPredicate().evaluate(a, b) ? 1 : 0;
+            default: return null;
+        }
+    }
+
+    /** 若 phi 的入值（忽略自身）唯一，返回该值，否则返回 null。 */
+    public static IrValue trivialPhiValue(IrInstruction phi) {
+        IrValue same = null;
+        for (int k = 0; k + 1 < phi.getOperandCount(); k += 2) {
+            IrValue v = phi.getOperand(k);
+            if (v == phi.getResult() || v == same) continue;
+            if (same != null && !sameConst(same, v)) return null;
+            same = v;
+        }
+        return same;
+    }
+
+    private static boolean sameConst(IrValue a, IrValue b) {
+        return a instanceof IrConstInt && b instanceof IrConstInt
+                && ((IrConstInt) a).getValue() == ((IrConstInt) b).getValue();
+    }
+}
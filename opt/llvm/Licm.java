@@ -0,0 +1,170 @@
+package opt.llvm;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrConstInt;
+import backend.ir.IrFunction;
+import backend.ir.IrGlobalRef;
+import backend.ir.IrInstruction;
+import backend.ir.IrRegister;
+import backend.ir.IrValue;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 循环不变量外提：由内向外处理每个循环，把操作数都在循环外定义的无副作用运算
+ * （算术、比较、gep）以及不会被循环内写入的 load 移到前置块末尾。
+ * 首部只有一个循环外前驱而该前驱还有别的后继时，在这条边上拆出前置块；
+ * 有多个循环外前驱的循环不处理。
+ * 前置块在循环一次都不执行时也会运行，因此只外提不会出错的指令：除法要求除数是非零常量，
+ * load 要求地址是常量下标的 alloca/全局（或 load 所在块支配循环的所有出口）。
+ */
+public class Licm implements FunctionPass {
+    private final Map<IrValue, IrInstruction> defOf = new HashMap<>();
+
+    @Override
+    public String getName() {
+        return "licm";
+    }
+
+    @Override
+    public Set<Analysis> preserved() {
+        // 拆出的前置块已经通过 AnalysisManager#onEdgeSplit 同步到缓存的分析
+        return Analysis.CFG_ONLY;
+    }
+
+    @Override
+    public boolean run(IrFunction fn, AnalysisManager am) {
+        if (fn.getBlocks().isEmpty()) return false;
+        LoopInfo loops = am.getLoopInfo(fn);
+        if (loops.getLoops().isEmpty()) return false;
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                if (ins.getResult() != null) defOf.put(ins.getResult(), ins);
+            }
+        }
+        boolean changed = false;
+        for (LoopInfo.Loop loop : loops.getLoops()) {
+            IrBasicBlock preheader = ensurePreheader(fn, am, loop);
+            if (preheader == null) continue;
+            changed |= hoist(loop, preheader, am.getCfg(fn), am.getDominatorTree(fn), am.getModRef());
+        }
+        defOf.clear();
+        return changed;
+    }
+
+    /* ---------- preheader ---------- */
+    private IrBasicBlock ensurePreheader(IrFunction fn, AnalysisManager am, LoopInfo.Loop loop) {
+        Cfg cfg = am.getCfg(fn);
+        IrBasicBlock preheader = loop.getPreheader(cfg);
+        if (preheader != null) return preheader;
+        List<IrBasicBlock> entering = loop.getEnteringBlocks(cfg);
+        if (entering.size() != 1) return null;
+        IrBasicBlock pred = entering.get(0);
+        IrBasicBlock header = loop.getHeader();
+        String label = header.getLabel() + "_ph";
+        for (int k = 1; fn.getBlock(label) != null; k++) label = header.getLabel() + "_ph" + k;
+        IrBasicBlock mid = IrUtils.splitEdge(fn, pred, header, label);
+        am.onEdgeSplit(fn, pred, header, mid);
+        return mid;
+    }
+
+    /* ---------- hoisting ---------- */
+    private boolean hoist(LoopInfo.Loop loop, IrBasicBlock preheader, Cfg cfg, DominatorTree dt, ModRef modRef) {
+        // 循环内的写：写入来源不明的指针，或调用的副作用摘要无法确定写到哪里时，视为写了全部内存
+        Set<Object> written = new HashSet<>();
+        boolean writesAll = false;
+        for (IrBasicBlock bb : loop.getBlocks()) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                if (ins.getOpcode() == IrInstruction.Opcode.CALL) {
+                    Set<Object> w = modRef.writtenObjects(ins, defOf);
+                    if (w == null) writesAll = true;
+                    else written.addAll(w);
+                } else if (ins.getOpcode() == IrInstruction.Opcode.STORE) {
+                    Object base = IrUtils.baseObject(ins.getOperand(1), defOf);
+                    if (base == null) writesAll = true;
+                    else written.add(base);
+                }
+            }
+        }
+        List<IrBasicBlock> exiting = loop.getExitingBlocks(cfg);
+        IrInstruction insertPos = preheader.getTerminator();
+        boolean changed = false;
+        // 逆后序保证定义先于（被支配的）使用处理，一趟即可把不变量链整体外提
+        for (IrBasicBlock bb : dt.getReversePostOrder()) {
+            if (!loop.contains(bb)) continue;
+            IrInstruction ins = bb.getFirst();
+            while (ins != null) {
+                IrInstruction next = ins.getNext();
+                if (canHoist(ins, loop, bb, exiting, written, writesAll, dt)) {
+                    ins.removeFromParent();
+                    preheader.insertBefore(insertPos, ins);
+                    changed = true;
+                }
+                ins = next;
+            }
+        }
+        return changed;
+    }
+
+    private boolean canHoist(IrInstruction ins, LoopInfo.Loop loop, IrBasicBlock bb, List<IrBasicBlock> exiting,
+                             Set<Object> written, boolean writesAll, DominatorTree dt) {
+        IrInstruction.Opcode op = ins.getOpcode();
+        if (ins.getResult() == null) return false;
+        if (!SPECULATABLE.contains(op) && op != IrInstruction.Opcode.LOAD) return false;
+        for (IrValue v : ins.getOperands()) {
+            if (!isInvariant(v, loop)) return false;
+        }
+        if (op == IrInstruction.Opcode.SDIV || op == IrInstruction.Opcode.SREM) {
+            IrValue d = ins.getOperand(1);
+            return d instanceof IrConstInt && ((IrConstInt) d).getValue() != 0;
+        }
+        if (op != IrInstruction.Opcode.LOAD) return true;
+        IrValue ptr = ins.getOperand(0);
+        Object base = IrUtils.baseObject(ptr, defOf);
+        if (writesAll || (base == null ? !written.isEmpty() : written.contains(base))) return false;
+        if (isFixedAddress(ptr)) return true;
+        if (exiting.isEmpty()) return false;
+        for (IrBasicBlock e : exiting) {
+            if (!dt.dominates(bb, e)) return false;
+        }
+        return true;
+    }
+
+    private boolean isInvariant(IrValue v, LoopInfo.Loop loop) {
+        if (!(v instanceof IrRegister)) return true;
+        IrInstruction def = defOf.get(v);
+        return def == null || !loop.contains(def.getParent());
+    }
+
+    /** 地址是否为 alloca/全局加常量下标，这样的 load 提前执行也不会越界。 */
+    private boolean isFixedAddress(IrValue ptr) {
+        while (true) {
+            if (ptr instanceof IrGlobalRef) return true;
+            IrInstruction def = defOf.get(ptr);
+            if (def == null) return false;
+            if (def.getOpcode() == IrInstruction.Opcode.ALLOCA) return true;
+            if (def.getOpcode() != IrInstruction.Opcode.GEP) return false;
+            for (int k = 1; k < def.getOperandCount(); k++) {
+                if (!(def.getOperand(k) instanceof IrConstInt)) return false;
+            }
+            ptr = def.getOperand(0);
+        }
+    }
+
+    private static final EnumSet<IrInstruction.Opcode> SPECULATABLE = EnumSet.of(
+            IrInstruction.Opcode.ADD,
+            IrInstruction.Opcode.SUB,
+            IrInstruction.Opcode.MUL,
+            IrInstruction.Opcode.SDIV,
+            IrInstruction.Opcode.SREM,
+            IrInstruction.Opcode.XOR,
+            IrInstruction.Opcode.ZEXT,
+            IrInstruction.Opcode.ICMP,
+            IrInstruction.Opcode.GEP
+    );
+}
@@ -0,0 +1,178 @@
+package opt.llvm;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrFunction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 自然循环与循环嵌套树。回边 b→h 指 h 支配 b 的边；同一首部的回边合并为一个循环，
+ * 循环体是能不经过首部到达某条回边源点的块。内层循环的父节点是包含其首部的最小外层循环。
+ * 由 {@link AnalysisManager} 缓存；拆边后经 {@link #splitEdge} 增量更新。
+ */
+public class LoopInfo {
+    public static final class Loop {
+        private final IrBasicBlock header;
+        private final Set<IrBasicBlock> blocks = new LinkedHashSet<>();
+        private final List<IrBasicBlock> latches = new ArrayList<>();
+        private final List<Loop> children = new ArrayList<>();
+        private Loop parent;
+        private int depth = 1;
+
+        private Loop(IrBasicBlock header) {
+            this.header = header;
+            blocks.add(header);
+        }
+
+        public IrBasicBlock getHeader() {
+            return header;
+        }
+
+        public Set<IrBasicBlock> getBlocks() {
+            return Collections.unmodifiableSet(blocks);
+        }
+
+        /** 回边的源点。 */
+        public List<IrBasicBlock> getLatches() {
+            return Collections.unmodifiableList(latches);
+        }
+
+        public boolean contains(IrBasicBlock bb) {
+            return blocks.contains(bb);
+        }
+
+        public Loop getParent() {
+            return parent;
+        }
+
+        public List<Loop> getChildren() {
+            return Collections.unmodifiableList(children);
+        }
+
+        /** 最外层循环深度为 1。 */
+        public int getDepth() {
+            return depth;
+        }
+
+        /** 循环首部在循环外的前驱。 */
+        public List<IrBasicBlock> getEnteringBlocks(Cfg cfg) {
+            List<IrBasicBlock> res = new ArrayList<>();
+            for (IrBasicBlock p : cfg.predecessors(header)) {
+                if (!blocks.contains(p)) res.add(p);
+            }
+            return res;
+        }
+
+        /** 有后继在循环外的循环块。 */
+        public List<IrBasicBlock> getExitingBlocks(Cfg cfg) {
+            List<IrBasicBlock> res = new ArrayList<>();
+            for (IrBasicBlock bb : blocks) {
+                for (IrBasicBlock s : cfg.successors(bb)) {
+                    if (!blocks.contains(s)) {
+                        res.add(bb);
+                        break;
+                    }
+                }
+            }
+            return res;
+        }
+
+        /** 唯一的入口前驱且它只跳往首部时即为前置块，否则返回 null。 */
+        public IrBasicBlock getPreheader(Cfg cfg) {
+            List<IrBasicBlock> entering = getEnteringBlocks(cfg);
+            if (entering.size() != 1) return null;
+            IrBasicBlock p = entering.get(0);
+            return cfg.successors(p).size() == 1 ? p : null;
+        }
+    }
+
+    /** 由内到外：每个循环都排在包含它的循环之前。 */
+    private final List<Loop> loops = new ArrayList<>();
+    private final List<Loop> topLevel = new ArrayList<>();
+    private final Map<IrBasicBlock, Loop> innermost = new HashMap<>();
+
+    public LoopInfo(IrFunction fn) {
+        this(fn, new Cfg(fn));
+    }
+
+    private LoopInfo(IrFunction fn, Cfg cfg) {
+        this(cfg, new DominatorTree(fn, cfg));
+    }
+
+    public LoopInfo(Cfg cfg, DominatorTree dt) {
+        Map<IrBasicBlock, Loop> byHeader = new LinkedHashMap<>();
+        for (IrBasicBlock bb : dt.getReversePostOrder()) {
+            for (IrBasicBlock s : cfg.successors(bb)) {
+                if (dt.dominates(s, bb)) byHeader.computeIfAbsent(s, Loop::new).latches.add(bb);
+            }
+        }
+        for (Loop loop : byHeader.values()) {
+            List<IrBasicBlock> work = new ArrayList<>(loop.latches);
+            while (!work.isEmpty()) {
+                IrBasicBlock bb = work.remove(work.size() - 1);
+                if (!loop.blocks.add(bb)) continue;
+                for (IrBasicBlock p : cfg.predecessors(bb)) {
+                    if (dt.isReachable(p) && !loop.blocks.contains(p)) work.add(p);
+                }
+            }
+            loops.add(loop);
+        }
+        loops.sort((a, b) -> Integer.compare(a.blocks.size(), b.blocks.size()));
+        for (int i = 0; i < loops.size(); i++) {
+            Loop loop = loops.get(i);
+            for (int j = i + 1; j < loops.size(); j++) {
+                if (loops.get(j).blocks.contains(loop.header)) {
+                    loop.parent = loops.get(j);
+                    loop.parent.children.add(loop);
+                    break;
+                }
+            }
+            for (IrBasicBlock bb : loop.blocks) innermost.putIfAbsent(bb, loop);
+        }
+        for (int i = loops.size() - 1; i >= 0; i--) {
+            Loop loop = loops.get(i);
+            if (loop.parent == null) topLevel.add(0, loop);
+            else loop.depth = loop.parent.depth + 1;
+        }
+    }
+
+    /** 所有循环，内层在前。 */
+    public List<Loop> getLoops() {
+        return Collections.unmodifiableList(loops);
+    }
+
+    public List<Loop> getTopLevelLoops() {
+        return Collections.unmodifiableList(topLevel);
+    }
+
+    /** 包含 bb 的最内层循环；不在循环中时返回 null。 */
+    public Loop getLoopFor(IrBasicBlock bb) {
+        return innermost.get(bb);
+    }
+
+    /** bb 的循环嵌套深度，不在循环中为 0。 */
+    public int getDepth(IrBasicBlock bb) {
+        Loop loop = innermost.get(bb);
+        return loop == null ? 0 : loop.depth;
+    }
+
+    /** CFG 边 pred→succ 上插入了新块 mid：mid 属于同时包含两端的循环，拆开回边时 mid 成为新的回边源点。 */
+    public void splitEdge(IrBasicBlock pred, IrBasicBlock succ, IrBasicBlock mid) {
+        for (Loop loop : loops) {
+            if (!loop.blocks.contains(pred) || !loop.blocks.contains(succ)) continue;
+            loop.blocks.add(mid);
+            innermost.putIfAbsent(mid, loop);
+            if (loop.header == succ) {
+                int idx = loop.latches.indexOf(pred);
+                if (idx >= 0) loop.latches.set(idx, mid);
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package opt.llvm;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrConstInt;
+import backend.ir.IrFunction;
+import backend.ir.IrInstruction;
+import backend.ir.IrRegister;
+import backend.ir.IrType;
+import backend.ir.IrUse;
+import backend.ir.IrValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 循环强度削弱：循环内形如 {@code gep T, base, idx} 的访问，若 base 是循环不变量、idx 是归纳变量的
+ * 仿射式（见 {@link InductionVariables}），就改为在首部用 phi 维护的指针：前置块算出首次迭代的地址，
+ * 回边上按 step 递增。base、归纳变量、不变量部分都相同的访问共用一个指针，彼此只差常量偏移。
+ * 原先的乘法与加法若不再被使用，由后续的化简器删除。
+ * 结果在循环外还有使用的 gep 保持不变（出口处指针已经前进了一步）。
+ */
+public class LoopStrengthReduce implements FunctionPass {
+    /** 共用同一个指针 phi 的访问。 */
+    private static final class Group {
+        final IrValue base;
+        final IrType elem;
+        final InductionVariables.Affine first;
+        IrRegister ptr;
+
+        Group(IrValue base, IrType elem, InductionVariables.Affine first) {
+            this.base = base;
+            this.elem = elem;
+            this.first = first;
+        }
+    }
+
+    private final Map<IrValue, IrInstruction> defOf = new HashMap<>();
+    private IrFunction fn;
+
+    @Override
+    public String getName() {
+        return "lsr";
+    }
+
+    @Override
+    public Set<Analysis> preserved() {
+        return Analysis.CFG_ONLY;
+    }
+
+    @Override
+    public boolean run(IrFunction fn, AnalysisManager am) {
+        if (fn.getBlocks().isEmpty()) return false;
+        LoopInfo loops = am.getLoopInfo(fn);
+        if (loops.getLoops().isEmpty()) return false;
+        this.fn = fn;
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                if (ins.getResult() != null) defOf.put(ins.getResult(), ins);
+            }
+        }
+        Cfg cfg = am.getCfg(fn);
+        boolean changed = false;
+        for (LoopInfo.Loop loop : loops.getLoops()) {
+            InductionVariables ivs = new InductionVariables(loop, loop.getPreheader(cfg), defOf);
+            if (ivs.getBasicIvs().isEmpty()) continue;
+            changed |= reduce(loop, ivs);
+        }
+        defOf.clear();
+        this.fn = null;
+        return changed;
+    }
+
+    private boolean reduce(LoopInfo.Loop loop, InductionVariables ivs) {
+        Map<List<Object>, Group> groups = new LinkedHashMap<>();
+        boolean changed = false;
+        for (IrBasicBlock bb : loop.getBlocks()) {
+            for (IrInstruction gep : new ArrayList<>(bb.getInstructions())) {
+                if (gep.getOpcode() != IrInstruction.Opcode.GEP || gep.getOperandCount() != 2) continue;
+                if (gep.getType().getKind() != IrType.Kind.INT) continue;
+                IrValue base = gep.getOperand(0);
+                if (!ivs.isInvariant(base) || usedOutside(gep.getResult(), loop)) continue;
+                InductionVariables.Affine f = ivs.affine(gep.getOperand(1));
+                if (f == null || f.getIv() == null) continue;
+                List<Object> key = Arrays.asList(base, f.getIv(), f.getScale(), f.getInvariant(), gep.getType());
+                Group g = groups.computeIfAbsent(key, k -> new Group(base, gep.getType(), f));
+                if (g.ptr == null) g.ptr = createPointer(g, loop, ivs, gep.getResult());
+                int delta = f.getConstant() - g.first.getConstant();
+                if (delta == 0) {
+                    gep.getResult().replaceAllUsesWith(g.ptr);
+                    gep.eraseFromParent();
+                } else {
+                    // 同组的其它访问只差常量偏移：原地改写为 gep ptr, delta
+                    IrInstruction moved = IrInstruction.gep(gep.getResult(), g.elem, g.ptr, new IrConstInt(delta, 32));
+                    bb.replace(gep, moved);
+                    defOf.put(moved.getResult(), moved);
+                }
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /** 前置块：start = gep base, scale*init + invariant + constant；首部 phi；回边：next = gep ptr, step。 */
+    private IrRegister createPointer(Group g, LoopInfo.Loop loop, InductionVariables ivs, IrRegister firstGep) {
+        IrType ptrType = firstGep.getType();
+        IrBasicBlock preheader = ivs.getPreheader();
+        IrBasicBlock latch = ivs.getLatch();
+        IrInstruction at = preheader.getTerminator();
+        InductionVariables.Affine f = g.first;
+        String name = firstGep.getName() + ".sr";
+        IrValue init = f.getIv().getStart();
+        IrValue offset;
+        if (init instanceof IrConstInt) {
+            offset = new IrConstInt(f.getScale() * ((IrConstInt) init).getValue() + f.getConstant(), 32);
+            if (f.getInvariant() != null) {
+                offset = emit(preheader, at, IrInstruction.Opcode.ADD, name + ".off", f.getInvariant(), offset);
+            }
+        } else {
+            offset = init;
+            if (f.getScale() != 1) {
+                offset = emit(preheader, at, IrInstruction.Opcode.MUL, name + ".mul", init,
+                        new IrConstInt(f.getScale(), 32));
+            }
+            if (f.getInvariant() != null) {
+                offset = emit(preheader, at, IrInstruction.Opcode.ADD, name + ".inv", offset, f.getInvariant());
+            }
+            if (f.getConstant() != 0) {
+                offset = emit(preheader, at, IrInstruction.Opcode.ADD, name + ".off", offset,
+                        new IrConstInt(f.getConstant(), 32));
+            }
+        }
+        IrRegister start = new IrRegister(name + ".start", ptrType);
+        insert(preheader, at, IrInstruction.gep(start, g.elem, g.base, offset));
+        IrRegister ptr = new IrRegister(name, ptrType);
+        IrRegister next = new IrRegister(name + ".next", ptrType);
+        insert(latch, latch.getTerminator(), IrInstruction.gep(next, g.elem, ptr, new IrConstInt(f.getStep(), 32)));
+        List<IrValue> incoming = new ArrayList<>();
+        incoming.add(start);
+        incoming.add(fn.getOrCreateLabel(preheader.getLabel()));
+        incoming.add(next);
+        incoming.add(fn.getOrCreateLabel(latch.getLabel()));
+        IrInstruction phi = IrInstruction.phi(ptr, incoming);
+        loop.getHeader().prepend(phi);
+        defOf.put(ptr, phi);
+        return ptr;
+    }
+
+    private IrValue emit(IrBasicBlock bb, IrInstruction at, IrInstruction.Opcode op, String name, IrValue a, IrValue b) {
+        IrRegister r = new IrRegister(name, IrType.I32);
+        insert(bb, at, IrInstruction.binary(op, r, IrType.I32, a, b));
+        return r;
+    }
+
+    private void insert(IrBasicBlock bb, IrInstruction at, IrInstruction ins) {
+        bb.insertBefore(at, ins);
+        defOf.put(ins.getResult(), ins);
+    }
+
+    private boolean usedOutside(IrRegister r, LoopInfo.Loop loop) {
+        for (IrUse use : r.getUses()) {
+            IrInstruction user = use.getUser();
+            if (!loop.contains(user.getParent())) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,339 @@
+package opt.llvm;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrConstInt;
+import backend.ir.IrFunction;
+import backend.ir.IrInstruction;
+import backend.ir.IrLabel;
+import backend.ir.IrRegister;
+import backend.ir.IrValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 常量次数循环展开，只处理 emitFor 产生的最内层循环形状：首部是唯一的出口，
+ * 以 {@code icmp pred i, C}（可能包着 zext/icmp ne 0）决定是否进入循环体，
+ * i 是初值为常量、每轮加常量的基本归纳变量，循环体经唯一的回边跳回首部。
+ * 次数由模拟归纳变量得到，与运行时的 32 位回绕一致。
+ * <ul>
+ *   <li>总规模不超过 {@link #FULL_LIMIT} 时完全展开：复制 n 轮迭代串成直线代码，原首部只剩
+ *       最后一次（必然失败的）判断，直接跳往出口；</li>
+ *   <li>否则按因子 {@link #FACTORS} 部分展开：先在循环前串接 n % factor 轮作为余数，
+ *       循环体内再复制 factor - 1 轮，复制出的首部不再判断条件。</li>
+ * </ul>
+ * 展开后的常量归纳变量由随后的化简器折叠，直线块由化简器合并。
+ */
+public class LoopUnroll implements FunctionPass {
+    /** 完全展开后允许的指令总数。 */
+    private static final int FULL_LIMIT = 240;
+    /** 部分展开后循环体允许的指令数。 */
+    private static final int PARTIAL_LIMIT = 96;
+    private static final int[] FACTORS = {4, 2};
+    /** 模拟次数的上限，超过即视为次数未知。 */
+    private static final int MAX_TRIP = 1 << 16;
+
+    /** 一轮迭代的副本。 */
+    private static final class Iteration {
+        final Map<IrValue, IrValue> values = new HashMap<>();
+        final Map<IrBasicBlock, IrBasicBlock> blocks = new HashMap<>();
+        IrBasicBlock entry;
+        IrBasicBlock latch;
+    }
+
+    private final Map<IrValue, IrInstruction> defOf = new HashMap<>();
+    private IrFunction fn;
+    private int copies;
+
+    @Override
+    public String getName() {
+        return "unroll";
+    }
+
+    @Override
+    public boolean run(IrFunction fn, AnalysisManager am) {
+        if (fn.getBlocks().isEmpty()) return false;
+        this.fn = fn;
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                if (ins.getResult() != null) defOf.put(ins.getResult(), ins);
+            }
+        }
+        boolean changed = false;
+        LoopInfo loops = am.getLoopInfo(fn);
+        Cfg cfg = am.getCfg(fn);
+        DominatorTree dt = am.getDominatorTree(fn);
+        // 展开会改动 CFG，每个循环的判定都基于展开前的分析；同一轮只展开互不相交的最内层循环
+        List<LoopInfo.Loop> candidates = new ArrayList<>();
+        for (LoopInfo.Loop loop : loops.getLoops()) {
+            if (loop.getChildren().isEmpty()) candidates.add(loop);
+        }
+        for (LoopInfo.Loop loop : candidates) {
+            changed |= unroll(loop, cfg, dt);
+        }
+        if (changed) am.invalidateAll(fn);
+        defOf.clear();
+        this.fn = null;
+        return changed;
+    }
+
+    private boolean unroll(LoopInfo.Loop loop, Cfg cfg, DominatorTree dt) {
+        IrBasicBlock header = loop.getHeader();
+        IrBasicBlock preheader = loop.getPreheader(cfg);
+        if (preheader == null || loop.getLatches().size() != 1) return false;
+        IrBasicBlock latch = loop.getLatches().get(0);
+        List<IrBasicBlock> exiting = loop.getExitingBlocks(cfg);
+        if (exiting.size() != 1 || exiting.get(0) != header) return false;
+        IrInstruction term = header.getTerminator();
+        IrInstruction latchTerm = latch.getTerminator();
+        if (term == null || term.getOperandCount() != 3 || latchTerm == null || latchTerm.getOperandCount() != 1) {
+            return false;
+        }
+        boolean trueEnters = loop.contains(fn.getBlock(term.getOperand(1).getName()));
+        IrLabel exitLabel = (IrLabel) term.getOperand(trueEnters ? 2 : 1);
+        IrLabel bodyLabel = (IrLabel) term.getOperand(trueEnters ? 1 : 2);
+        int trips = tripCount(header, preheader, latch, term.getOperand(0), trueEnters);
+        if (trips < 0) return false;
+
+        // 循环块按支配树逆后序排列，复制时定义先于使用
+        List<IrBasicBlock> body = new ArrayList<>();
+        int size = 0;
+        for (IrBasicBlock bb : dt.getReversePostOrder()) {
+            if (!loop.contains(bb)) continue;
+            body.add(bb);
+            size += bb.size();
+        }
+        if (trips == 0) return false;
+        if ((long) trips * size <= FULL_LIMIT) {
+            fullyUnroll(loop, body, preheader, latch, exitLabel, bodyLabel, trips);
+            return true;
+        }
+        for (int factor : FACTORS) {
+            if (size * factor <= PARTIAL_LIMIT && trips >= 2 * factor) {
+                partiallyUnroll(loop, body, preheader, latch, bodyLabel, trips, factor);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* ---------- trip count ---------- */
+    /** 进入循环体的次数；条件不是常量次数的形状时返回 -1。 */
+    private int tripCount(IrBasicBlock header, IrBasicBlock preheader, IrBasicBlock latch,
+                          IrValue cond, boolean trueEnters) {
+        IrInstruction cmp = defOf.get(cond);
+        // icmp ne (zext (icmp ...)), 0
+        if (cmp != null && cmp.getOpcode() == IrInstruction.Opcode.ICMP
+                && cmp.getPredicate() == IrInstruction.Predicate.NE && isZero(cmp.getOperand(1))) {
+            IrInstruction ext = defOf.get(cmp.getOperand(0));
+            if (ext != null && ext.getOpcode() == IrInstruction.Opcode.ZEXT) cmp = defOf.get(ext.getOperand(0));
+        }
+        if (cmp == null || cmp.getOpcode() != IrInstruction.Opcode.ICMP) return -1;
+        IrValue a = cmp.getOperand(0);
+        IrValue b = cmp.getOperand(1);
+        boolean ivLeft = !(a instanceof IrConstInt);
+        IrValue ivVal = ivLeft ? a : b;
+        if (!((ivLeft ? b : a) instanceof IrConstInt)) return -1;
+        int bound = ((IrConstInt) (ivLeft ? b : a)).getValue();
+        IrInstruction phi = defOf.get(ivVal);
+        if (phi == null || phi.getOpcode() != IrInstruction.Opcode.PHI || phi.getOperandCount() != 4
+                || phi.getParent() != header) {
+            return -1;
+        }
+        IrValue init = incoming(phi, preheader);
+        IrValue next = incoming(phi, latch);
+        if (!(init instanceof IrConstInt) || next == null) return -1;
+        Integer step = IrUtils.stepOf(next, phi.getResult(), defOf);
+        if (step == null || step == 0) return -1;
+        int i = ((IrConstInt) init).getValue();
+        for (int n = 0; n <= MAX_TRIP; n++) {
+            boolean c = ivLeft ? cmp.getPredicate().evaluate(i, bound) : cmp.getPredicate().evaluate(bound, i);
+            if (c != trueEnters) return n;
+            i += step;
+        }
+        return -1;
+    }
+
+    private static boolean isZero(IrValue v) {
+        return v instanceof IrConstInt && ((IrConstInt) v).getValue() == 0;
+    }
+
+    private static IrValue incoming(IrInstruction phi, IrBasicBlock from) {
+        for (int k = 0; k + 1 < phi.getOperandCount(); k += 2) {
+            if (from.getLabel().equals(phi.getOperand(k + 1).getName())) return phi.getOperand(k);
+        }
+        return null;
+    }
+
+    /* ---------- transformations ---------- */
+    private void fullyUnroll(LoopInfo.Loop loop, List<IrBasicBlock> body, IrBasicBlock preheader,
+                             IrBasicBlock latch, IrLabel exitLabel, IrLabel bodyLabel, int trips) {
+        IrBasicBlock header = loop.getHeader();
+        Map<IrValue, IrValue> phiIn = phiValues(header, preheader);
+        IrBasicBlock prev = preheader;
+        List<IrBasicBlock> added = new ArrayList<>();
+        for (int k = 0; k < trips; k++) {
+            Iteration it = cloneIteration(body, header, latch, phiIn, bodyLabel, added);
+            retarget(prev, header, it.entry);
+            phiIn = nextPhiValues(header, latch, it);
+            prev = it.latch;
+        }
+        // 原首部只剩最后一次判断：phi 取最后一轮的值，直接跳往出口
+        replacePhis(header, phiIn);
+        header.replace(header.getTerminator(), IrInstruction.br(exitLabel));
+        Set<IrBasicBlock> dead = new HashSet<>(body);
+        dead.remove(header);
+        for (IrBasicBlock bb : dead) {
+            for (IrInstruction ins : bb.getInstructions()) ins.detachOperands();
+        }
+        fn.getBlocks().removeIf(dead::contains);
+        place(added, header);
+    }
+
+    private void partiallyUnroll(LoopInfo.Loop loop, List<IrBasicBlock> body, IrBasicBlock preheader,
+                                 IrBasicBlock latch, IrLabel bodyLabel, int trips, int factor) {
+        IrBasicBlock header = loop.getHeader();
+        List<IrBasicBlock> added = new ArrayList<>();
+        // 余数：trips % factor 轮直接串在循环之前
+        Map<IrValue, IrValue> phiIn = phiValues(header, preheader);
+        IrBasicBlock prev = preheader;
+        for (int k = 0; k < trips % factor; k++) {
+            Iteration it = cloneIteration(body, header, latch, phiIn, bodyLabel, added);
+            retarget(prev, header, it.entry);
+            phiIn = nextPhiValues(header, latch, it);
+            prev = it.latch;
+        }
+        place(added, header);
+        if (prev != preheader) setIncoming(header, preheader, prev, phiIn);
+        // 循环体内再复制 factor - 1 轮，它们的首部副本不判断条件；先全部复制再改接，
+        // 以免后面的副本复制到已经改接过的回边
+        added.clear();
+        List<Iteration> its = new ArrayList<>();
+        Map<IrValue, IrValue> carried = nextPhiValues(header, latch, null);
+        for (int k = 1; k < factor; k++) {
+            Iteration it = cloneIteration(body, header, latch, carried, bodyLabel, added);
+            its.add(it);
+            carried = nextPhiValues(header, latch, it);
+        }
+        IrBasicBlock tail = latch;
+        for (Iteration it : its) {
+            retarget(tail, header, it.entry);
+            tail = it.latch;
+        }
+        setIncoming(header, latch, tail, carried);
+        int at = fn.getBlocks().indexOf(latch) + 1;
+        fn.getBlocks().addAll(at, added);
+    }
+
+    /**
+     * 复制一轮迭代：首部的 phi 取 phiIn 中的值，首部副本的条件跳转改为直接进入循环体；
+     * 副本的回边指向原首部，由调用方改接。
+     */
+    private Iteration cloneIteration(List<IrBasicBlock> body, IrBasicBlock header, IrBasicBlock latch,
+                                     Map<IrValue, IrValue> phiIn, IrLabel bodyLabel, List<IrBasicBlock> added) {
+        Iteration it = new Iteration();
+        String suffix = "_u" + (copies++);
+        it.values.putAll(phiIn);
+        for (IrBasicBlock bb : body) {
+            IrBasicBlock copy = new IrBasicBlock(bb.getLabel() + suffix);
+            it.blocks.put(bb, copy);
+            it.values.put(fn.getOrCreateLabel(bb.getLabel()), fn.getOrCreateLabel(copy.getLabel()));
+        }
+        for (IrBasicBlock bb : body) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                if (bb == header && ins.getOpcode() == IrInstruction.Opcode.PHI) continue;
+                if (ins.getResult() != null) {
+                    it.values.put(ins.getResult(), new IrRegister(ins.getResult().getName() + suffix,
+                            ins.getResult().getType()));
+                }
+            }
+        }
+        for (IrBasicBlock bb : body) {
+            IrBasicBlock copy = it.blocks.get(bb);
+            for (IrInstruction ins : bb.getInstructions()) {
+                if (bb == header && ins.getOpcode() == IrInstruction.Opcode.PHI) continue;
+                if (bb == header && ins == header.getTerminator()) {
+                    copy.addInstruction(IrInstruction.br((IrLabel) it.values.get(bodyLabel)));
+                    continue;
+                }
+                List<IrValue> ops = new ArrayList<>();
+                for (IrValue op : ins.getOperands()) ops.add(it.values.getOrDefault(op, op));
+                copy.addInstruction(ins.copy((IrRegister) it.values.get(ins.getResult()), ops));
+            }
+            fn.addBlock(copy);
+            fn.getBlocks().remove(fn.getBlocks().size() - 1);
+            added.add(copy);
+        }
+        it.entry = it.blocks.get(header);
+        it.latch = it.blocks.get(latch);
+        // 副本的回边仍跳到原首部
+        retarget(it.latch, it.entry, header);
+        return it;
+    }
+
+    /** 首部 phi 经 from 进入的值。 */
+    private Map<IrValue, IrValue> phiValues(IrBasicBlock header, IrBasicBlock from) {
+        Map<IrValue, IrValue> res = new HashMap<>();
+        for (IrInstruction phi : header.getInstructions()) {
+            if (phi.getOpcode() != IrInstruction.Opcode.PHI) break;
+            res.put(phi.getResult(), incoming(phi, from));
+        }
+        return res;
+    }
+
+    /** 一轮迭代结束时沿回边带给首部 phi 的值（it 为 null 时取原循环体中的值）。 */
+    private Map<IrValue, IrValue> nextPhiValues(IrBasicBlock header, IrBasicBlock latch, Iteration it) {
+        Map<IrValue, IrValue> res = new HashMap<>();
+        for (IrInstruction phi : header.getInstructions()) {
+            if (phi.getOpcode() != IrInstruction.Opcode.PHI) break;
+            IrValue v = incoming(phi, latch);
+            res.put(phi.getResult(), it == null ? v : it.values.getOrDefault(v, v));
+        }
+        return res;
+    }
+
+    private void replacePhis(IrBasicBlock header, Map<IrValue, IrValue> values) {
+        IrInstruction phi = header.getFirst();
+        while (phi != null && phi.getOpcode() == IrInstruction.Opcode.PHI) {
+            IrInstruction next = phi.getNext();
+            phi.getResult().replaceAllUsesWith(values.get(phi.getResult()));
+            phi.eraseFromParent();
+            phi = next;
+        }
+    }
+
+    /** 把首部 phi 来自 oldPred 的入边改为以 values 中的值来自 newPred。 */
+    private void setIncoming(IrBasicBlock header, IrBasicBlock oldPred, IrBasicBlock newPred,
+                             Map<IrValue, IrValue> values) {
+        IrLabel label = fn.getOrCreateLabel(newPred.getLabel());
+        for (IrInstruction phi : header.getInstructions()) {
+            if (phi.getOpcode() != IrInstruction.Opcode.PHI) break;
+            for (int k = 1; k < phi.getOperandCount(); k += 2) {
+                if (!oldPred.getLabel().equals(phi.getOperand(k).getName())) continue;
+                phi.replaceOperand(k - 1, values.get(phi.getResult()));
+                phi.replaceOperand(k, label);
+            }
+        }
+    }
+
+    /** 把 from 的终结指令中指向 oldTarget 的标签改为 newTarget。 */
+    private void retarget(IrBasicBlock from, IrBasicBlock oldTarget, IrBasicBlock newTarget) {
+        if (oldTarget == newTarget) return;
+        IrInstruction term = from.getTerminator();
+        IrLabel label = fn.getOrCreateLabel(newTarget.getLabel());
+        for (int k = 0; k < term.getOperandCount(); k++) {
+            if (term.getOperand(k) instanceof IrLabel && oldTarget.getLabel().equals(term.getOperand(k).getName())) {
+                term.replaceOperand(k, label);
+            }
+        }
+    }
+
+    /** 新块放在 before 之前。 */
+    private void place(List<IrBasicBlock> added, IrBasicBlock before) {
+        fn.getBlocks().addAll(fn.getBlocks().indexOf(before), added);
+    }
+}
@@ -1,113 +1,270 @@
 package opt.llvm;
 
 import backend.ir.IrBasicBlock;
+import backend.ir.IrConstInt;
 import backend.ir.IrFunction;
 import backend.ir.IrInstruction;
 import backend.ir.IrModule;
 import backend.ir.IrRegister;
+import backend.ir.IrType;
 import backend.ir.IrValue;
 
 import java.util.*;
 
 /**
- * 极简 mem2reg：将局部标量的 alloca + {load/store} 提升为 SSA 寄存器。
- * 仅处理函数内局部标量，跳过数组和可能逃逸的指针。
- * 不生成 phi（仅在单前驱链路下安全重命名），用于保守优化。
+ * mem2reg：将局部标量的 alloca + {load/store} 提升为 SSA 寄存器。
+ * 按迭代支配边界放置 phi（只在变量活跃的汇合点放置，即 pruned SSA），
+ * 再沿支配树重命名，最后删除被提升的 alloca 及其 load/store。
+ * 数组、被取址或在不可达块中使用的 alloca 保持不变。
+ * 只改写指令，不改变控制流，因此保留 CFG 与支配树。
  */
-public class Mem2Reg {
+public class Mem2Reg implements FunctionPass {
+    private static class Slot {
+        final IrRegister ptr;
+        final IrType type;
+        final int bits;
+        final Set<IrBasicBlock> defBlocks = new LinkedHashSet<>();
+        final Set<IrBasicBlock> useBlocks = new LinkedHashSet<>();
+
+        Slot(IrRegister ptr, IrType type) {
+            this.ptr = ptr;
+            this.type = type;
+            this.bits = type.isInt(1) ? 1 : 32;
+        }
+    }
+
+    private static class PendingPhi {
+        final Slot slot;
+        final IrRegister result;
+        final List<IrValue> operands = new ArrayList<>();
+
+        PendingPhi(Slot slot, IrRegister result) {
+            this.slot = slot;
+            this.result = result;
+        }
+    }
+
+    private int phiId;
+
     public IrModule run(IrModule module) {
+        AnalysisManager am = new AnalysisManager();
         for (IrFunction fn : module.getFunctions()) {
-            promoteFunction(fn);
+            run(fn, am);
         }
         return module;
     }
 
-    private void promoteFunction(IrFunction fn) {
-        // 收集可提升的 alloca
-        List<IrInstruction> allocas = new ArrayList<>();
-        for (IrBasicBlock bb : fn.getBlocks()) {
+    @Override
+    public String getName() {
+        return "mem2reg";
+    }
+
+    @Override
+    public Set<Analysis> preserved() {
+        return Analysis.CFG_ONLY;
+    }
+
+    @Override
+    public boolean run(IrFunction fn, AnalysisManager am) {
+        if (fn.getBlocks().isEmpty()) return false;
+        DominatorTree dt = am.getDominatorTree(fn);
+        Map<IrRegister, Slot> slots = collectSlots(fn, dt);
+        if (slots.isEmpty()) return false;
+
+        // phi 放置
+        Map<IrBasicBlock, List<PendingPhi>> phis = new HashMap<>();
+        Map<IrRegister, PendingPhi> pendingOf = new LinkedHashMap<>();
+        for (Slot slot : slots.values()) {
+            Set<IrBasicBlock> liveIn = liveInBlocks(slot, dt);
+            Deque<IrBasicBlock> work = new ArrayDeque<>(slot.defBlocks);
+            Set<IrBasicBlock> placed = new HashSet<>();
+            while (!work.isEmpty()) {
+                IrBasicBlock x = work.poll();
+                for (IrBasicBlock y : dt.getFrontier(x)) {
+                    if (placed.contains(y) || !liveIn.contains(y)) continue;
+                    placed.add(y);
+                    IrRegister res = new IrRegister(slot.ptr.getName() + ".p" + (phiId++), slot.type);
+                    fn.putValue(res);
+                    PendingPhi p = new PendingPhi(slot, res);
+                    phis.computeIfAbsent(y, k -> new ArrayList<>()).add(p);
+                    pendingOf.put(res, p);
+                    if (!slot.defBlocks.contains(y)) work.add(y);
+                }
+            }
+        }
+
+        // 沿支配树重命名
+        Map<IrValue, IrValue> repl = new HashMap<>();
+        Set<IrInstruction> dead = new HashSet<>();
+        Deque<IrBasicBlock> blockStack = new ArrayDeque<>();
+        Deque<Map<Slot, IrValue>> valueStack = new ArrayDeque<>();
+        blockStack.push(dt.getEntry());
+        valueStack.push(new HashMap<>());
+        while (!blockStack.isEmpty()) {
+            IrBasicBlock bb = blockStack.pop();
+            Map<Slot, IrValue> cur = valueStack.pop();
+            for (PendingPhi p : phis.getOrDefault(bb, Collections.emptyList())) {
+                cur.put(p.slot, p.result);
+            }
             for (IrInstruction ins : bb.getInstructions()) {
-                if (ins.getOpcode() == IrInstruction.Opcode.ALLOCA && ins.getResult() != null) {
-                    allocas.add(ins);
+                if (ins.getOpcode() == IrInstruction.Opcode.LOAD) {
+                    Slot slot = slots.get(ins.getOperand(0));
+                    if (slot == null) continue;
+                    repl.put(ins.getResult(), currentValue(cur, slot));
+                    dead.add(ins);
+                } else if (ins.getOpcode() == IrInstruction.Opcode.STORE) {
+                    Slot slot = slots.get(ins.getOperand(1));
+                    if (slot == null) continue;
+                    cur.put(slot, resolve(repl, ins.getOperand(0)));
+                    dead.add(ins);
+                } else if (ins.getOpcode() == IrInstruction.Opcode.ALLOCA && slots.containsKey(ins.getResult())) {
+                    dead.add(ins);
+                }
+            }
+            for (IrBasicBlock succ : dt.getSuccessors(bb)) {
+                for (PendingPhi p : phis.getOrDefault(succ, Collections.emptyList())) {
+                    p.operands.add(currentValue(cur, p.slot));
+                    p.operands.add(fn.getOrCreateLabel(bb.getLabel()));
                 }
             }
+            List<IrBasicBlock> children = dt.getChildren(bb);
+            for (int i = children.size() - 1; i >= 0; i--) {
+                blockStack.push(children.get(i));
+                valueStack.push(new HashMap<>(cur));
+            }
         }
-        // 仅处理“仅在单一基本块内，且不被取址”的简单模式
-        Map<IrRegister, List<IrInstruction>> uses = new HashMap<>();
-        for (IrInstruction alloca : allocas) {
-            IrRegister ptr = alloca.getResult();
-            boolean safe = true;
-            List<IrInstruction> userList = new ArrayList<>(ptr.getUsers());
-            for (IrInstruction user : userList) {
-                switch (user.getOpcode()) {
-                    case STORE:
-                        // store val, ptr
-                        if (user.getOperandCount() < 2 || user.getOperand(1) != ptr) { safe = false; }
-                        break;
-                    case LOAD:
-                        // load from ptr
-                        if (user.getOperandCount() < 1 || user.getOperand(0) != ptr) { safe = false; }
+
+        // 删除平凡 phi（所有入值相同或只引用自身）
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (PendingPhi p : pendingOf.values()) {
+                if (repl.containsKey(p.result)) continue;
+                IrValue same = null;
+                boolean trivial = true;
+                for (int i = 0; i < p.operands.size(); i += 2) {
+                    IrValue v = resolve(repl, p.operands.get(i));
+                    if (v == p.result || v == same || sameConst(v, same)) continue;
+                    if (same != null) {
+                        trivial = false;
                         break;
-                    default:
-                        safe = false;
+                    }
+                    same = v;
+                }
+                if (trivial) {
+                    repl.put(p.result, same != null ? same : new IrConstInt(0, p.slot.bits));
+                    changed = true;
                 }
-                if (!safe) break;
-            }
-            if (safe) {
-                uses.put(ptr, userList);
             }
         }
-        if (uses.isEmpty()) return;
 
-        // 重命名：对每个安全的 alloca，用最近的 store 值替换后续 load
+        // 物化 phi，并改写其余指令的操作数
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            List<PendingPhi> ps = phis.get(bb);
+            if (ps == null) continue;
+            IrInstruction first = bb.getFirst();
+            for (PendingPhi p : ps) {
+                if (repl.containsKey(p.result)) continue;
+                List<IrValue> ops = new ArrayList<>();
+                for (int i = 0; i < p.operands.size(); i++) {
+                    ops.add(i % 2 == 0 ? resolve(repl, p.operands.get(i)) : p.operands.get(i));
+                }
+                IrInstruction phi = IrInstruction.phi(p.result, ops);
+                if (first == null) bb.addInstruction(phi);
+                else bb.insertBefore(first, phi);
+            }
+        }
         for (IrBasicBlock bb : fn.getBlocks()) {
-            List<IrInstruction> insns = bb.getInstructions();
-            Map<IrRegister, IrValue> curVal = new HashMap<>();
-            Iterator<IrInstruction> it = insns.iterator();
+            Iterator<IrInstruction> it = bb.getInstructions().iterator();
             while (it.hasNext()) {
                 IrInstruction ins = it.next();
-                // store val, ptr
-                if (ins.getOpcode() == IrInstruction.Opcode.STORE) {
-                    IrValue ptr = ins.getOperandCount() >= 2 ? ins.getOperand(1) : null;
-                    if (ptr instanceof IrRegister && uses.containsKey(ptr)) {
-                        IrValue val = ins.getOperand(0);
-                        curVal.put((IrRegister) ptr, val);
-                        ins.detachOperands();
-                        it.remove();
-                        continue;
-                    }
-                }
-                // load ptr
-                if (ins.getOpcode() == IrInstruction.Opcode.LOAD) {
-                    IrValue ptr = ins.getOperandCount() >= 1 ? ins.getOperand(0) : null;
-                    if (ptr instanceof IrRegister && uses.containsKey(ptr)) {
-                        IrValue val = curVal.get(ptr);
-                        if (val != null && ins.getResult() != null) {
-                            replaceAllUses(ins.getResult(), val);
-                            ins.detachOperands();
-                            it.remove();
-                            continue;
-                        }
-                    }
-                }
-                // alloca 删除
-                if (ins.getOpcode() == IrInstruction.Opcode.ALLOCA && uses.containsKey(ins.getResult())) {
+                if (dead.contains(ins)) {
                     ins.detachOperands();
                     it.remove();
+                    continue;
+                }
+                for (int i = 0; i < ins.getOperandCount(); i++) {
+                    IrValue old = ins.getOperand(i);
+                    if (repl.containsKey(old)) ins.replaceOperand(i, resolve(repl, old));
                 }
             }
         }
+        return true;
     }
 
-    private void replaceAllUses(IrRegister reg, IrValue replacement) {
-        List<IrInstruction> users = new ArrayList<>(reg.getUsers());
-        for (IrInstruction user : users) {
-            for (int i = 0; i < user.getOperandCount(); i++) {
-                if (user.getOperand(i) == reg) {
-                    user.replaceOperand(i, replacement);
-                    user.setText(user.getText().replace(reg.getName(), replacement.getName()));
+    /* ---------- 可提升的 alloca ---------- */
+    private Map<IrRegister, Slot> collectSlots(IrFunction fn, DominatorTree dt) {
+        Map<IrRegister, Slot> slots = new LinkedHashMap<>();
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                if (ins.getOpcode() != IrInstruction.Opcode.ALLOCA || ins.getResult() == null) continue;
+                if (ins.getType().getKind() == IrType.Kind.ARRAY) continue;
+                slots.put(ins.getResult(), new Slot(ins.getResult(), ins.getType()));
+            }
+        }
+        Set<IrRegister> unsafe = new HashSet<>();
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            boolean reachable = dt.isReachable(bb);
+            for (IrInstruction ins : bb.getInstructions()) {
+                for (int i = 0; i < ins.getOperandCount(); i++) {
+                    Slot slot = slots.get(ins.getOperand(i));
+                    if (slot == null) continue;
+                    boolean ok = reachable
+                            && ((ins.getOpcode() == IrInstruction.Opcode.LOAD && i == 0)
+                            || (ins.getOpcode() == IrInstruction.Opcode.STORE && i == 1));
+                    if (!ok) {
+                        unsafe.add(slot.ptr);
+                    } else if (ins.getOpcode() == IrInstruction.Opcode.LOAD) {
+                        slot.useBlocks.add(bb);
+                    } else {
+                        slot.defBlocks.add(bb);
+                    }
                 }
             }
         }
+        for (IrRegister r : unsafe) slots.remove(r);
+        return slots;
+    }
+
+    /** 变量在入口处活跃的块：块内先读后写的块，以及沿前驱回溯且途中无定义的块。 */
+    private Set<IrBasicBlock> liveInBlocks(Slot slot, DominatorTree dt) {
+        Set<IrBasicBlock> liveIn = new HashSet<>();
+        Deque<IrBasicBlock> work = new ArrayDeque<>();
+        for (IrBasicBlock bb : slot.useBlocks) {
+            if (slot.defBlocks.contains(bb) && !loadBeforeStore(bb, slot)) continue;
+            if (liveIn.add(bb)) work.add(bb);
+        }
+        while (!work.isEmpty()) {
+            IrBasicBlock bb = work.poll();
+            for (IrBasicBlock p : dt.getPredecessors(bb)) {
+                if (!dt.isReachable(p) || slot.defBlocks.contains(p)) continue;
+                if (liveIn.add(p)) work.add(p);
+            }
+        }
+        return liveIn;
+    }
+
+    private boolean loadBeforeStore(IrBasicBlock bb, Slot slot) {
+        for (IrInstruction ins : bb.getInstructions()) {
+            if (ins.getOpcode() == IrInstruction.Opcode.STORE && ins.getOperand(1) == slot.ptr) return false;
+            if (ins.getOpcode() == IrInstruction.Opcode.LOAD && ins.getOperand(0) == slot.ptr) return true;
+        }
+        return false;
+    }
+
+    private IrValue currentValue(Map<Slot, IrValue> cur, Slot slot) {
+        IrValue v = cur.get(slot);
+        // 未初始化的读取：SysY 中行为未定义，取 0
+        return v != null ? v : new IrConstInt(0, slot.bits);
+    }
+
+    private IrValue resolve(Map<IrValue, IrValue> repl, IrValue v) {
+        while (v != null && repl.containsKey(v)) v = repl.get(v);
+        return v;
+    }
+
+    private boolean sameConst(IrValue a, IrValue b) {
+        return a instanceof IrConstInt && b instanceof IrConstInt
+                && ((IrConstInt) a).getValue() == ((IrConstInt) b).getValue();
     }
 }
@@ -0,0 +1,202 @@
+package opt.llvm;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrConstInt;
+import backend.ir.IrFunction;
+import backend.ir.IrGlobal;
+import backend.ir.IrGlobalRef;
+import backend.ir.IrInstruction;
+import backend.ir.IrLabel;
+import backend.ir.IrModule;
+import backend.ir.IrRegister;
+import backend.ir.IrType;
+import backend.ir.IrValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 递归纯函数的自动记忆化（需显式开启）：返回 i32、只有一两个 i32 形参、函数体中至少两处调用自身，
+ * 且 {@link ModRef} 摘要为纯（不读写内存、不做 I/O）的函数，在模块中增加两张全局表
+ * {@code memo_<f>_done}/{@code memo_<f>_val}，入口处实参落在表的范围内时先查表，命中直接返回；
+ * 所有 ret 汇合到一个出口块，范围内的结果写回表中。
+ * 表按实参直接寻址（两个形参时按行优先展开），不在 [0, DIM) 内的实参照常计算。
+ * <p>
+ * 放在尾递归消除之前：记忆化后 ret 不再紧跟调用，fib 这类函数保留两次递归调用，
+ * 每个实参只计算一次，总代价是线性的。
+ */
+public class Memoize implements FunctionPass {
+    private final IrModule module;
+
+    public Memoize(IrModule module) {
+        this.module = module;
+    }
+
+    @Override
+    public String getName() {
+        return "memoize";
+    }
+
+    @Override
+    public boolean run(IrFunction fn, AnalysisManager am) {
+        if (!isCandidate(fn, am.getModRef())) return false;
+        memoize(fn);
+        // 函数现在写记忆表：本函数后续的 pass 不能再把它的调用当作只读
+        am.getModRef().refresh(fn);
+        return true;
+    }
+
+    private boolean isCandidate(IrFunction fn, ModRef modRef) {
+        if (fn.getName().equals("main") || fn.getBlocks().isEmpty()) return false;
+        if (!fn.getReturnType().isInt(32) || fn.getParams().isEmpty() || fn.getParams().size() > 2) return false;
+        for (IrRegister p : fn.getParams()) {
+            if (!p.getType().isInt(32)) return false;
+        }
+        if (!modRef.getSummary(fn.getName()).isPure() || fn.getBlock("memo_entry") != null) return false;
+        // 只有一处自调用的线性递归里每个实参本来就只算一次，交给尾递归消除
+        int selfCalls = 0;
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                if (ins.getOpcode() == IrInstruction.Opcode.CALL && fn.getName().equals(ins.getCallee())) selfCalls++;
+            }
+        }
+        return selfCalls >= 2;
+    }
+
+    /* ---------- transformation ---------- */
+    private void memoize(IrFunction fn) {
+        List<IrRegister> params = fn.getParams();
+        int dim = params.size() == 1 ? DIM_1 : DIM_2;
+        int size = params.size() == 1 ? dim : dim * dim;
+        IrType table = IrType.arrayOf(size, IrType.I32);
+        String prefix = "memo_" + fn.getName();
+        List<Integer> zeros = Collections.nCopies(size, 0);
+        module.addGlobal(IrGlobal.variable(prefix + "_done", table, zeros, false));
+        module.addGlobal(IrGlobal.variable(prefix + "_val", table, zeros, false));
+        IrValue done = new IrGlobalRef("@" + prefix + "_done");
+        IrValue val = new IrGlobalRef("@" + prefix + "_val");
+
+        List<IrBasicBlock> blocks = fn.getBlocks();
+        List<IrBasicBlock> original = new ArrayList<>(blocks);
+        IrBasicBlock body = blocks.get(0);
+        IrLabel bodyLabel = fn.getOrCreateLabel(body.getLabel());
+        List<IrBasicBlock> head = new ArrayList<>();
+        List<IrValue> inRange = new ArrayList<>();
+        List<IrValue> slots = new ArrayList<>();
+
+        // 入口：alloca 移过来，然后逐个检查 0 <= p < dim，不满足时直接进入原函数体
+        IrBasicBlock cur = newBlock(fn, "memo_entry", head);
+        for (IrInstruction ins : new ArrayList<>(body.getInstructions())) {
+            if (ins.getOpcode() != IrInstruction.Opcode.ALLOCA) continue;
+            ins.removeFromParent();
+            cur.addInstruction(ins);
+        }
+        for (int i = 0; i < params.size(); i++) {
+            IrBasicBlock lt = newBlock(fn, "memo_lt" + i, head);
+            guard(fn, cur, "%memo.ge" + i, IrInstruction.Predicate.SGE, params.get(i), 0, lt, bodyLabel, inRange, slots);
+            String next = i + 1 < params.size() ? "memo_ge" + (i + 1) : "memo_look";
+            cur = newBlock(fn, next, head);
+            guard(fn, lt, "%memo.lt" + i, IrInstruction.Predicate.SLT, params.get(i), dim, cur, bodyLabel, inRange,
+                    slots);
+        }
+
+        // 查表：命中直接返回表中的值
+        IrBasicBlock look = cur;
+        IrValue idx = params.get(0);
+        if (params.size() == 2) {
+            IrRegister row = new IrRegister("%memo.row", IrType.I32);
+            look.addInstruction(IrInstruction.binary(IrInstruction.Opcode.MUL, row, IrType.I32, idx,
+                    new IrConstInt(dim, 32)));
+            IrRegister sum = new IrRegister("%memo.idx", IrType.I32);
+            look.addInstruction(IrInstruction.binary(IrInstruction.Opcode.ADD, sum, IrType.I32, row, params.get(1)));
+            idx = sum;
+        }
+        IrRegister flagPtr = elementPtr(look, "%memo.fp", table, done, idx);
+        IrRegister flag = new IrRegister("%memo.flag", IrType.I32);
+        look.addInstruction(IrInstruction.load(flag, IrType.I32, flagPtr));
+        IrRegister hit = new IrRegister("%memo.hit", IrType.I1);
+        look.addInstruction(IrInstruction.icmp(hit, IrInstruction.Predicate.NE, IrType.I32, flag,
+                new IrConstInt(0, 32)));
+        IrBasicBlock hitBlock = newBlock(fn, "memo_hit", head);
+        look.addInstruction(IrInstruction.condBr(hit, fn.getOrCreateLabel(hitBlock.getLabel()), bodyLabel));
+        addIncoming(fn, look, new IrConstInt(1, 32), idx, inRange, slots);
+        IrRegister cachedPtr = elementPtr(hitBlock, "%memo.vp", table, val, idx);
+        IrRegister cached = new IrRegister("%memo.cached", IrType.I32);
+        hitBlock.addInstruction(IrInstruction.load(cached, IrType.I32, cachedPtr));
+        hitBlock.addInstruction(IrInstruction.ret(IrType.I32, cached));
+
+        // 原入口块记下是否在表的范围内以及对应的槽位
+        IrRegister in = new IrRegister("%memo.in", IrType.I32);
+        IrRegister slot = new IrRegister("%memo.slot", IrType.I32);
+        body.prepend(IrInstruction.phi(slot, slots));
+        body.prepend(IrInstruction.phi(in, inRange));
+
+        // 出口：所有 ret 汇合，范围内的结果写回表中
+        List<IrBasicBlock> tail = new ArrayList<>();
+        IrBasicBlock exit = newBlock(fn, "memo_exit", tail);
+        IrBasicBlock store = newBlock(fn, "memo_store", tail);
+        IrBasicBlock ret = newBlock(fn, "memo_ret", tail);
+        IrLabel exitLabel = fn.getOrCreateLabel(exit.getLabel());
+        IrLabel retLabel = fn.getOrCreateLabel(ret.getLabel());
+        List<IrValue> results = new ArrayList<>();
+        for (IrBasicBlock bb : original) {
+            IrInstruction term = bb.getTerminator();
+            if (term == null || term.getOpcode() != IrInstruction.Opcode.RET) continue;
+            results.add(term.getOperand(0));
+            results.add(fn.getOrCreateLabel(bb.getLabel()));
+            bb.replace(term, IrInstruction.br(exitLabel));
+        }
+        IrRegister result = new IrRegister("%memo.result", IrType.I32);
+        exit.addInstruction(IrInstruction.phi(result, results));
+        IrRegister save = new IrRegister("%memo.save", IrType.I1);
+        exit.addInstruction(IrInstruction.icmp(save, IrInstruction.Predicate.NE, IrType.I32, in,
+                new IrConstInt(0, 32)));
+        exit.addInstruction(IrInstruction.condBr(save, fn.getOrCreateLabel(store.getLabel()), retLabel));
+        store.addInstruction(IrInstruction.store(IrType.I32, result, elementPtr(store, "%memo.sv", table, val, slot)));
+        store.addInstruction(IrInstruction.store(IrType.I32, new IrConstInt(1, 32),
+                elementPtr(store, "%memo.sd", table, done, slot)));
+        store.addInstruction(IrInstruction.br(retLabel));
+        ret.addInstruction(IrInstruction.ret(IrType.I32, result));
+
+        blocks.addAll(0, head);
+        blocks.addAll(tail);
+    }
+
+    /** from 中比较 p 与常量 c，成立时进入 next，否则带着“不在范围内”进入原函数体。 */
+    private static void guard(IrFunction fn, IrBasicBlock from, String name, IrInstruction.Predicate pred, IrValue p,
+                              int c, IrBasicBlock next, IrLabel body, List<IrValue> inRange, List<IrValue> slots) {
+        IrRegister cond = new IrRegister(name, IrType.I1);
+        from.addInstruction(IrInstruction.icmp(cond, pred, IrType.I32, p, new IrConstInt(c, 32)));
+        from.addInstruction(IrInstruction.condBr(cond, fn.getOrCreateLabel(next.getLabel()), body));
+        addIncoming(fn, from, new IrConstInt(0, 32), new IrConstInt(0, 32), inRange, slots);
+    }
+
+    private static void addIncoming(IrFunction fn, IrBasicBlock from, IrValue in, IrValue slot,
+                                    List<IrValue> inRange, List<IrValue> slots) {
+        IrLabel label = fn.getOrCreateLabel(from.getLabel());
+        inRange.addAll(Arrays.asList(in, label));
+        slots.addAll(Arrays.asList(slot, label));
+    }
+
+    private static IrRegister elementPtr(IrBasicBlock bb, String name, IrType table, IrValue base, IrValue idx) {
+        IrRegister r = new IrRegister(name, IrType.pointerTo(IrType.I32));
+        bb.addInstruction(IrInstruction.gep(r, table, base, new IrConstInt(0, 32), idx));
+        return r;
+    }
+
+    /** 在 fn 中登记新块并记入 placed，块在函数中的位置由调用方统一安排。 */
+    private static IrBasicBlock newBlock(IrFunction fn, String label, List<IrBasicBlock> placed) {
+        IrBasicBlock b = new IrBasicBlock(label);
+        fn.addBlock(b);
+        fn.getBlocks().remove(fn.getBlocks().size() - 1);
+        placed.add(b);
+        return b;
+    }
+
+    /** 单个形参时表的长度。 */
+    private static final int DIM_1 = 2048;
+    /** 两个形参时每一维的长度。 */
+    private static final int DIM_2 = 64;
+}
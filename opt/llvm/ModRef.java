@@ -0,0 +1,244 @@
+package opt.llvm;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrFunction;
+import backend.ir.IrGlobalRef;
+import backend.ir.IrInstruction;
+import backend.ir.IrModule;
+import backend.ir.IrType;
+import backend.ir.IrValue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 过程间副作用（mod/ref）摘要：每个函数读写了哪些全局变量、是否经指针形参读写调用者的内存、
+ * 是否做输入输出（getint/putint 等库函数）。摘要沿调用图自底向上合并被调用者的摘要，
+ * 递归分量内反复迭代到不动点。
+ * <p>
+ * 摘要在优化开始前计算一次；后续变换只会删去副作用而不会引入新的，所以它始终是保守的。
+ * {@link PassManager} 处理完一个函数后调用 {@link #refresh} 按优化后的函数体重算（此时形参已不再经栈槽中转，
+ * 经指针形参的访问才能被识别出来）。使用方据此合并、删除不写内存也不做 I/O 的调用（假设被调用的函数总会返回），
+ * 或只让调用作废它确实写到的对象。不认识的函数按读写全部内存并做 I/O 处理。
+ */
+public class ModRef {
+    /** 一个函数的副作用。 */
+    public static final class Summary {
+        private final Set<String> reads = new HashSet<>();
+        private final Set<String> writes = new HashSet<>();
+        private boolean readsArgs;
+        private boolean writesArgs;
+        /** 经来源不明的指针读写，可能是任何对象。 */
+        private boolean readsAny;
+        private boolean writesAny;
+        private boolean io;
+
+        /** 读过的全局变量名。 */
+        public Set<String> getReads() {
+            return Collections.unmodifiableSet(reads);
+        }
+
+        /** 写过的全局变量名。 */
+        public Set<String> getWrites() {
+            return Collections.unmodifiableSet(writes);
+        }
+
+        public boolean readsArgs() {
+            return readsArgs;
+        }
+
+        public boolean writesArgs() {
+            return writesArgs;
+        }
+
+        public boolean readsAny() {
+            return readsAny;
+        }
+
+        public boolean writesAny() {
+            return writesAny;
+        }
+
+        public boolean hasIo() {
+            return io;
+        }
+
+        /** 不写内存、不做 I/O：结果只取决于实参与它读到的内存。 */
+        public boolean isReadOnly() {
+            return !io && !writesAny && !writesArgs && writes.isEmpty();
+        }
+
+        /** 只读且不读任何内存：结果只取决于实参。 */
+        public boolean isPure() {
+            return isReadOnly() && !readsAny && !readsArgs && reads.isEmpty();
+        }
+
+        /** 并入被调用者的全局读写、不明指针读写与 I/O（经形参的部分由调用点按实参解析）。 */
+        private boolean merge(Summary o) {
+            boolean changed = reads.addAll(o.reads) | writes.addAll(o.writes);
+            if (o.readsAny && !readsAny) {
+                readsAny = true;
+                changed = true;
+            }
+            if (o.writesAny && !writesAny) {
+                writesAny = true;
+                changed = true;
+            }
+            if (o.io && !io) {
+                io = true;
+                changed = true;
+            }
+            return changed;
+        }
+    }
+
+    /** 指针来源的分类：本函数的栈对象、形参、不明；全局变量直接用名字。 */
+    private enum Origin { LOCAL, ARG, ANY }
+
+    private final Map<String, Summary> summaries = new HashMap<>();
+
+    /** 不含任何模块函数的摘要：除库函数外的调用都按最坏情况处理。 */
+    public ModRef() {
+    }
+
+    public ModRef(IrModule module) {
+        List<IrFunction> order = new CallGraph(module).getBottomUpOrder();
+        for (IrFunction fn : order) summaries.put(fn.getName(), new Summary());
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (IrFunction fn : order) changed |= scan(fn);
+        }
+    }
+
+    /** fn 优化完后按当前函数体重算其摘要；调用自身时从空摘要迭代到不动点。 */
+    public void refresh(IrFunction fn) {
+        summaries.put(fn.getName(), new Summary());
+        while (scan(fn)) {
+            // 直到自递归调用不再带来新的副作用
+        }
+    }
+
+    /** 名为 callee 的函数的摘要。 */
+    public Summary getSummary(String callee) {
+        Summary s = summaries.get(callee);
+        if (s != null) return s;
+        return LIBRARY_IO.contains(callee) ? IO : UNKNOWN;
+    }
+
+    public boolean isReadOnlyCall(IrInstruction call) {
+        return getSummary(call.getCallee()).isReadOnly();
+    }
+
+    public boolean isPureCall(IrInstruction call) {
+        return getSummary(call.getCallee()).isPure();
+    }
+
+    /**
+     * 调用可能写到的对象：全局变量名（String）或本函数 alloca 的结果，与 {@link IrUtils#baseObject} 一致；
+     * 无法确定时返回 null，表示任何内存。
+     */
+    public Set<Object> writtenObjects(IrInstruction call, Map<IrValue, IrInstruction> defOf) {
+        Summary s = getSummary(call.getCallee());
+        if (s.writesAny) return null;
+        Set<Object> objects = new HashSet<>(s.writes);
+        if (s.writesArgs) {
+            for (IrValue arg : call.getOperands()) {
+                if (!isPointer(arg)) continue;
+                Object base = IrUtils.baseObject(arg, defOf);
+                if (base == null) return null;
+                objects.add(base);
+            }
+        }
+        return objects;
+    }
+
+    /* ---------- summary construction ---------- */
+    private boolean scan(IrFunction fn) {
+        Summary s = summaries.get(fn.getName());
+        Map<IrValue, IrInstruction> defOf = new HashMap<>();
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                if (ins.getResult() != null) defOf.put(ins.getResult(), ins);
+            }
+        }
+        boolean changed = false;
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                switch (ins.getOpcode()) {
+                    case LOAD:
+                        changed |= access(s, origin(fn, ins.getOperand(0), defOf), false);
+                        break;
+                    case STORE:
+                        changed |= access(s, origin(fn, ins.getOperand(1), defOf), true);
+                        break;
+                    case CALL:
+                        Summary callee = getSummary(ins.getCallee());
+                        changed |= s.merge(callee);
+                        if (!callee.readsArgs && !callee.writesArgs) break;
+                        for (IrValue arg : ins.getOperands()) {
+                            if (!isPointer(arg)) continue;
+                            Object o = origin(fn, arg, defOf);
+                            if (callee.readsArgs) changed |= access(s, o, false);
+                            if (callee.writesArgs) changed |= access(s, o, true);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static boolean access(Summary s, Object origin, boolean write) {
+        if (origin == Origin.LOCAL) return false;
+        if (origin instanceof String) return write ? s.writes.add((String) origin) : s.reads.add((String) origin);
+        boolean arg = origin == Origin.ARG;
+        if (write) {
+            boolean had = arg ? s.writesArgs : s.writesAny;
+            if (arg) s.writesArgs = true;
+            else s.writesAny = true;
+            return !had;
+        }
+        boolean had = arg ? s.readsArgs : s.readsAny;
+        if (arg) s.readsArgs = true;
+        else s.readsAny = true;
+        return !had;
+    }
+
+    /** 沿 gep 回溯指针：全局变量名、{@link Origin#LOCAL}、{@link Origin#ARG} 或 {@link Origin#ANY}。 */
+    private static Object origin(IrFunction fn, IrValue ptr, Map<IrValue, IrInstruction> defOf) {
+        while (true) {
+            if (ptr instanceof IrGlobalRef) return ptr.getName();
+            if (fn.getParams().contains(ptr)) return Origin.ARG;
+            IrInstruction def = defOf.get(ptr);
+            if (def == null) return Origin.ANY;
+            if (def.getOpcode() == IrInstruction.Opcode.ALLOCA) return Origin.LOCAL;
+            if (def.getOpcode() != IrInstruction.Opcode.GEP) return Origin.ANY;
+            ptr = def.getOperand(0);
+        }
+    }
+
+    private static boolean isPointer(IrValue v) {
+        return v.getType() != null && v.getType().getKind() == IrType.Kind.POINTER;
+    }
+
+    private static Summary opaque(boolean writesAny) {
+        Summary s = new Summary();
+        s.readsAny = true;
+        s.writesAny = writesAny;
+        s.io = true;
+        return s;
+    }
+
+    /** 运行库函数：只做 I/O（putstr 读取常量字符串），不写程序可见的内存。 */
+    private static final Set<String> LIBRARY_IO = new HashSet<>(Arrays.asList("getint", "putint", "putch", "putstr"));
+    private static final Summary IO = opaque(false);
+    private static final Summary UNKNOWN = opaque(true);
+}
@@ -0,0 +1,19 @@
+package opt.llvm;
+
+/**
+ * 优化级别。O0 不做任何优化；O1 为默认的 IR 优化加线性扫描分配；
+ * O2 在 O1 基础上改用图着色寄存器分配（编译更慢，代码更快）。
+ */
+public enum OptLevel {
+    O0, O1, O2;
+
+    /** 解析 "-O0"/"-O1"/"-O2"，不认识的参数返回 null。 */
+    public static OptLevel parse(String arg) {
+        switch (arg) {
+            case "-O0": return O0;
+            case "-O1": return O1;
+            case "-O2": return O2;
+            default: return null;
+        }
+    }
+}
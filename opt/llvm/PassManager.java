@@ -0,0 +1,79 @@
+package opt.llvm;
+
+import backend.ir.IrFunction;
+import backend.ir.IrModule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 按函数依次运行 pass 流水线，并通过 {@link AnalysisManager} 共享分析结果：
+ * pass 报告修改后，只作废它没有声明保留的分析。
+ * 函数按调用图自底向上处理，过程间的 pass（如内联）看到的被调用者已经优化完毕，
+ * 每个函数处理完后刷新它的副作用摘要（{@link ModRef}）。
+ */
+public class PassManager {
+    /** 流水线中的一步：单个 pass，或反复运行直到不再变化的一组 pass。 */
+    private static final class Step {
+        final List<FunctionPass> passes;
+        final int maxIter;
+
+        Step(List<FunctionPass> passes, int maxIter) {
+            this.passes = passes;
+            this.maxIter = maxIter;
+        }
+    }
+
+    private final List<Step> steps = new ArrayList<>();
+    private final AnalysisManager analyses = new AnalysisManager();
+
+    public PassManager add(FunctionPass pass) {
+        steps.add(new Step(Collections.singletonList(pass), 1));
+        return this;
+    }
+
+    /** 反复运行这组 pass，直到某一轮没有任何修改，或达到 maxIter 轮。 */
+    public PassManager addFixpoint(int maxIter, FunctionPass... passes) {
+        steps.add(new Step(Arrays.asList(passes), maxIter));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    public AnalysisManager getAnalysisManager() {
+        return analyses;
+    }
+
+    public void run(IrModule module) {
+        for (IrFunction fn : new CallGraph(module).getBottomUpOrder()) {
+            runOn(fn);
+            if (!steps.isEmpty()) analyses.getModRef().refresh(fn);
+        }
+    }
+
+    public boolean runOn(IrFunction fn) {
+        boolean changed = false;
+        for (Step step : steps) {
+            for (int it = 0; it < step.maxIter; it++) {
+                boolean round = false;
+                for (FunctionPass pass : step.passes) {
+                    round |= runPass(pass, fn);
+                }
+                changed |= round;
+                if (!round) break;
+            }
+        }
+        return changed;
+    }
+
+    private boolean runPass(FunctionPass pass, IrFunction fn) {
+        analyses.require(fn, pass.required());
+        boolean changed = pass.run(fn, analyses);
+        if (changed) analyses.invalidate(fn, pass.preserved());
+        return changed;
+    }
+}
@@ -0,0 +1,385 @@
+package opt.llvm;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrConstInt;
+import backend.ir.IrFunction;
+import backend.ir.IrGlobal;
+import backend.ir.IrGlobalRef;
+import backend.ir.IrInstruction;
+import backend.ir.IrLabel;
+import backend.ir.IrRegister;
+import backend.ir.IrType;
+import backend.ir.IrValue;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 稀疏条件常量传播（Wegman-Zadeck）。值的格为 未定 → 常量 → 不确定，同时跟踪哪些 CFG 边可执行：
+ * 只有可执行边上的入值参与 phi 的合并，条件为常量的分支只激活一条出边。
+ * 从 const 全局（含常量下标的 const 数组元素）load 得到的值按初值视为常量。
+ * 收敛后把常量值代入使用处，把条件为常量的分支改为无条件跳转，并删除永不执行的块。
+ * 剩下的平凡 phi 与直线块交给随后的 {@link Simplifier}。
+ */
+public class Sccp implements FunctionPass {
+    /** 指向 const 全局内部的地址：全局与按字计的偏移。 */
+    private static final class Address {
+        final IrGlobal global;
+        final int offset;
+
+        Address(IrGlobal global, int offset) {
+            this.global = global;
+            this.offset = offset;
+        }
+    }
+
+    /** 地址的下标还处于“未定”。 */
+    private static final Address PENDING = new Address(null, 0);
+
+    private final Map<String, IrGlobal> constGlobals = new HashMap<>();
+    private IrFunction fn;
+    private Cfg cfg;
+    // 格：不在 constOf 也不在 overdefined 中的被跟踪值处于“未定”
+    private final Set<IrValue> tracked = new HashSet<>();
+    private final Map<IrValue, IrInstruction> defOf = new HashMap<>();
+    private final Map<IrValue, IrConstInt> constOf = new HashMap<>();
+    private final Set<IrValue> overdefined = new HashSet<>();
+    private final Set<IrBasicBlock> executable = new HashSet<>();
+    private final Map<IrBasicBlock, Set<IrBasicBlock>> feasible = new HashMap<>();
+    private final Deque<IrBasicBlock[]> edgeWork = new ArrayDeque<>();
+    private final Deque<IrInstruction> ssaWork = new ArrayDeque<>();
+
+    public Sccp(Collection<IrGlobal> globals) {
+        for (IrGlobal g : globals) {
+            if (g.isConstant() && !g.isString()) constGlobals.put(g.getName(), g);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "sccp";
+    }
+
+    /** 只替换常量时不动 CFG；改写了分支或删了块则在返回前自行作废缓存的分析。 */
+    @Override
+    public Set<Analysis> preserved() {
+        return Analysis.CFG_ONLY;
+    }
+
+    @Override
+    public boolean run(IrFunction fn, AnalysisManager am) {
+        if (fn.getBlocks().isEmpty()) return false;
+        this.fn = fn;
+        this.cfg = am.getCfg(fn);
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                if (ins.getResult() == null) continue;
+                tracked.add(ins.getResult());
+                defOf.put(ins.getResult(), ins);
+            }
+        }
+        markExecutable(fn.getBlocks().get(0));
+        do {
+            solve();
+        } while (resolveUndefinedBranches());
+
+        boolean changed = replaceConstants();
+        boolean cfgChanged = foldBranches();
+        cfgChanged |= removeDeadBlocks();
+        if (cfgChanged) am.invalidateAll(fn);
+
+        this.fn = null;
+        this.cfg = null;
+        tracked.clear();
+        defOf.clear();
+        constOf.clear();
+        overdefined.clear();
+        executable.clear();
+        feasible.clear();
+        return changed || cfgChanged;
+    }
+
+    /* ---------- solver ---------- */
+    private void solve() {
+        while (!edgeWork.isEmpty() || !ssaWork.isEmpty()) {
+            while (!edgeWork.isEmpty()) {
+                IrBasicBlock[] e = edgeWork.poll();
+                IrBasicBlock succ = e[1];
+                if (!executable.contains(succ)) {
+                    markExecutable(succ);
+                } else {
+                    for (IrInstruction phi = succ.getFirst();
+                         phi != null && phi.getOpcode() == IrInstruction.Opcode.PHI; phi = phi.getNext()) {
+                        visit(phi);
+                    }
+                }
+            }
+            while (!ssaWork.isEmpty()) {
+                IrInstruction ins = ssaWork.poll();
+                if (executable.contains(ins.getParent())) visit(ins);
+            }
+        }
+    }
+
+    private void markExecutable(IrBasicBlock bb) {
+        executable.add(bb);
+        for (IrInstruction ins : bb.getInstructions()) visit(ins);
+    }
+
+    private void addEdge(IrBasicBlock from, IrBasicBlock to) {
+        if (to == null) return;
+        if (feasible.computeIfAbsent(from, k -> new HashSet<>()).add(to)) {
+            edgeWork.add(new IrBasicBlock[]{from, to});
+        }
+    }
+
+    private boolean isFeasible(IrBasicBlock from, IrBasicBlock to) {
+        Set<IrBasicBlock> out = feasible.get(from);
+        return out != null && out.contains(to);
+    }
+
+    private void visit(IrInstruction ins) {
+        IrRegister def = ins.getResult();
+        switch (ins.getOpcode()) {
+            case BR:
+                visitBranch(ins);
+                return;
+            case PHI:
+                visitPhi(ins);
+                return;
+            case ADD: case SUB: case MUL: case SDIV: case SREM: case XOR: case ICMP:
+                visitBinary(ins);
+                return;
+            case ZEXT: {
+                IrValue v = ins.getOperand(0);
+                if (isOverdefined(v)) {
+                    markOverdefined(def);
+                } else if (constantOf(v) != null) {
+                    markConstant(def, constantOf(v).getValue());
+                }
+                return;
+            }
+            case LOAD:
+                visitLoad(ins);
+                return;
+            case GEP:
+                // 地址本身不是整数常量；下标变化时让使用它的 load/gep 重新求地址
+                markOverdefined(def);
+                ssaWork.addAll(def.getUsers());
+                return;
+            default:
+                // alloca/call 的结果一律不确定
+                if (def != null) markOverdefined(def);
+        }
+    }
+
+    private void visitBranch(IrInstruction br) {
+        IrBasicBlock bb = br.getParent();
+        if (br.getOperandCount() == 1) {
+            addEdge(bb, target(br, 0));
+            return;
+        }
+        IrValue cond = br.getOperand(0);
+        if (isOverdefined(cond)) {
+            addEdge(bb, target(br, 1));
+            addEdge(bb, target(br, 2));
+        } else if (constantOf(cond) != null) {
+            addEdge(bb, target(br, constantOf(cond).getValue() != 0 ? 1 : 2));
+        }
+    }
+
+    private void visitPhi(IrInstruction phi) {
+        IrBasicBlock bb = phi.getParent();
+        IrRegister def = phi.getResult();
+        if (isOverdefined(def)) return;
+        Integer value = null;
+        for (int k = 0; k + 1 < phi.getOperandCount(); k += 2) {
+            IrBasicBlock pred = fn.getBlock(phi.getOperand(k + 1).getName());
+            if (!isFeasible(pred, bb)) continue;
+            IrValue v = phi.getOperand(k);
+            if (isOverdefined(v)) {
+                markOverdefined(def);
+                return;
+            }
+            IrConstInt c = constantOf(v);
+            if (c == null) continue;
+            if (value != null && value != c.getValue()) {
+                markOverdefined(def);
+                return;
+            }
+            value = c.getValue();
+        }
+        if (value != null) markConstant(def, value);
+    }
+
+    private void visitBinary(IrInstruction ins) {
+        IrRegister def = ins.getResult();
+        if (isOverdefined(def)) return;
+        IrValue a = ins.getOperand(0);
+        IrValue b = ins.getOperand(1);
+        if (isOverdefined(a) || isOverdefined(b)) {
+            markOverdefined(def);
+            return;
+        }
+        IrConstInt ca = constantOf(a);
+        IrConstInt cb = constantOf(b);
+        if (ca == null || cb == null) return;
+        Integer folded = IrUtils.evaluate(ins, ca.getValue(), cb.getValue());
+        if (folded == null) markOverdefined(def);
+        else markConstant(def, folded);
+    }
+
+    private void visitLoad(IrInstruction load) {
+        IrRegister def = load.getResult();
+        if (isOverdefined(def)) return;
+        Address addr = address(load.getOperand(0));
+        if (addr == PENDING) return;
+        if (addr == null || addr.offset < 0 || addr.offset >= addr.global.getInit().size()) {
+            markOverdefined(def);
+        } else {
+            markConstant(def, addr.global.getInit().get(addr.offset));
+        }
+    }
+
+    /** 指针指向 const 全局时求出其地址；不是或无法确定时返回 null，下标未定时返回 PENDING。 */
+    private Address address(IrValue ptr) {
+        if (ptr instanceof IrGlobalRef) {
+            IrGlobal g = constGlobals.get(ptr.getName().substring(1));
+            return g == null ? null : new Address(g, 0);
+        }
+        IrInstruction gep = defOf.get(ptr);
+        if (gep == null || gep.getOpcode() != IrInstruction.Opcode.GEP) return null;
+        Address base = address(gep.getOperand(0));
+        if (base == null || base == PENDING) return base;
+        int offset = base.offset;
+        IrType t = gep.getType();
+        for (int k = 1; k < gep.getOperandCount(); k++) {
+            IrValue idx = gep.getOperand(k);
+            if (isOverdefined(idx)) return null;
+            IrConstInt c = constantOf(idx);
+            if (c == null) return PENDING;
+            if (k > 1) t = t.getElementType();
+            offset += c.getValue() * words(t);
+        }
+        return new Address(base.global, offset);
+    }
+
+    private static int words(IrType t) {
+        return t.getKind() == IrType.Kind.ARRAY ? t.getLength() * words(t.getElementType()) : 1;
+    }
+
+    private IrBasicBlock target(IrInstruction br, int k) {
+        return fn.getBlock(br.getOperand(k).getName());
+    }
+
+    /* ---------- lattice ---------- */
+    private IrConstInt constantOf(IrValue v) {
+        return v instanceof IrConstInt ? (IrConstInt) v : constOf.get(v);
+    }
+
+    /** 参数、全局地址等不由本函数指令定义的值一律不确定。 */
+    private boolean isOverdefined(IrValue v) {
+        if (v instanceof IrConstInt) return false;
+        return !tracked.contains(v) || overdefined.contains(v);
+    }
+
+    private void markConstant(IrRegister def, int value) {
+        IrConstInt old = constOf.get(def);
+        if (old != null) {
+            if (old.getValue() != value) markOverdefined(def);
+            return;
+        }
+        int bits = def.getType() != null ? def.getType().getBits() : 32;
+        constOf.put(def, new IrConstInt(value, bits));
+        pushUsers(def);
+    }
+
+    private void markOverdefined(IrRegister def) {
+        if (!overdefined.add(def)) return;
+        constOf.remove(def);
+        pushUsers(def);
+    }
+
+    private void pushUsers(IrRegister def) {
+        ssaWork.addAll(def.getUsers());
+    }
+
+    /**
+     * 收敛后仍有可执行块的分支条件处于未定（只依赖于未定值），此时把条件视为不确定，
+     * 让两条出边都可执行，避免跳到被删掉的块。返回是否需要继续求解。
+     */
+    private boolean resolveUndefinedBranches() {
+        boolean resolved = false;
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            if (!executable.contains(bb)) continue;
+            IrInstruction term = bb.getTerminator();
+            if (term == null || term.getOpcode() != IrInstruction.Opcode.BR || term.getOperandCount() != 3) continue;
+            IrValue cond = term.getOperand(0);
+            if (isOverdefined(cond) || constantOf(cond) != null) continue;
+            markOverdefined((IrRegister) cond);
+            visitBranch(term);
+            resolved = true;
+        }
+        return resolved;
+    }
+
+    /* ---------- rewrite ---------- */
+    private boolean replaceConstants() {
+        boolean changed = false;
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            if (!executable.contains(bb)) continue;
+            Iterator<IrInstruction> it = bb.getInstructions().iterator();
+            while (it.hasNext()) {
+                IrInstruction ins = it.next();
+                IrConstInt c = ins.getResult() != null ? constOf.get(ins.getResult()) : null;
+                if (c == null) continue;
+                ins.getResult().replaceAllUsesWith(c);
+                ins.eraseFromParent();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private boolean foldBranches() {
+        boolean changed = false;
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            if (!executable.contains(bb)) continue;
+            IrInstruction term = bb.getTerminator();
+            if (term == null || term.getOpcode() != IrInstruction.Opcode.BR || term.getOperandCount() != 3) continue;
+            if (!(term.getOperand(0) instanceof IrConstInt)) continue;
+            boolean takeTrue = ((IrConstInt) term.getOperand(0)).getValue() != 0;
+            IrLabel kept = (IrLabel) term.getOperand(takeTrue ? 1 : 2);
+            IrLabel dropped = (IrLabel) term.getOperand(takeTrue ? 2 : 1);
+            if (!kept.getName().equals(dropped.getName())) {
+                IrBasicBlock d = fn.getBlock(dropped.getName());
+                if (d != null) IrUtils.removePhiIncoming(d, bb.getLabel());
+            }
+            bb.replace(term, IrInstruction.br(kept));
+            changed = true;
+        }
+        return changed;
+    }
+
+    private boolean removeDeadBlocks() {
+        Set<IrBasicBlock> dead = new HashSet<>();
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            if (!executable.contains(bb)) dead.add(bb);
+        }
+        if (dead.isEmpty()) return false;
+        for (IrBasicBlock bb : dead) {
+            for (IrBasicBlock succ : cfg.successors(bb)) {
+                if (executable.contains(succ)) IrUtils.removePhiIncoming(succ, bb.getLabel());
+            }
+            for (IrInstruction ins : bb.getInstructions()) ins.detachOperands();
+        }
+        fn.getBlocks().removeIf(dead::contains);
+        return true;
+    }
+}
@@ -0,0 +1,409 @@
+package opt.llvm;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrConstInt;
+import backend.ir.IrFunction;
+import backend.ir.IrInstruction;
+import backend.ir.IrLabel;
+import backend.ir.IrRegister;
+import backend.ir.IrValue;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 工作表驱动的化简器：常量折叠、代数化简、平凡 phi、死代码删除（含结果无用的只读调用，见 {@link ModRef}）、常量条件分支，
+ * 以及不可达块删除和直线块合并。
+ * 一条指令被改写后只把它的使用者重新入队，被删除指令的操作数定义也重新入队（可能因此变死），
+ * 所以一次运行就到达真正的不动点，代价近似线性。各规则的触发次数见 {@link #getCounts()}。
+ */
+public class Simplifier implements FunctionPass {
+    public enum Rule {
+        CONSTANT_FOLD, ALGEBRAIC, TRIVIAL_PHI, DEAD_CODE,
+        CONSTANT_BRANCH, SAME_TARGET_BRANCH, UNREACHABLE_BLOCK, MERGE_BLOCK
+    }
+
+    private final Map<Rule, Integer> counts = new EnumMap<>(Rule.class);
+
+    // 单次运行的状态
+    private IrFunction fn;
+    private ModRef modRef;
+    private final Deque<IrInstruction> worklist = new ArrayDeque<>();
+    private final Set<IrInstruction> queued = new HashSet<>();
+    private final Map<IrValue, IrInstruction> defOf = new HashMap<>();
+    private boolean edgesChanged;
+    private boolean cfgDirty;
+
+    @Override
+    public String getName() {
+        return "simplify";
+    }
+
+    /**
+     * 分支被改写时本 pass 自行作废缓存的分析；删块与合并块经 {@link AnalysisManager} 就地维护，
+     * 因此结束时缓存中的 CFG 与支配树都仍然有效。
+     */
+    @Override
+    public Set<Analysis> preserved() {
+        return Analysis.CFG_ONLY;
+    }
+
+    /** 累计（跨函数、跨运行）的规则触发次数。 */
+    public Map<Rule, Integer> getCounts() {
+        return Collections.unmodifiableMap(counts);
+    }
+
+    @Override
+    public boolean run(IrFunction fn, AnalysisManager am) {
+        if (fn.getBlocks().isEmpty()) return false;
+        this.fn = fn;
+        this.modRef = am.getModRef();
+        worklist.clear();
+        queued.clear();
+        defOf.clear();
+        edgesChanged = trimAfterTerminators();
+        boolean changed = edgesChanged;
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                if (ins.getResult() != null) defOf.put(ins.getResult(), ins);
+                push(ins);
+            }
+        }
+        cfgDirty = true;
+        do {
+            changed |= drain();
+            if (cfgDirty) {
+                cfgDirty = false;
+                changed |= cleanupCfg(am);
+            }
+        } while (!worklist.isEmpty());
+        this.fn = null;
+        this.modRef = null;
+        defOf.clear();
+        return changed;
+    }
+
+    /* ---------- instruction worklist ---------- */
+    private boolean drain() {
+        boolean changed = false;
+        while (!worklist.isEmpty()) {
+            IrInstruction ins = worklist.poll();
+            queued.remove(ins);
+            if (ins.getParent() == null) continue; // 已被删除
+            changed |= visit(ins);
+        }
+        return changed;
+    }
+
+    private boolean visit(IrInstruction ins) {
+        IrInstruction.Opcode op = ins.getOpcode();
+        IrRegister def = ins.getResult();
+        if (def != null && !def.hasUses() && REMOVABLE.contains(op)
+                || op == IrInstruction.Opcode.CALL && (def == null || !def.hasUses()) && modRef.isReadOnlyCall(ins)) {
+            erase(ins);
+            count(Rule.DEAD_CODE);
+            return true;
+        }
+        if (op == IrInstruction.Opcode.BR) return simplifyBranch(ins);
+        if (def == null) return false;
+        if (op == IrInstruction.Opcode.PHI) {
+            IrValue same = IrUtils.trivialPhiValue(ins);
+            if (same == null) return false;
+            replace(ins, same);
+            count(Rule.TRIVIAL_PHI);
+            cfgDirty = true; // 块去掉 phi 后可能可以合并
+            return true;
+        }
+        IrValue folded = fold(ins);
+        if (folded != null) {
+            replace(ins, folded);
+            count(Rule.CONSTANT_FOLD);
+            return true;
+        }
+        IrValue simplified = simplify(ins);
+        if (simplified != null) {
+            replace(ins, simplified);
+            count(Rule.ALGEBRAIC);
+            return true;
+        }
+        return false;
+    }
+
+    private void push(IrInstruction ins) {
+        if (ins != null && queued.add(ins)) worklist.add(ins);
+    }
+
+    private void pushDef(IrValue v) {
+        push(defOf.get(v));
+    }
+
+    /** 用 v 替换 ins 的结果：使用者入队后删除 ins。 */
+    private void replace(IrInstruction ins, IrValue v) {
+        IrRegister def = ins.getResult();
+        for (IrInstruction user : def.getUsers()) push(user);
+        def.replaceAllUsesWith(v);
+        erase(ins);
+    }
+
+    private void erase(IrInstruction ins) {
+        for (IrValue op : ins.getOperands()) pushDef(op);
+        if (ins.getResult() != null) defOf.remove(ins.getResult());
+        ins.eraseFromParent();
+    }
+
+    private void count(Rule rule) {
+        counts.merge(rule, 1, Integer::sum);
+    }
+
+    /* ---------- folding and algebra ---------- */
+    private IrValue fold(IrInstruction ins) {
+        IrInstruction.Opcode op = ins.getOpcode();
+        if (!FOLDABLE.contains(op)) return null;
+        int bits = ins.getResult().getType() != null ? ins.getResult().getType().getBits() : 32;
+        if (op == IrInstruction.Opcode.ZEXT) {
+            IrValue v = ins.getOperand(0);
+            return v instanceof IrConstInt ? new IrConstInt(((IrConstInt) v).getValue(), bits) : null;
+        }
+        if (ins.getOperandCount() < 2) return null;
+        IrValue v1 = ins.getOperand(0);
+        IrValue v2 = ins.getOperand(1);
+        if (!(v1 instanceof IrConstInt) || !(v2 instanceof IrConstInt)) return null;
+        int a = ((IrConstInt) v1).getValue();
+        int b = ((IrConstInt) v2).getValue();
+        Integer folded = IrUtils.evaluate(ins, a, b);
+        return folded == null ? null : new IrConstInt(folded, bits);
+    }
+
+    private IrValue simplify(IrInstruction ins) {
+        IrInstruction.Opcode op = ins.getOpcode();
+        if (!ALGEBRA_OPS.contains(op) || ins.getOperandCount() < 2) return null;
+        IrValue a = ins.getOperand(0);
+        IrValue b = ins.getOperand(1);
+        switch (op) {
+            case ICMP:
+                if (a == b) {
+                    int bits = ins.getResult().getType() != null ? ins.getResult().getType().getBits() : 1;
+                    return new IrConstInt(ins.getPredicate().evaluate(0, 0) ? 1 : 0, bits);
+                }
+                // icmp ne (zext i1 x), 0 → x
+                IrInstruction widened = defOf.get(a);
+                if (ins.getPredicate() == IrInstruction.Predicate.NE && isZero(b) && widened != null
+                        && widened.getOpcode() == IrInstruction.Opcode.ZEXT
+                        && widened.getOperand(0).getType() != null && widened.getOperand(0).getType().isInt(1)) {
+                    return widened.getOperand(0);
+                }
+                break;
+            case ADD:
+                if (isZero(b)) return a;
+                if (isZero(a)) return b;
+                break;
+            case SUB:
+                if (isZero(b)) return a;
+                if (a == b) return new IrConstInt(0, 32);
+                break;
+            case MUL:
+                if (isOne(a)) return b;
+                if (isOne(b)) return a;
+                if (isZero(a) || isZero(b)) return new IrConstInt(0, 32);
+                break;
+            case SDIV:
+                if (isOne(b)) return a;
+                break;
+            case SREM:
+                if (isOne(b)) return new IrConstInt(0, 32);
+                break;
+            case XOR:
+                if (isZero(a)) return b;
+                if (isZero(b)) return a;
+                if (a == b) return new IrConstInt(0, 32);
+                break;
+            default:
+                break;
+        }
+        return null;
+    }
+
+    private boolean isZero(IrValue v) {
+        return v instanceof IrConstInt && ((IrConstInt) v).getValue() == 0;
+    }
+
+    private boolean isOne(IrValue v) {
+        return v instanceof IrConstInt && ((IrConstInt) v).getValue() == 1;
+    }
+
+    /* ---------- branches ---------- */
+    private boolean simplifyBranch(IrInstruction br) {
+        if (br.getOperandCount() != 3) return false;
+        IrBasicBlock bb = br.getParent();
+        IrValue cond = br.getOperand(0);
+        IrLabel trueT = (IrLabel) br.getOperand(1);
+        IrLabel falseT = (IrLabel) br.getOperand(2);
+        IrLabel target;
+        if (trueT.getName().equals(falseT.getName())) {
+            target = trueT;
+            count(Rule.SAME_TARGET_BRANCH);
+        } else if (cond instanceof IrConstInt) {
+            boolean takeTrue = ((IrConstInt) cond).getValue() != 0;
+            target = takeTrue ? trueT : falseT;
+            IrBasicBlock dropped = fn.getBlock((takeTrue ? falseT : trueT).getName());
+            if (dropped != null) dropIncoming(dropped, bb.getLabel());
+            count(Rule.CONSTANT_BRANCH);
+        } else {
+            return false;
+        }
+        pushDef(cond);
+        bb.replace(br, IrInstruction.br(target));
+        edgesChanged = true;
+        cfgDirty = true;
+        return true;
+    }
+
+    /** 删除 bb 中 phi 来自 predLabel 的入边；丢掉的入值与改写后的 phi 重新入队。 */
+    private void dropIncoming(IrBasicBlock bb, String predLabel) {
+        for (IrInstruction phi = bb.getFirst(); phi != null && phi.getOpcode() == IrInstruction.Opcode.PHI;
+             phi = phi.getNext()) {
+            for (int k = 0; k + 1 < phi.getOperandCount(); k += 2) {
+                if (predLabel.equals(phi.getOperand(k + 1).getName())) pushDef(phi.getOperand(k));
+            }
+        }
+        IrUtils.removePhiIncoming(bb, predLabel);
+        for (IrInstruction phi = bb.getFirst(); phi != null && phi.getOpcode() == IrInstruction.Opcode.PHI;
+             phi = phi.getNext()) {
+            defOf.put(phi.getResult(), phi);
+            push(phi);
+        }
+    }
+
+    private boolean trimAfterTerminators() {
+        boolean changed = false;
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            IrInstruction term = bb.getFirst();
+            while (term != null && term.getOpcode() != IrInstruction.Opcode.BR
+                    && term.getOpcode() != IrInstruction.Opcode.RET) {
+                term = term.getNext();
+            }
+            if (term == null) continue;
+            while (term.getNext() != null) {
+                term.getNext().eraseFromParent();
+                count(Rule.DEAD_CODE);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /* ---------- CFG cleanup ---------- */
+    private boolean cleanupCfg(AnalysisManager am) {
+        if (edgesChanged) {
+            // 分支已被改写，缓存的分析过期；CFG 重新计算后在下面就地维护
+            am.invalidateAll(fn);
+            edgesChanged = false;
+        }
+        boolean changed = removeUnreachableBlocks(am);
+        changed |= mergeStraightLineBlocks(am);
+        return changed;
+    }
+
+    private boolean removeUnreachableBlocks(AnalysisManager am) {
+        Cfg cfg = am.getCfg(fn);
+        List<IrBasicBlock> blocks = fn.getBlocks();
+        Set<IrBasicBlock> reachable = new HashSet<>();
+        Deque<IrBasicBlock> work = new ArrayDeque<>();
+        work.push(blocks.get(0));
+        reachable.add(blocks.get(0));
+        while (!work.isEmpty()) {
+            for (IrBasicBlock succ : cfg.successors(work.pop())) {
+                if (reachable.add(succ)) work.push(succ);
+            }
+        }
+        if (reachable.size() == blocks.size()) return false;
+        Iterator<IrBasicBlock> it = blocks.iterator();
+        while (it.hasNext()) {
+            IrBasicBlock b = it.next();
+            if (reachable.contains(b)) continue;
+            for (IrBasicBlock succ : cfg.successors(b)) {
+                if (reachable.contains(succ)) dropIncoming(succ, b.getLabel());
+            }
+            while (!b.isEmpty()) erase(b.getFirst());
+            am.onBlockRemoved(fn, b);
+            it.remove();
+            count(Rule.UNREACHABLE_BLOCK);
+        }
+        return true;
+    }
+
+    private boolean mergeStraightLineBlocks(AnalysisManager am) {
+        Cfg cfg = am.getCfg(fn);
+        List<IrBasicBlock> blocks = fn.getBlocks();
+        boolean changed = false;
+        int i = 1;
+        while (i < blocks.size()) {
+            IrBasicBlock b = blocks.get(i);
+            IrBasicBlock pred = cfg.uniquePredecessor(b);
+            IrInstruction term = pred != null ? pred.getLast() : null;
+            IrInstruction first = b.getFirst();
+            if (pred == b || term == null || (first != null && first.getOpcode() == IrInstruction.Opcode.PHI)
+                    || term.getOpcode() != IrInstruction.Opcode.BR || term.getOperandCount() != 1) {
+                i++;
+                continue;
+            }
+            term.eraseFromParent();
+            for (IrBasicBlock succ : cfg.successors(b)) {
+                IrUtils.renamePhiIncoming(fn, succ, b.getLabel(), pred.getLabel());
+            }
+            while (!b.isEmpty()) {
+                b.getFirst().moveToEnd(pred);
+            }
+            am.onBlocksMerged(fn, pred, b);
+            blocks.remove(i);
+            count(Rule.MERGE_BLOCK);
+            changed = true;
+        }
+        return changed;
+    }
+
+    private static final EnumSet<IrInstruction.Opcode> FOLDABLE = EnumSet.of(
+            IrInstruction.Opcode.ADD,
+            IrInstruction.Opcode.SUB,
+            IrInstruction.Opcode.MUL,
+            IrInstruction.Opcode.SDIV,
+            IrInstruction.Opcode.SREM,
+            IrInstruction.Opcode.XOR,
+            IrInstruction.Opcode.ZEXT,
+            IrInstruction.Opcode.ICMP
+    );
+
+    private static final EnumSet<IrInstruction.Opcode> ALGEBRA_OPS = EnumSet.of(
+            IrInstruction.Opcode.ICMP,
+            IrInstruction.Opcode.ADD,
+            IrInstruction.Opcode.SUB,
+            IrInstruction.Opcode.MUL,
+            IrInstruction.Opcode.SDIV,
+            IrInstruction.Opcode.SREM,
+            IrInstruction.Opcode.XOR
+    );
+
+    private static final EnumSet<IrInstruction.Opcode> REMOVABLE = EnumSet.of(
+            IrInstruction.Opcode.ALLOCA,
+            IrInstruction.Opcode.LOAD,
+            IrInstruction.Opcode.GEP,
+            IrInstruction.Opcode.ADD,
+            IrInstruction.Opcode.SUB,
+            IrInstruction.Opcode.MUL,
+            IrInstruction.Opcode.SDIV,
+            IrInstruction.Opcode.SREM,
+            IrInstruction.Opcode.ICMP,
+            IrInstruction.Opcode.ZEXT,
+            IrInstruction.Opcode.XOR,
+            IrInstruction.Opcode.PHI
+    );
+}
@@ -0,0 +1,210 @@
+package opt.llvm;
+
+import backend.ir.IrBasicBlock;
+import backend.ir.IrConstInt;
+import backend.ir.IrFunction;
+import backend.ir.IrGlobalRef;
+import backend.ir.IrInstruction;
+import backend.ir.IrLabel;
+import backend.ir.IrRegister;
+import backend.ir.IrType;
+import backend.ir.IrValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 尾递归消除：{@code %r = call @f(args); ret %r} 形式的自调用改为跳回函数开头，
+ * 原入口块成为循环首部，形参由首部的 phi 接收每次“调用”的实参；原入口块中的 alloca 移到新建的入口块。
+ * <p>
+ * 形如 {@code ret x op f(args)}（op 为 add 或 mul）的自调用也能处理：首部再加一个累加器 phi，
+ * 初值为 op 的单位元，每次回跳前并入 x，其余 ret 返回 {@code acc op v}。
+ * 两种运算在 32 位回绕下都满足交换律与结合律，结果与递归求值一致。
+ * 实参指向本函数 alloca 的调用点不处理：回跳后这块栈空间会被下一次“调用”复用。
+ */
+public class TailRecursion implements FunctionPass {
+    /** 一个尾调用点：call 及其后的累加运算（没有时为 null）与 ret。 */
+    private static final class Site {
+        final IrInstruction call;
+        final IrInstruction acc;
+        final IrInstruction ret;
+
+        Site(IrInstruction call, IrInstruction acc, IrInstruction ret) {
+            this.call = call;
+            this.acc = acc;
+            this.ret = ret;
+        }
+    }
+
+    private final Map<IrValue, IrInstruction> defOf = new HashMap<>();
+
+    @Override
+    public String getName() {
+        return "tail-recursion";
+    }
+
+    @Override
+    public boolean run(IrFunction fn, AnalysisManager am) {
+        if (fn.getBlocks().isEmpty()) return false;
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            for (IrInstruction ins : bb.getInstructions()) {
+                if (ins.getResult() != null) defOf.put(ins.getResult(), ins);
+            }
+        }
+        List<Site> sites = new ArrayList<>();
+        IrInstruction.Opcode accOp = null;
+        for (IrBasicBlock bb : fn.getBlocks()) {
+            Site s = match(fn, bb);
+            if (s == null) continue;
+            if (s.acc != null) {
+                // 累加运算只能有一种
+                if (accOp != null && s.acc.getOpcode() != accOp) continue;
+                accOp = s.acc.getOpcode();
+            }
+            sites.add(s);
+        }
+        defOf.clear();
+        if (sites.isEmpty()) return false;
+        eliminate(fn, sites, accOp);
+        am.invalidateAll(fn);
+        return true;
+    }
+
+    /* ---------- matching ---------- */
+    private Site match(IrFunction fn, IrBasicBlock bb) {
+        IrInstruction ret = bb.getTerminator();
+        if (ret == null || ret.getOpcode() != IrInstruction.Opcode.RET) return null;
+        IrInstruction prev = ret.getPrev();
+        IrInstruction acc = null;
+        if (prev != null && ACCUMULATORS.contains(prev.getOpcode()) && ret.getOperandCount() > 0
+                && ret.getOperand(0) == prev.getResult() && prev.getResult().getUseCount() == 1) {
+            acc = prev;
+            prev = prev.getPrev();
+        }
+        if (prev == null || prev.getOpcode() != IrInstruction.Opcode.CALL || !fn.getName().equals(prev.getCallee())) {
+            return null;
+        }
+        IrRegister r = prev.getResult();
+        if (acc != null) {
+            // r 恰好在累加运算中出现一次
+            if (r == null || r.getUseCount() != 1 || (acc.getOperand(0) != r && acc.getOperand(1) != r)) return null;
+        } else if (ret.getOperandCount() > 0) {
+            if (r == null || ret.getOperand(0) != r || r.getUseCount() != 1) return null;
+        } else if (r != null && r.hasUses()) {
+            return null;
+        }
+        for (IrValue arg : prev.getOperands()) {
+            if (arg.getType() != null && arg.getType().getKind() == IrType.Kind.POINTER
+                    && !fromParamOrGlobal(fn, arg)) {
+                return null;
+            }
+        }
+        return new Site(prev, acc, ret);
+    }
+
+    /** 指针沿 gep 回溯到形参或全局变量。 */
+    private boolean fromParamOrGlobal(IrFunction fn, IrValue ptr) {
+        while (true) {
+            if (ptr instanceof IrGlobalRef || fn.getParams().contains(ptr)) return true;
+            IrInstruction def = defOf.get(ptr);
+            if (def == null || def.getOpcode() != IrInstruction.Opcode.GEP) return false;
+            ptr = def.getOperand(0);
+        }
+    }
+
+    /* ---------- transformation ---------- */
+    private void eliminate(IrFunction fn, List<Site> sites, IrInstruction.Opcode accOp) {
+        List<IrBasicBlock> blocks = fn.getBlocks();
+        IrBasicBlock header = blocks.get(0);
+        IrBasicBlock entry = new IrBasicBlock("tre_entry");
+        fn.addBlock(entry);
+        blocks.remove(blocks.size() - 1);
+        blocks.add(0, entry);
+        for (IrInstruction ins : new ArrayList<>(header.getInstructions())) {
+            if (ins.getOpcode() != IrInstruction.Opcode.ALLOCA) continue;
+            ins.removeFromParent();
+            entry.addInstruction(ins);
+        }
+        IrLabel headerLabel = fn.getOrCreateLabel(header.getLabel());
+        IrLabel entryLabel = fn.getOrCreateLabel(entry.getLabel());
+        entry.addInstruction(IrInstruction.br(headerLabel));
+
+        // 形参的所有使用改为首部 phi；之后读取的实参也随之指向 phi
+        Map<IrRegister, IrRegister> params = new LinkedHashMap<>();
+        for (IrRegister p : fn.getParams()) {
+            if (!p.hasUses()) continue;
+            IrRegister cur = new IrRegister(p.getName() + ".tr", p.getType());
+            p.replaceAllUsesWith(cur);
+            params.put(p, cur);
+        }
+        IrRegister acc = accOp == null ? null : new IrRegister("%tr.acc", fn.getReturnType());
+        if (acc != null) {
+            // 其余 ret v 改为 ret acc op v（先改，后面新加的回跳不受影响）
+            int k = 0;
+            for (IrBasicBlock bb : blocks) {
+                IrInstruction ret = bb.getTerminator();
+                if (ret == null || ret.getOpcode() != IrInstruction.Opcode.RET || isSite(sites, ret)) continue;
+                IrRegister v = new IrRegister("%tr.ret" + (k++), acc.getType());
+                bb.insertBefore(ret, IrInstruction.binary(accOp, v, acc.getType(), acc, ret.getOperand(0)));
+                ret.replaceOperand(0, v);
+            }
+        }
+
+        Map<IrRegister, List<IrValue>> incoming = new LinkedHashMap<>();
+        for (Map.Entry<IrRegister, IrRegister> e : params.entrySet()) {
+            incoming.put(e.getValue(), new ArrayList<>(Arrays.asList(e.getKey(), entryLabel)));
+        }
+        List<IrValue> accIncoming = new ArrayList<>();
+        if (acc != null) {
+            accIncoming.add(new IrConstInt(accOp == IrInstruction.Opcode.MUL ? 1 : 0, 32));
+            accIncoming.add(entryLabel);
+        }
+        int k = 0;
+        for (Site s : sites) {
+            IrBasicBlock bb = s.call.getParent();
+            IrLabel from = fn.getOrCreateLabel(bb.getLabel());
+            List<IrValue> args = s.call.getOperands();
+            for (int i = 0; i < fn.getParams().size(); i++) {
+                IrRegister cur = params.get(fn.getParams().get(i));
+                if (cur == null) continue;
+                incoming.get(cur).add(args.get(i));
+                incoming.get(cur).add(from);
+            }
+            if (acc != null) {
+                IrValue next = acc;
+                if (s.acc != null) {
+                    IrValue x = s.acc.getOperand(0) == s.call.getResult() ? s.acc.getOperand(1) : s.acc.getOperand(0);
+                    IrRegister r = new IrRegister("%tr.acc" + (k++), acc.getType());
+                    bb.insertBefore(s.call, IrInstruction.binary(accOp, r, acc.getType(), acc, x));
+                    next = r;
+                }
+                accIncoming.add(next);
+                accIncoming.add(from);
+            }
+            s.ret.eraseFromParent();
+            if (s.acc != null) s.acc.eraseFromParent();
+            s.call.eraseFromParent();
+            bb.addInstruction(IrInstruction.br(headerLabel));
+        }
+        if (acc != null) header.prepend(IrInstruction.phi(acc, accIncoming));
+        for (Map.Entry<IrRegister, List<IrValue>> e : incoming.entrySet()) {
+            header.prepend(IrInstruction.phi(e.getKey(), e.getValue()));
+        }
+    }
+
+    private static boolean isSite(List<Site> sites, IrInstruction ret) {
+        for (Site s : sites) {
+            if (s.ret == ret) return true;
+        }
+        return false;
+    }
+
+    private static final Set<IrInstruction.Opcode> ACCUMULATORS = EnumSet.of(
+            IrInstruction.Opcode.ADD, IrInstruction.Opcode.MUL);
+}